@@ -0,0 +1,97 @@
+/**
+ *
+ */
+package org.theseed.dl4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.dl4j.train.RowCounter;
+import org.theseed.dl4j.train.SyntheticData;
+import org.theseed.io.TabbedLineReader;
+
+/**
+ * This benchmark measures loading a CountRowTable from a synthetic training file whose input columns
+ * contain only 0s and 1s and whose output column contains small integers.  The primary score is loads
+ * per second, and the "rows" counter is input rows per second.  Run with "-prof gc" to get the
+ * allocation rate.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class CountRowTableBenchmark {
+
+    // FIELDS
+    /** training file shape, in the form ROWSxCOLUMNS */
+    @Param({ "1000x10", "1000x10000", "100000x100", "1000000x10" })
+    public String shape;
+    /** number of training rows */
+    private int rows;
+    /** data directory */
+    private File dataDir;
+    /** training file */
+    private File trainFile;
+
+    /**
+     * Create the training file.
+     *
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void createData() throws IOException {
+        int[] dims = SyntheticData.parseShape(this.shape);
+        this.rows = dims[0];
+        this.dataDir = SyntheticData.createDiscreteDir(this.rows, dims[1], 2, 42);
+        this.trainFile = new File(this.dataDir, "training.tbl");
+    }
+
+    /**
+     * Load the count-row table.
+     *
+     * @param counter	counter for the rows processed
+     *
+     * @return the table loaded, to prevent dead-code elimination
+     *
+     * @throws IOException
+     */
+    @Benchmark
+    public CountRowTable load(RowCounter counter) throws IOException {
+        CountRowTable retVal;
+        try (TabbedLineReader input = new TabbedLineReader(this.trainFile)) {
+            retVal = new CountRowTable(input, "y1");
+        }
+        counter.rows += this.rows;
+        return retVal;
+    }
+
+    /**
+     * Delete the synthetic data.
+     *
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void deleteData() throws IOException {
+        SyntheticData.deleteDir(this.dataDir);
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ *
+ */
+package org.theseed.dl4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.basic.ParseFailureException;
+import org.theseed.dl4j.train.ClassTrainingProcessor;
+import org.theseed.dl4j.train.RowCounter;
+import org.theseed.dl4j.train.SyntheticData;
+
+/**
+ * This benchmark measures the MeanBiasProcessor analysis on the training file of a synthetic classification
+ * model directory, including the report output.  The primary score is runs per second, and the "rows"
+ * counter is training rows per second.  Run with "-prof gc" to get the allocation rate.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class MeanBiasBenchmark {
+
+    // FIELDS
+    /** training file shape, in the form ROWSxCOLUMNS */
+    @Param({ "1000x10", "1000x10000", "100000x100", "1000000x10" })
+    public String shape;
+    /** number of training rows */
+    private int rows;
+    /** model directory */
+    private File modelDir;
+
+    /**
+     * Create the model directory.
+     *
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void createData() throws IOException {
+        int[] dims = SyntheticData.parseShape(this.shape);
+        this.rows = dims[0];
+        this.modelDir = SyntheticData.createClassDir(this.rows, dims[1], 3, 42);
+        ClassTrainingProcessor trainer = new ClassTrainingProcessor();
+        if (! trainer.parseCommand(new String[] { "-t", "500", "--widths", "20", this.modelDir.toString() }))
+            throw new IllegalStateException("Invalid benchmark parameters.");
+        SyntheticData.saveModel(trainer, this.modelDir);
+    }
+
+    /**
+     * Compute the label biases and write the report.
+     *
+     * @param counter	counter for the rows processed
+     *
+     * @return the processor, to prevent dead-code elimination
+     *
+     * @throws ParseFailureException
+     * @throws IOException
+     */
+    @Benchmark
+    public MeanBiasProcessor analyze(RowCounter counter) throws IOException, ParseFailureException {
+        MeanBiasProcessor retVal = new MeanBiasProcessor();
+        retVal.analyzeLabelBias(this.modelDir, new File(this.modelDir, "training.tbl"));
+        try (PrintWriter writer = new PrintWriter(OutputStream.nullOutputStream())) {
+            retVal.writeReport(writer);
+        }
+        counter.rows += this.rows;
+        return retVal;
+    }
+
+    /**
+     * Delete the synthetic data.
+     *
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void deleteData() throws IOException {
+        SyntheticData.deleteDir(this.modelDir);
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ *
+ */
+package org.theseed.dl4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.dl4j.train.RegressionTrainingProcessor;
+import org.theseed.dl4j.train.RowCounter;
+import org.theseed.dl4j.train.SyntheticData;
+
+/**
+ * This benchmark measures the PearsonProcessor on the training file of a synthetic regression model
+ * directory.  The primary score is runs per second, and the "rows" counter is training rows per second.
+ * Run with "-prof gc" to get the allocation rate.  The processor is configured again before each
+ * invocation, because a run consumes the training file.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class PearsonBenchmark {
+
+    // FIELDS
+    /** training file shape, in the form ROWSxCOLUMNS */
+    @Param({ "1000x10", "1000x10000", "100000x100", "1000000x10" })
+    public String shape;
+    /** number of training rows */
+    private int rows;
+    /** model directory */
+    private File modelDir;
+    /** report output file */
+    private File outFile;
+    /** pearson processor */
+    private PearsonProcessor processor;
+
+    /**
+     * Create the model directory.
+     *
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void createData() throws IOException {
+        int[] dims = SyntheticData.parseShape(this.shape);
+        this.rows = dims[0];
+        this.modelDir = SyntheticData.createRegressionDir(this.rows, dims[1], 1, 42);
+        RegressionTrainingProcessor trainer = new RegressionTrainingProcessor();
+        if (! trainer.parseCommand(new String[] { "-t", "500", "--widths", "20", this.modelDir.toString() }))
+            throw new IllegalStateException("Invalid benchmark parameters.");
+        SyntheticData.saveModel(trainer, this.modelDir);
+        this.outFile = new File(this.modelDir, "pearson.tbl");
+    }
+
+    /**
+     * Configure a new pearson processor.
+     */
+    @Setup(Level.Invocation)
+    public void prepare() {
+        this.processor = new PearsonProcessor();
+        String[] args = new String[] { "-t", "REGRESSION", "-o", this.outFile.toString(), this.modelDir.toString(), "y1" };
+        if (! this.processor.parseCommand(args))
+            throw new IllegalStateException("Invalid benchmark parameters.");
+    }
+
+    /**
+     * Compute the correlations.
+     *
+     * @param counter	counter for the rows processed
+     */
+    @Benchmark
+    public void correlate(RowCounter counter) {
+        this.processor.run();
+        counter.rows += this.rows;
+    }
+
+    /**
+     * Delete the synthetic data.
+     *
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void deleteData() throws IOException {
+        SyntheticData.deleteDir(this.modelDir);
+    }
+
+}
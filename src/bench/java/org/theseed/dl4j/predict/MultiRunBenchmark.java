@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package org.theseed.dl4j.predict;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.dl4j.train.ClassTrainingProcessor;
+import org.theseed.dl4j.train.RowCounter;
+import org.theseed.dl4j.train.SyntheticData;
+
+/**
+ * This benchmark measures MultiRunProcessor.run.  The control file runs the same untrained classifier
+ * against the same synthetic prediction file several times under different output headings, so the work
+ * scales with the number of models times the number of rows.  The report normally goes to the standard
+ * output, which is discarded for the duration of the trial.
+ *
+ * The primary score is runs per second, and the "rows" counter is prediction rows per second, summed over
+ * all the models.  Run with "-prof gc" to get the allocation rate.  The processor is configured again before
+ * each invocation, because a run consumes the control file.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class MultiRunBenchmark {
+
+    // FIELDS
+    /** input shape, in the form ROWSxCOLUMNS */
+    @Param({ "1000x10", "1000x10000", "100000x100", "1000000x10" })
+    public String shape;
+    /** number of models to run */
+    @Param({ "2", "8" })
+    public int models;
+    /** number of prediction rows */
+    private int rows;
+    /** model directory */
+    private File modelDir;
+    /** control file */
+    private File controlFile;
+    /** multi-run processor */
+    private MultiRunProcessor processor;
+    /** original standard output */
+    private PrintStream stdout;
+
+    /**
+     * Create the model, the prediction input, and the control file.
+     *
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void createData() throws IOException {
+        int[] dims = SyntheticData.parseShape(this.shape);
+        this.rows = dims[0];
+        this.modelDir = SyntheticData.createClassDir(600, dims[1], 3, 42);
+        ClassTrainingProcessor trainer = new ClassTrainingProcessor();
+        if (! trainer.parseCommand(new String[] { "-t", "500", "--widths", "20", this.modelDir.toString() }))
+            throw new IllegalStateException("Invalid benchmark parameters.");
+        SyntheticData.saveModel(trainer, this.modelDir);
+        SyntheticData.createPredictionFile(new File(this.modelDir, "predict.tbl"), this.rows, dims[1], 43);
+        this.controlFile = new File(this.modelDir, "control.tbl");
+        try (PrintWriter writer = new PrintWriter(this.controlFile)) {
+            writer.println("model\tinput\tmeta\theading");
+            for (int i = 1; i <= this.models; i++)
+                writer.format("model.ser\tpredict.tbl\t\tA%d%n", i);
+        }
+        this.stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Configure a new multi-run processor.
+     */
+    @Setup(Level.Invocation)
+    public void prepare() {
+        this.processor = new MultiRunProcessor();
+        String[] args = new String[] { "-i", this.controlFile.toString(), "-r", "A", "-k", "id",
+                this.modelDir.toString() };
+        if (! this.processor.parseCommand(args))
+            throw new IllegalStateException("Invalid benchmark parameters.");
+    }
+
+    /**
+     * Run the models.
+     *
+     * @param counter	counter for the rows processed
+     */
+    @Benchmark
+    public void multiRun(RowCounter counter) {
+        this.processor.run();
+        counter.rows += (long) this.rows * this.models;
+    }
+
+    /**
+     * Restore the standard output and delete the synthetic data.
+     *
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void deleteData() throws IOException {
+        System.setOut(this.stdout);
+        SyntheticData.deleteDir(this.modelDir);
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ *
+ */
+package org.theseed.dl4j.predict;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.theseed.dl4j.train.ClassTrainingProcessor;
+import org.theseed.dl4j.train.RowCounter;
+import org.theseed.dl4j.train.SyntheticData;
+
+/**
+ * This benchmark measures PredictionProcessor.run on a synthetic prediction file.  The model is an untrained
+ * classifier with a single small hidden layer, so the measurement is dominated by reading the input,
+ * normalizing it, and formatting the output rather than by the network itself.  The "regression" parameter
+ * selects between writing the best label and writing all the confidences.
+ *
+ * The primary score is runs per second, and the "rows" counter is prediction rows per second.  Run with
+ * "-prof gc" to get the allocation rate.  The processor is configured again before each invocation, because
+ * a run consumes the input and closes the output.  This setup, which includes loading the model, is not
+ * included in the timing.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class PredictionBenchmark {
+
+    // FIELDS
+    /** input shape, in the form ROWSxCOLUMNS */
+    @Param({ "1000x10", "1000x10000", "100000x100", "1000000x10" })
+    public String shape;
+    /** TRUE to output all the confidences */
+    @Param({ "false", "true" })
+    public boolean regression;
+    /** number of prediction rows */
+    private int rows;
+    /** model directory */
+    private File modelDir;
+    /** prediction input file */
+    private File inFile;
+    /** prediction output file */
+    private File outFile;
+    /** prediction processor */
+    private PredictionProcessor processor;
+
+    /**
+     * Create the model and the prediction input.
+     *
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void createData() throws IOException {
+        int[] dims = SyntheticData.parseShape(this.shape);
+        this.rows = dims[0];
+        this.modelDir = SyntheticData.createClassDir(600, dims[1], 3, 42);
+        ClassTrainingProcessor trainer = new ClassTrainingProcessor();
+        if (! trainer.parseCommand(new String[] { "-t", "500", "--widths", "20", this.modelDir.toString() }))
+            throw new IllegalStateException("Invalid benchmark parameters.");
+        SyntheticData.saveModel(trainer, this.modelDir);
+        this.inFile = new File(this.modelDir, "predict.tbl");
+        SyntheticData.createPredictionFile(this.inFile, this.rows, dims[1], 43);
+        this.outFile = new File(this.modelDir, "predictions.tbl");
+    }
+
+    /**
+     * Configure a new prediction processor.
+     */
+    @Setup(Level.Invocation)
+    public void prepare() {
+        this.processor = new PredictionProcessor();
+        String[] args = new String[] { "-i", this.inFile.toString(), "--meta", "id", "-o", this.outFile.toString() };
+        if (this.regression)
+            args = ArrayUtils.add(args, "--regression");
+        args = ArrayUtils.add(args, this.modelDir.toString());
+        if (! this.processor.parseCommand(args))
+            throw new IllegalStateException("Invalid benchmark parameters.");
+    }
+
+    /**
+     * Make the predictions.
+     *
+     * @param counter	counter for the rows processed
+     */
+    @Benchmark
+    public void predict(RowCounter counter) {
+        this.processor.run();
+        counter.rows += this.rows;
+    }
+
+    /**
+     * Delete the synthetic data.
+     *
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void deleteData() throws IOException {
+        SyntheticData.deleteDir(this.modelDir);
+    }
+
+}
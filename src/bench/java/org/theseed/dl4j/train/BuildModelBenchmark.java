@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures TrainingProcessor.buildModel for dense, convolutional, and LSTM configurations.
+ * Normalization is turned off, since otherwise each call would normalize the testing set again and the
+ * input would drift between invocations.  The measured time is the configuration build and parameter
+ * initialization.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class BuildModelBenchmark {
+
+    /** model configurations to test */
+    public static enum Config {
+        /** two dense hidden layers */
+        DENSE("--widths", "50,20"),
+        /** two convolution layers with subsampling */
+        CNN("--cnn", "3,3", "--filters", "8", "--sub", "2", "--widths", "20"),
+        /** one LSTM layer */
+        LSTM("--lstm", "1", "--widths", "20");
+
+        /** command-line options for this configuration */
+        private String[] options;
+
+        private Config(String... options) {
+            this.options = options;
+        }
+
+        /**
+         * @return the command-line options for this configuration
+         */
+        public String[] getOptions() {
+            return this.options;
+        }
+
+    }
+
+    // FIELDS
+    /** model configuration */
+    @Param({ "DENSE", "CNN", "LSTM" })
+    public Config config;
+    /** number of feature columns */
+    @Param({ "20", "200", "2000" })
+    public int width;
+    /** model directory containing the synthetic data */
+    private File modelDir;
+    /** training processor */
+    private ClassTrainingProcessor processor;
+
+    /**
+     * Create the synthetic data and configure the processor.
+     *
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.modelDir = SyntheticData.createClassDir(1000, this.width, 3, 42);
+        String[] args = ArrayUtils.addAll(new String[] { "--raw", "-t", "500" }, this.config.getOptions());
+        args = ArrayUtils.add(args, this.modelDir.toString());
+        this.processor = new ClassTrainingProcessor();
+        if (! this.processor.parseCommand(args))
+            throw new IllegalStateException("Invalid benchmark parameters.");
+    }
+
+    /**
+     * @return a newly-built model
+     */
+    @Benchmark
+    public MultiLayerNetwork build() {
+        return this.processor.buildModel();
+    }
+
+    /**
+     * Delete the synthetic data.
+     *
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void deleteData() throws IOException {
+        SyntheticData.deleteDir(this.modelDir);
+    }
+
+}
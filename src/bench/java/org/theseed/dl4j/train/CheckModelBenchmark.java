@@ -0,0 +1,218 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.dataset.DataSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This benchmark measures the cost of RunStats.checkModel, which evaluates the model against the testing
+ * set after each epoch or batch.  There is one benchmark for each classification optimization type and one
+ * for each regression optimization type.  The model is built once per trial and is not trained, since the
+ * evaluation cost does not depend on the parameter values.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CheckModelBenchmark {
+
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(CheckModelBenchmark.class);
+
+    /**
+     * This is the common state for a model evaluation.
+     */
+    public abstract static class ModelState {
+
+        /** size of the testing set */
+        @Param({ "1000", "10000" })
+        public int testSize;
+        /** number of feature columns */
+        @Param({ "20", "200" })
+        public int width;
+        /** model directory containing the synthetic data */
+        protected File modelDir;
+        /** training processor */
+        protected TrainingProcessor processor;
+        /** model to evaluate */
+        protected MultiLayerNetwork model;
+        /** run statistics used to evaluate the model */
+        protected RunStats runStats;
+        /** testing set */
+        protected DataSet testingSet;
+
+        /**
+         * Create the synthetic data, the model, and the run statistics.
+         *
+         * @throws IOException
+         */
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            this.modelDir = this.createData();
+            String[] args = new String[] { "-t", Integer.toString(this.testSize), this.modelDir.toString() };
+            this.processor = this.createProcessor(args);
+            this.model = this.processor.buildModel();
+            Trainer trainer = Trainer.create(Trainer.Type.EPOCH, this.processor, log);
+            this.runStats = this.createRunStats(trainer);
+            this.testingSet = this.processor.getTestingSet();
+        }
+
+        /**
+         * @return the synthetic model directory
+         *
+         * @throws IOException
+         */
+        protected abstract File createData() throws IOException;
+
+        /**
+         * @return a training processor of the proper type, configured from command-line parameters
+         *
+         * @param args		command-line parameters
+         */
+        protected abstract TrainingProcessor createProcessor(String[] args);
+
+        /**
+         * Verify that a processor accepted its command-line parameters.
+         *
+         * @param ok	TRUE if the parameters were valid
+         */
+        protected static void checkParms(boolean ok) {
+            if (! ok)
+                throw new IllegalStateException("Invalid benchmark parameters.");
+        }
+
+        /**
+         * @return the run statistics object to benchmark
+         *
+         * @param trainer	trainer for the run statistics
+         */
+        protected abstract RunStats createRunStats(Trainer trainer);
+
+        /**
+         * @return TRUE if the model evaluated as the best so far
+         */
+        public boolean check() {
+            return this.runStats.checkModel(this.model, this.testingSet, this.processor, 1.0, "epochs", "benchmark");
+        }
+
+        /**
+         * Delete the synthetic data.
+         *
+         * @throws IOException
+         */
+        @TearDown(Level.Trial)
+        public void deleteData() throws IOException {
+            SyntheticData.deleteDir(this.modelDir);
+        }
+
+    }
+
+    /**
+     * State for a classification model.
+     */
+    @State(Scope.Benchmark)
+    public static class ClassState extends ModelState {
+
+        /** optimization type */
+        @Param({ "SCORE", "ACCURACY" })
+        public RunStats.OptimizationType classType;
+
+        @Override
+        protected File createData() throws IOException {
+            return SyntheticData.createClassDir(this.testSize + 500, this.width, 3, 42);
+        }
+
+        @Override
+        protected TrainingProcessor createProcessor(String[] args) {
+            ClassTrainingProcessor retVal = new ClassTrainingProcessor();
+            checkParms(retVal.parseCommand(args));
+            return retVal;
+        }
+
+        @Override
+        protected RunStats createRunStats(Trainer trainer) {
+            return RunStats.create(this.model, this.classType, trainer);
+        }
+
+    }
+
+    /**
+     * State for a regression model.
+     */
+    @State(Scope.Benchmark)
+    public static class RegressionState extends ModelState {
+
+        /** optimization type */
+        @Param({ "SCORE", "RSQUARED", "PEARSON", "ACCURACY", "BOUNDED", "MAE", "MSE" })
+        public RunStats.RegressionType regressionType;
+
+        @Override
+        protected File createData() throws IOException {
+            return SyntheticData.createRegressionDir(this.testSize + 500, this.width, 2, 42);
+        }
+
+        @Override
+        protected TrainingProcessor createProcessor(String[] args) {
+            RegressionTrainingProcessor retVal = new RegressionTrainingProcessor();
+            checkParms(retVal.parseCommand(args));
+            return retVal;
+        }
+
+        @Override
+        protected RunStats createRunStats(Trainer trainer) {
+            return RunStats.createR(this.model, this.regressionType, trainer,
+                    (RegressionTrainingProcessor) this.processor);
+        }
+
+    }
+
+    /**
+     * Evaluate a classification model.
+     *
+     * @param state		model state
+     *
+     * @return TRUE if the model was saved, to prevent dead-code elimination
+     */
+    @Benchmark
+    public boolean classCheck(ClassState state) {
+        return state.check();
+    }
+
+    /**
+     * Evaluate a regression model.
+     *
+     * @param state		model state
+     *
+     * @return TRUE if the model was saved, to prevent dead-code elimination
+     */
+    @Benchmark
+    public boolean regressionCheck(RegressionState state) {
+        return state.check();
+    }
+
+}
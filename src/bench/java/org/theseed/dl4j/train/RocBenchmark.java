@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures the RocProcessor on a synthetic prediction file with a 0/1 actual value and a
+ * noisy predicted value.  The report computes a confusion matrix for every distinct prediction, so the cost
+ * is quadratic in the number of rows; the sizes stop at 100,000 rows for that reason.
+ *
+ * The primary score is runs per second, and the "rows" counter is input rows per second.  Run with
+ * "-prof gc" to get the allocation rate.  The processor is configured again before each invocation,
+ * because a run consumes the input file.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class RocBenchmark {
+
+    // FIELDS
+    /** number of prediction rows */
+    @Param({ "1000", "10000", "100000" })
+    public int rows;
+    /** data directory */
+    private File dataDir;
+    /** prediction input file */
+    private File inFile;
+    /** report output file */
+    private File outFile;
+    /** ROC processor */
+    private RocProcessor processor;
+
+    /**
+     * Create the prediction file.
+     *
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void createData() throws IOException {
+        this.dataDir = Files.createTempDirectory("bench").toFile();
+        this.inFile = new File(this.dataDir, "predictions.tbl");
+        SyntheticData.createRocFile(this.inFile, this.rows, 42);
+        this.outFile = new File(this.dataDir, "roc.tbl");
+    }
+
+    /**
+     * Configure a new ROC processor.
+     */
+    @Setup(Level.Invocation)
+    public void prepare() {
+        this.processor = new RocProcessor();
+        String[] args = new String[] { "-i", this.inFile.toString(), "-o", this.outFile.toString(), "y" };
+        if (! this.processor.parseCommand(args))
+            throw new IllegalStateException("Invalid benchmark parameters.");
+    }
+
+    /**
+     * Produce the ROC report.
+     *
+     * @param counter	counter for the rows processed
+     */
+    @Benchmark
+    public void roc(RowCounter counter) {
+        this.processor.run();
+        counter.rows += this.rows;
+    }
+
+    /**
+     * Delete the synthetic data.
+     *
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void deleteData() throws IOException {
+        SyntheticData.deleteDir(this.dataDir);
+    }
+
+}
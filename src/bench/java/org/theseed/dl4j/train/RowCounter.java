@@ -0,0 +1,24 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * This counts the data rows processed by a benchmark.  In throughput mode, JMH reports the counter
+ * as rows per second alongside the primary score.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class RowCounter {
+
+    /** number of data rows processed */
+    public long rows;
+
+}
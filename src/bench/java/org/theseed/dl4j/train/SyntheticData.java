@@ -0,0 +1,333 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+
+/**
+ * This class generates synthetic model directories for the benchmarks.  Each directory contains a
+ * "labels.txt" file and a tab-delimited "training.tbl" file with headers.  The feature values are
+ * drawn from a normal distribution, and the labels are computed from a fixed random linear function
+ * of the features so that the models have something to learn.
+ *
+ * For a classification directory, the label is the first column and the labels are "A", "B", "C", and
+ * so forth.  For a regression directory, the label columns are at the end and are named "y1", "y2", and
+ * so forth.  The feature columns are named "f1", "f2", and so forth.
+ *
+ * A discrete directory is a regression directory whose feature values are small integers and whose
+ * single label column "y1" is rounded to an integer.  This is the shape of data expected by the
+ * cross-reference and count-row analyses.
+ *
+ * There are also methods to save an untrained model into a directory, so that the prediction and
+ * analysis commands have something to work with, and to write prediction and ROC input files.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SyntheticData {
+
+    /**
+     * Create a classification model directory.
+     *
+     * @param rows		number of data rows
+     * @param width		number of feature columns
+     * @param classes	number of classes
+     * @param seed		random number seed
+     *
+     * @return the model directory created
+     *
+     * @throws IOException
+     */
+    public static File createClassDir(int rows, int width, int classes, long seed) throws IOException {
+        File retVal = Files.createTempDirectory("bench").toFile();
+        Random rand = new Random(seed);
+        double[][] weights = randomWeights(rand, classes, width);
+        String[] labels = new String[classes];
+        for (int i = 0; i < classes; i++)
+            labels[i] = Character.toString((char) ('A' + i));
+        writeLabels(new File(retVal, "labels.txt"), labels);
+        try (PrintWriter writer = new PrintWriter(new File(retVal, "training.tbl"))) {
+            StringBuilder header = new StringBuilder(width * 6).append("class");
+            for (int c = 1; c <= width; c++)
+                header.append("\tf").append(c);
+            writer.println(header);
+            double[] features = new double[width];
+            StringBuilder line = new StringBuilder(width * 10);
+            for (int r = 0; r < rows; r++) {
+                randomFeatures(rand, features);
+                // The class is the one whose linear function is highest.
+                int best = 0;
+                double bestValue = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < classes; i++) {
+                    double value = dot(weights[i], features);
+                    if (value > bestValue) {
+                        best = i;
+                        bestValue = value;
+                    }
+                }
+                line.setLength(0);
+                line.append(labels[best]);
+                appendValues(line, features);
+                writer.println(line);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Create a regression model directory.
+     *
+     * @param rows		number of data rows
+     * @param width		number of feature columns
+     * @param outputs	number of label columns
+     * @param seed		random number seed
+     *
+     * @return the model directory created
+     *
+     * @throws IOException
+     */
+    public static File createRegressionDir(int rows, int width, int outputs, long seed) throws IOException {
+        File retVal = Files.createTempDirectory("bench").toFile();
+        Random rand = new Random(seed);
+        double[][] weights = randomWeights(rand, outputs, width);
+        String[] labels = new String[outputs];
+        for (int i = 0; i < outputs; i++)
+            labels[i] = "y" + (i + 1);
+        writeLabels(new File(retVal, "labels.txt"), labels);
+        try (PrintWriter writer = new PrintWriter(new File(retVal, "training.tbl"))) {
+            StringBuilder header = new StringBuilder(width * 6);
+            for (int c = 1; c <= width; c++)
+                header.append("f").append(c).append('\t');
+            header.append(String.join("\t", labels));
+            writer.println(header);
+            double[] features = new double[width];
+            double[] values = new double[outputs];
+            StringBuilder line = new StringBuilder(width * 10);
+            for (int r = 0; r < rows; r++) {
+                randomFeatures(rand, features);
+                for (int i = 0; i < outputs; i++)
+                    values[i] = dot(weights[i], features) + rand.nextGaussian() * 0.1;
+                line.setLength(0);
+                line.append(features[0]);
+                for (int c = 1; c < width; c++)
+                    line.append('\t').append(features[c]);
+                appendValues(line, values);
+                writer.println(line);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Create a discrete regression model directory.
+     *
+     * @param rows		number of data rows
+     * @param width		number of feature columns
+     * @param levels	number of distinct feature values
+     * @param seed		random number seed
+     *
+     * @return the model directory created
+     *
+     * @throws IOException
+     */
+    public static File createDiscreteDir(int rows, int width, int levels, long seed) throws IOException {
+        File retVal = Files.createTempDirectory("bench").toFile();
+        Random rand = new Random(seed);
+        double[] weights = randomWeights(rand, 1, width)[0];
+        writeLabels(new File(retVal, "labels.txt"), new String[] { "y1" });
+        try (PrintWriter writer = new PrintWriter(new File(retVal, "training.tbl"))) {
+            StringBuilder header = new StringBuilder(width * 6);
+            for (int c = 1; c <= width; c++)
+                header.append("f").append(c).append('\t');
+            header.append("y1");
+            writer.println(header);
+            double[] features = new double[width];
+            StringBuilder line = new StringBuilder(width * 2);
+            for (int r = 0; r < rows; r++) {
+                line.setLength(0);
+                for (int c = 0; c < width; c++) {
+                    int value = rand.nextInt(levels);
+                    features[c] = value;
+                    line.append(value).append('\t');
+                }
+                line.append(Math.round(dot(weights, features)));
+                writer.println(line);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Save an untrained model built by a training processor, along with its normalizer and its
+     * parameter file, into the processor's model directory.  The processor must already have been
+     * configured from the command line.
+     *
+     * @param processor		configured training processor
+     * @param modelDir		model directory
+     *
+     * @throws IOException
+     */
+    public static void saveModel(TrainingProcessor processor, File modelDir) throws IOException {
+        MultiLayerNetwork model = processor.buildModel();
+        ModelSerializer.writeModel(model, new File(modelDir, "model.ser"), false, processor.getNormalizer());
+        processor.writeParms(new File(modelDir, "parms.prm"));
+    }
+
+    /**
+     * Write a prediction input file.  The first column is "id" and contains a unique row ID.  The
+     * remaining columns are features named to match the model directories.
+     *
+     * @param file		file to write
+     * @param rows		number of data rows
+     * @param width		number of feature columns
+     * @param seed		random number seed
+     *
+     * @throws IOException
+     */
+    public static void createPredictionFile(File file, int rows, int width, long seed) throws IOException {
+        Random rand = new Random(seed);
+        try (PrintWriter writer = new PrintWriter(file)) {
+            StringBuilder header = new StringBuilder(width * 6).append("id");
+            for (int c = 1; c <= width; c++)
+                header.append("\tf").append(c);
+            writer.println(header);
+            double[] features = new double[width];
+            StringBuilder line = new StringBuilder(width * 10);
+            for (int r = 0; r < rows; r++) {
+                randomFeatures(rand, features);
+                line.setLength(0);
+                line.append("row").append(r);
+                appendValues(line, features);
+                writer.println(line);
+            }
+        }
+    }
+
+    /**
+     * Write a prediction output file for ROC analysis.  The actual value is in column "y" and is
+     * 0 or 1, and the predicted value is in column "o-y" and is the actual value plus noise.
+     *
+     * @param file		file to write
+     * @param rows		number of data rows
+     * @param seed		random number seed
+     *
+     * @throws IOException
+     */
+    public static void createRocFile(File file, int rows, long seed) throws IOException {
+        Random rand = new Random(seed);
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("y\to-y");
+            for (int r = 0; r < rows; r++) {
+                int actual = rand.nextInt(2);
+                writer.format("%d\t%8.6f%n", actual, actual + rand.nextGaussian() * 0.5);
+            }
+        }
+    }
+
+    /**
+     * Parse a data shape parameter.  The shape is specified as a row count and a column count
+     * separated by an "x", (e.g. "1000x10").
+     *
+     * @param shape		shape string to parse
+     *
+     * @return a two-element array containing the row count and the column count
+     */
+    public static int[] parseShape(String shape) {
+        String[] parts = shape.split("x");
+        if (parts.length != 2)
+            throw new IllegalArgumentException("Invalid data shape \"" + shape + "\".");
+        return new int[] { Integer.parseInt(parts[0]), Integer.parseInt(parts[1]) };
+    }
+
+    /**
+     * Delete a model directory created by this class.
+     *
+     * @param dir	directory to delete
+     *
+     * @throws IOException
+     */
+    public static void deleteDir(File dir) throws IOException {
+        if (dir != null && dir.exists()) {
+            try (Stream<Path> paths = Files.walk(dir.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * @return a matrix of random weights
+     *
+     * @param rand		randomizer to use
+     * @param rows		number of rows
+     * @param width		number of columns
+     */
+    private static double[][] randomWeights(Random rand, int rows, int width) {
+        double[][] retVal = new double[rows][width];
+        for (int i = 0; i < rows; i++)
+            for (int c = 0; c < width; c++)
+                retVal[i][c] = rand.nextGaussian();
+        return retVal;
+    }
+
+    /**
+     * Fill a feature array with random values.
+     *
+     * @param rand		randomizer to use
+     * @param features	array to fill
+     */
+    private static void randomFeatures(Random rand, double[] features) {
+        for (int c = 0; c < features.length; c++)
+            features[c] = rand.nextGaussian();
+    }
+
+    /**
+     * @return the dot product of two vectors
+     *
+     * @param a		first vector
+     * @param b		second vector
+     */
+    private static double dot(double[] a, double[] b) {
+        double retVal = 0.0;
+        for (int i = 0; i < a.length; i++)
+            retVal += a[i] * b[i];
+        return retVal;
+    }
+
+    /**
+     * Append tab-delimited values to a line buffer.
+     *
+     * @param line		line buffer
+     * @param values	values to append
+     */
+    private static void appendValues(StringBuilder line, double[] values) {
+        for (double value : values)
+            line.append('\t').append(value);
+    }
+
+    /**
+     * Write a labels file.
+     *
+     * @param file		file to write
+     * @param labels	labels to put in it
+     *
+     * @throws IOException
+     */
+    private static void writeLabels(File file, String[] labels) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file)) {
+            for (String label : labels)
+                writer.println(label);
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures the TrainCheckProcessor on a synthetic regression model directory whose input
+ * columns contain small integers.  The processor examines every pair of input columns in every row, so the
+ * cost is quadratic in the number of columns; the sizes stop at 100 columns for that reason.
+ *
+ * The primary score is runs per second, and the "rows" counter is training rows per second.  Run with
+ * "-prof gc" to get the allocation rate.  The processor is configured again before each invocation,
+ * because a run consumes the training file.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class TrainCheckBenchmark {
+
+    // FIELDS
+    /** training file shape, in the form ROWSxCOLUMNS */
+    @Param({ "1000x10", "1000x100", "100000x10", "1000000x10" })
+    public String shape;
+    /** number of distinct values in each input column */
+    @Param({ "3" })
+    public int levels;
+    /** number of training rows */
+    private int rows;
+    /** model directory */
+    private File modelDir;
+    /** report output file */
+    private File outFile;
+    /** training check processor */
+    private TrainCheckProcessor processor;
+
+    /**
+     * Create the model directory.
+     *
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void createData() throws IOException {
+        int[] dims = SyntheticData.parseShape(this.shape);
+        this.rows = dims[0];
+        this.modelDir = SyntheticData.createDiscreteDir(this.rows, dims[1], this.levels, 42);
+        RegressionTrainingProcessor trainer = new RegressionTrainingProcessor();
+        if (! trainer.parseCommand(new String[] { "-t", "500", "--widths", "20", this.modelDir.toString() }))
+            throw new IllegalStateException("Invalid benchmark parameters.");
+        SyntheticData.saveModel(trainer, this.modelDir);
+        this.outFile = new File(this.modelDir, "check.tbl");
+    }
+
+    /**
+     * Configure a new training check processor.
+     */
+    @Setup(Level.Invocation)
+    public void prepare() {
+        this.processor = new TrainCheckProcessor();
+        String[] args = new String[] { "-t", "REGRESSION", "-o", this.outFile.toString(), this.modelDir.toString(), "y1" };
+        if (! this.processor.parseCommand(args))
+            throw new IllegalStateException("Invalid benchmark parameters.");
+    }
+
+    /**
+     * Produce the cross-reference report.
+     *
+     * @param counter	counter for the rows processed
+     */
+    @Benchmark
+    public void check(RowCounter counter) {
+        this.processor.run();
+        counter.rows += this.rows;
+    }
+
+    /**
+     * Delete the synthetic data.
+     *
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void deleteData() throws IOException {
+        SyntheticData.deleteDir(this.modelDir);
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.reports.NullTrainReporter;
+
+/**
+ * This benchmark measures the throughput of the batch and epoch trainers on a synthetic classification
+ * dataset.  Each invocation trains a freshly-built model for a fixed number of iterations with early stop
+ * turned off.  The primary score is training runs per second, and the "examples" counter is the number of
+ * training examples fitted per second.
+ *
+ * The model and the data reader are rebuilt before each invocation, because training consumes the reader.
+ * This setup is not included in the timing.
+ *
+ * @author Bruce Parrello
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class TrainerBenchmark {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(TrainerBenchmark.class);
+    /** number of data rows, including the testing set */
+    @Param({ "2000", "20000" })
+    public int rows;
+    /** number of feature columns */
+    @Param({ "20", "200" })
+    public int width;
+    /** training method */
+    @Param({ "BATCH", "EPOCH" })
+    public Trainer.Type method;
+    /** number of iterations (fits per batch for BATCH, epochs for EPOCH) */
+    @Param({ "2" })
+    public int iterations;
+    /** model directory containing the synthetic data */
+    private File modelDir;
+    /** training processor */
+    private ClassTrainingProcessor processor;
+    /** model to train */
+    private MultiLayerNetwork model;
+    /** trainer to use */
+    private Trainer trainer;
+    /** run statistics for the training */
+    private RunStats runStats;
+
+    /** size of the testing set */
+    private static final int TEST_SIZE = 500;
+
+    /**
+     * This counts the training examples fitted.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Examples {
+        /** number of training examples fitted */
+        public long examples;
+    }
+
+    /**
+     * Create the synthetic data.
+     *
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void createData() throws IOException {
+        this.modelDir = SyntheticData.createClassDir(this.rows, this.width, 3, 42);
+    }
+
+    /**
+     * Build a new model and trainer.
+     */
+    @Setup(Level.Invocation)
+    public void prepare() {
+        this.processor = new ClassTrainingProcessor();
+        String[] args = new String[] { "-n", Integer.toString(this.iterations), "-b", "500",
+                "-t", Integer.toString(TEST_SIZE), "--earlyStop", "0", "--method", this.method.name(),
+                this.modelDir.toString() };
+        if (! this.processor.parseCommand(args))
+            throw new IllegalStateException("Invalid benchmark parameters.");
+        this.model = this.processor.buildModel();
+        this.trainer = Trainer.create(this.method, this.processor, log);
+        this.runStats = this.processor.createRunStats(this.model, this.trainer);
+    }
+
+    /**
+     * Train the model.
+     *
+     * @param counter	counter for the training examples fitted
+     *
+     * @return the run statistics, to prevent dead-code elimination
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Benchmark
+    public RunStats train(Examples counter) throws IOException, InterruptedException {
+        this.processor.trainModel(this.model, this.runStats, this.trainer, new NullTrainReporter());
+        counter.examples += (long) (this.rows - TEST_SIZE) * this.iterations;
+        return this.runStats;
+    }
+
+    /**
+     * Delete the synthetic data.
+     *
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void deleteData() throws IOException {
+        SyntheticData.deleteDir(this.modelDir);
+    }
+
+}
@@ -12,10 +12,10 @@ import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
-import org.deeplearning4j.util.ModelSerializer;
 import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
 import org.theseed.dl4j.ChannelDataSetReader;
 import org.theseed.dl4j.TabbedDataSetReader;
+import org.theseed.dl4j.train.ModelCache;
 import org.theseed.io.TabbedLineReader;
 
 /**
@@ -54,6 +54,8 @@ public class ControlLine {
     private MultiLayerNetwork model;
     /** input reader */
     private TabbedDataSetReader reader;
+    /** normalizer for the model input, or NULL if there is none */
+    private DataNormalization normalizer;
 
     /**
      * @return the number of input columns
@@ -81,6 +83,7 @@ public class ControlLine {
         // Clear the file handlers.
         this.model = null;
         this.reader = null;
+        this.normalizer = null;
     }
 
     /**
@@ -91,17 +94,38 @@ public class ControlLine {
      * @throws IOException
      */
     public void init(Map<String, double[]> channelMap) throws IOException {
-        // Read in the model and the normalizer.
-        this.model = ModelSerializer.restoreMultiLayerNetwork(this.modelFile, false);
-        DataNormalization normalizer = ModelSerializer.restoreNormalizerFromFile(this.modelFile);
-        // Open the input reader.
+        this.loadModel();
+        this.reader = this.openReader(channelMap);
+        // Attach the normalizer.
+        this.reader.setNormalizer(this.normalizer);
+    }
+
+    /**
+     * Read in the model and the normalizer.
+     *
+     * @throws IOException
+     */
+    public void loadModel() throws IOException {
+        ModelCache.Entry modelData = ModelCache.get(this.modelFile);
+        this.model = modelData.getModel();
+        this.normalizer = modelData.getNormalizer();
+    }
+
+    /**
+     * @return a new reader for this controller's input file, without a normalizer
+     *
+     * @param channelMap	channel map for input, or NULL if the input is not channeled
+     *
+     * @throws IOException
+     */
+    public TabbedDataSetReader openReader(Map<String, double[]> channelMap) throws IOException {
+        TabbedDataSetReader retVal;
         if (channelMap == null) {
-            this.reader = new TabbedDataSetReader(this.inputFile, this.metaCols);
+            retVal = new TabbedDataSetReader(this.inputFile, this.metaCols);
         } else {
-            this.reader = new ChannelDataSetReader(this.inputFile, this.metaCols, channelMap);
+            retVal = new ChannelDataSetReader(this.inputFile, this.metaCols, channelMap);
         }
-        // Attach the normalizer.
-        this.reader.setNormalizer(normalizer);
+        return retVal;
     }
 
     /**
@@ -113,6 +137,24 @@ public class ControlLine {
             this.reader = null;
         }
         this.model = null;
+        this.normalizer = null;
+    }
+
+    /**
+     * Controllers with the same group key can share a single reader, since the input file and the metadata
+     * columns determine the parsed batches.
+     *
+     * @return the key for grouping controllers that read the same input the same way
+     */
+    public String getGroupKey() {
+        return this.inputFile.getAbsolutePath() + "\t" + StringUtils.join(this.metaCols, ',');
+    }
+
+    /**
+     * @return the normalizer for the model input, or NULL if there is none
+     */
+    public DataNormalization getNormalizer() {
+        return this.normalizer;
     }
 
     /**
@@ -0,0 +1,226 @@
+/**
+ *
+ */
+package org.theseed.dl4j.predict;
+
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * This object formats floating-point numbers exactly the way "%W.Pg" does in String.format, but without the
+ * overhead of parsing the format string and building a formatter for every number.  The number is scaled to an
+ * integer containing the required significant digits, and the output string is assembled from those digits.
+ *
+ * The formatter rounds half-up on the shortest decimal representation of the number, while the scaled value is
+ * binary.  The two can only disagree when the scaled value is within a few units in the last place of a rounding
+ * tie; in that case, and for numbers too large or small to scale exactly, the formatting is handed off to
+ * String.format.  The same happens if the default locale does not use western digits.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DoubleFormatter {
+
+    // FIELDS
+    /** minimum width of the output */
+    private int width;
+    /** number of significant digits */
+    private int precision;
+    /** equivalent format string, for the slow path */
+    private String format;
+    /** locale for the slow path */
+    private Locale locale;
+    /** decimal separator */
+    private char point;
+    /** TRUE if the fast path can be used */
+    private boolean fast;
+    /** smallest integer with the required number of significant digits */
+    private long lowLimit;
+    /** smallest integer with too many significant digits */
+    private long highLimit;
+
+    /** maximum supported precision */
+    public static final int MAX_PRECISION = 15;
+    /** exact powers of ten */
+    private static final double[] POW10 = new double[] { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    /** number of units in the last place that counts as a possible rounding tie */
+    private static final double TIE_ULPS = 8.0;
+
+    /**
+     * Create a formatter equivalent to "%W.Pg".
+     *
+     * @param width			minimum width of the output (W), or 0 for no minimum
+     * @param precision		number of significant digits (P)
+     */
+    public DoubleFormatter(int width, int precision) {
+        if (precision > MAX_PRECISION)
+            throw new IllegalArgumentException("Precision " + precision + " is larger than the maximum of " +
+                    MAX_PRECISION + ".");
+        this.width = width;
+        // This matches the formatter, which treats a precision of 0 as 1.
+        this.precision = (precision < 1 ? 1 : precision);
+        this.format = "%" + (width > 0 ? Integer.toString(width) : "") + "." + precision + "g";
+        this.locale = Locale.getDefault(Locale.Category.FORMAT);
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(this.locale);
+        this.point = symbols.getDecimalSeparator();
+        this.fast = (symbols.getZeroDigit() == '0');
+        this.lowLimit = (long) POW10[this.precision - 1];
+        this.highLimit = (long) POW10[this.precision];
+    }
+
+    /**
+     * @return the formatted string for a number
+     *
+     * @param value		number to format
+     */
+    public String format(double value) {
+        StringBuilder retVal = new StringBuilder(this.width + 8);
+        this.append(retVal, value);
+        return retVal.toString();
+    }
+
+    /**
+     * Format a number into a string buffer.
+     *
+     * @param buffer	buffer to receive the formatted number
+     * @param value		number to format
+     */
+    public void append(StringBuilder buffer, double value) {
+        int start = buffer.length();
+        boolean ok = this.fast && Double.isFinite(value);
+        if (ok) {
+            boolean neg = (Double.compare(value, 0.0) < 0);
+            double abs = Math.abs(value);
+            if (neg)
+                buffer.append('-');
+            if (abs == 0.0) {
+                // Zero has no exponent.  It is displayed with the full precision.
+                buffer.append('0');
+                this.appendZeros(buffer, this.precision - 1);
+            } else {
+                // Compute the exponent and the significant digits.
+                int exp = (int) Math.floor(Math.log10(abs));
+                long digits = -1;
+                for (int tries = 0; ok && digits < 0 && tries < 3; tries++) {
+                    double scaled = this.scale(abs, this.precision - 1 - exp);
+                    if (Double.isNaN(scaled))
+                        ok = false;
+                    else if (scaled >= this.highLimit)
+                        exp++;
+                    else if (scaled < this.lowLimit)
+                        exp--;
+                    else {
+                        double floor = Math.floor(scaled);
+                        double frac = scaled - floor;
+                        if (Math.abs(frac - 0.5) <= TIE_ULPS * Math.ulp(scaled))
+                            ok = false;
+                        else {
+                            digits = (long) floor;
+                            if (frac > 0.5)
+                                digits++;
+                            // Rounding up can add a digit.
+                            if (digits == this.highLimit) {
+                                digits = this.lowLimit;
+                                exp++;
+                            }
+                        }
+                    }
+                }
+                if (digits < 0)
+                    ok = false;
+                else
+                    this.appendDigits(buffer, digits, exp);
+            }
+        }
+        if (! ok) {
+            // Here we must use the slow path.
+            buffer.setLength(start);
+            buffer.append(String.format(this.locale, this.format, value));
+        } else {
+            // Pad to the output width.
+            int pad = this.width - (buffer.length() - start);
+            if (pad > 0)
+                buffer.insert(start, spaces(pad));
+        }
+    }
+
+    /**
+     * @return a number multiplied by a power of ten, or NaN if the power is too large for an exact multiplier
+     *
+     * @param abs		number to scale
+     * @param power		power of ten by which to multiply
+     */
+    private double scale(double abs, int power) {
+        double retVal;
+        if (power >= 0 && power < POW10.length)
+            retVal = abs * POW10[power];
+        else if (power < 0 && -power < POW10.length)
+            retVal = abs / POW10[-power];
+        else
+            retVal = Double.NaN;
+        return retVal;
+    }
+
+    /**
+     * Append the significant digits of a nonzero number in decimal or scientific notation.
+     *
+     * @param buffer	output buffer
+     * @param digits	significant digits, as an integer with exactly the required number of digits
+     * @param exp		decimal exponent of the first significant digit
+     */
+    private void appendDigits(StringBuilder buffer, long digits, int exp) {
+        String digitString = Long.toString(digits);
+        int n = this.precision;
+        if (exp >= -4 && exp < n) {
+            // Decimal notation.
+            if (exp >= 0) {
+                buffer.append(digitString, 0, exp + 1);
+                if (exp + 1 < n)
+                    buffer.append(this.point).append(digitString, exp + 1, n);
+            } else {
+                buffer.append('0').append(this.point);
+                for (int i = exp + 1; i < 0; i++)
+                    buffer.append('0');
+                buffer.append(digitString);
+            }
+        } else {
+            // Scientific notation.
+            buffer.append(digitString.charAt(0));
+            if (n > 1)
+                buffer.append(this.point).append(digitString, 1, n);
+            buffer.append('e').append(exp < 0 ? '-' : '+');
+            int absExp = Math.abs(exp);
+            if (absExp < 10)
+                buffer.append('0');
+            buffer.append(absExp);
+        }
+    }
+
+    /**
+     * Append a decimal point and trailing zeros.
+     *
+     * @param buffer	output buffer
+     * @param count		number of zeros to append
+     */
+    private void appendZeros(StringBuilder buffer, int count) {
+        if (count > 0) {
+            buffer.append(this.point);
+            for (int i = 0; i < count; i++)
+                buffer.append('0');
+        }
+    }
+
+    /**
+     * @return a string of spaces
+     *
+     * @param count		number of spaces
+     */
+    private static String spaces(int count) {
+        StringBuilder retVal = new StringBuilder(count);
+        for (int i = 0; i < count; i++)
+            retVal.append(' ');
+        return retVal.toString();
+    }
+
+}
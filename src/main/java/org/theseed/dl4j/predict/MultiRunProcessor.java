@@ -7,25 +7,33 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.lang3.StringUtils;
-import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.theseed.basic.ICommand;
 import org.theseed.basic.ParseFailureException;
 import org.theseed.dl4j.ChannelDataSetReader;
 import org.theseed.dl4j.TabbedDataSetReader;
+import org.theseed.dl4j.train.MathThreads;
+import org.theseed.dl4j.train.ModelCache;
 import org.theseed.io.TabbedLineReader;
 
 /**
@@ -48,6 +56,10 @@ import org.theseed.io.TabbedLineReader;
  *
  * Note that all the models must use the same channel file and the same labels.
  *
+ * Models that read the same input file with the same metadata columns are run as a group.  The input is
+ * parsed once per group, and each batch is passed through every model in the group before the next batch
+ * is read.  Each model still applies its own normalizer to the batch.
+ *
  * The following command-line options are supported.
  *
  * -i	the name of the input file of runs to make; the default is the standard input
@@ -56,6 +68,15 @@ import org.theseed.io.TabbedLineReader;
  * -m	minimum acceptable confidence
  *
  * --nohead		if specified, it is assumed the input file has no header line
+ * --workers	number of model groups to run at the same time; the default is 1; when more than one group runs
+ * 				at a time, the process-wide ND4J math threads are divided among them until the run finishes
+ * --maxLoaded	maximum number of models in memory at the same time; larger groups are split into passes of this
+ * 				size; the default is 0, meaning no limit
+ * --spill		if specified, the name of a directory for temporary files; the results are written to sorted run
+ * 				files there and merged at the end, instead of being held in memory
+ * --runSize	maximum number of results in each sorted run file when "--spill" is specified; the default is 1000000
+ * --modelCache	number of megabytes of deserialized models to keep in memory; a model named on more than one
+ * 				control line is then read only once; the default is 0, which leaves the model cache unchanged
  *
  * @author Bruce Parrello
  *
@@ -71,11 +92,15 @@ public class MultiRunProcessor implements ICommand {
     private int classIdx;
     /** input file reader */
     private TabbedLineReader inStream;
+    /** result sorter when spilling, or NULL if the results are held in memory */
+    private SpillSorter spiller;
 
     // CONSTANTS
 
     /** logging facility */
     private static Logger log = LoggerFactory.getLogger(MultiRunProcessor.class);
+    /** number of bytes in a megabyte */
+    private static final long MEGABYTE = 1024L * 1024L;
 
 
     // COMMAND-LINE OPTIONS
@@ -105,6 +130,26 @@ public class MultiRunProcessor implements ICommand {
     @Option(name="-m", aliases={"--min"}, metaVar="0.5", usage="minimum acceptable confidence")
     private double minConf;
 
+    /** number of model groups to run at the same time */
+    @Option(name="--workers", metaVar="4", usage="number of model groups to run at the same time")
+    private int workers;
+
+    /** maximum number of models loaded at the same time */
+    @Option(name="--maxLoaded", metaVar="2", usage="maximum number of models in memory at once (0 for no limit)")
+    private int maxLoaded;
+
+    /** directory for spill files */
+    @Option(name="--spill", metaVar="tmpDir", usage="if specified, directory for spilling sorted result runs")
+    private File spillDir;
+
+    /** maximum number of results in a spill run */
+    @Option(name="--runSize", metaVar="100000", usage="maximum number of results in each spill run")
+    private int runSize;
+
+    /** number of megabytes of models to cache, or 0 to leave the model cache unchanged */
+    @Option(name="--modelCache", metaVar="500", usage="megabytes of deserialized models to keep in memory for reuse")
+    private int modelCache;
+
    /** model directory */
     @Argument(index=0, metaVar="modelDir", usage="model directory", required=true)
     private File modelDir;
@@ -118,6 +163,12 @@ public class MultiRunProcessor implements ICommand {
         this.keyClass = "yes";
         this.keyCol = "1";
         this.minConf = 0.0;
+        this.workers = 1;
+        this.maxLoaded = 0;
+        this.spillDir = null;
+        this.runSize = SpillSorter.DEFAULT_RUN_SIZE;
+        this.spiller = null;
+        this.modelCache = 0;
         // Parse the command line.
         CmdLineParser parser = new CmdLineParser(this);
         try {
@@ -125,6 +176,21 @@ public class MultiRunProcessor implements ICommand {
             if (this.help) {
                 parser.printUsage(System.err);
             } else {
+                // Verify the concurrency limits.
+                if (this.workers < 1)
+                    throw new ParseFailureException("Invalid worker count " + Integer.toString(this.workers) + ".  Must be 1 or greater.");
+                if (this.maxLoaded < 0)
+                    throw new ParseFailureException("Invalid model limit " + Integer.toString(this.maxLoaded) + ".  Must be 1 or greater.");
+                // Verify the spill parameters.
+                if (this.runSize < 1)
+                    throw new ParseFailureException("Invalid run size " + Integer.toString(this.runSize) + ".  Must be 1 or greater.");
+                if (this.spillDir != null && ! this.spillDir.isDirectory())
+                    throw new FileNotFoundException("Spill directory " + this.spillDir + " not found or invalid.");
+                // Set up the model cache.
+                if (this.modelCache < 0)
+                    throw new ParseFailureException("Invalid model cache size " + Integer.toString(this.modelCache) + ".  Must be 0 or greater.");
+                if (this.modelCache > 0)
+                    ModelCache.setBudget(this.modelCache * MEGABYTE);
                 // Verify the model directory and read the labels.
                 if (! this.modelDir.isDirectory()) {
                     throw new FileNotFoundException("Model directory " + this.modelDir + " not found or invalid.");
@@ -197,48 +263,35 @@ public class MultiRunProcessor implements ICommand {
             this.inStream.close();
             log.info("{} models will be processed.", controllers.size());
             // This will hold a list of column values for each input key, sorted so
-            // we can output the keys in order.
-            Map<String, double[]> outputMap = new TreeMap<String, double[]>();
-            // Loop through the controllers, applying the models.
-            for (int col = 0; col < controllers.size(); col++) {
-                ControlLine controller = controllers.get(col);
-                log.info("Processing model for {}.", controller.getOutputHeading());
-                controller.init(channelMap);
-                TabbedDataSetReader reader = controller.getReader();
-                MultiLayerNetwork model = controller.getModel();
-                // Process all the data in the input file.
-                for (DataSet batch : reader) {
-                    // Get the input features and the metadata for this batch.
-                    INDArray features = batch.getFeatures();
-                    List<String> metaData = batch.getExampleMetaData(String.class);
-                    // Compute the predictions.
-                    INDArray output = model.output(features);
-                    // Loop through the output and the metadata in parallel.
-                    int row = 0;
-                    for (String metaDatum : metaData) {
-                        // Get the desired output for this row.
-                        double confidence = output.getDouble(row, this.classIdx);
-                        // Compute the key.
-                        String key = StringUtils.substringBefore(metaDatum, "\t");
-                        // Get the array entry for this key and store the result.
-                        double[] results = outputMap.get(key);
-                        if (results == null) {
-                            results = new double[controllers.size()];
-                            Arrays.fill(results, 0.0);
-                            outputMap.put(key, results);
-                        }
-                        results[col] = confidence;
-                        // Advance the row index.
-                        row++;
-                    }
-                }
-                // Release the memory for the model and the reader.
-                controller.close();
+            // we can output the keys in order.  Each model fills in its own column, so the
+            // only contention is when two models add the same new key.  If we are spilling,
+            // the results go to the spill sorter instead.
+            Map<String, double[]> outputMap = null;
+            if (this.spillDir == null)
+                outputMap = new ConcurrentSkipListMap<String, double[]>();
+            else {
+                log.info("Results will be spilled to {} in runs of {}.", this.spillDir, this.runSize);
+                this.spiller = new SpillSorter(this.spillDir, this.runSize, controllers.size());
             }
+            // Group the controllers by input so that each input file is parsed once per group.
+            List<List<Integer>> groups = this.groupControllers(controllers);
+            log.info("{} model groups will be processed.", groups.size());
+            if (this.workers <= 1) {
+                // Loop through the groups, applying the models.
+                for (List<Integer> group : groups)
+                    this.processGroup(controllers, group, outputMap);
+            } else
+                this.runParallel(controllers, groups, outputMap);
             // Now all the data has been processed, so we want to write it out.
+            Iterator<Map.Entry<String, double[]>> keyIter;
+            if (this.spiller == null)
+                keyIter = outputMap.entrySet().iterator();
+            else
+                keyIter = this.spiller.merge();
             log.info("Writing output.");
             System.out.println(StringUtils.join(headings, "\t"));
-            for (Map.Entry<String, double[]> keyDatum : outputMap.entrySet()) {
+            while (keyIter.hasNext()) {
+                Map.Entry<String, double[]> keyDatum = keyIter.next();
                 // Get the best result.
                 double[] results = keyDatum.getValue();
                 double bestVal = this.minConf;
@@ -256,6 +309,154 @@ public class MultiRunProcessor implements ICommand {
             }
         } catch (Exception e) {
             log.error("EXECUTION ERROR.", e);
+        } finally {
+            // Insure the spill files are deleted.
+            if (this.spiller != null)
+                this.spiller.close();
+        }
+    }
+
+    /**
+     * Organize the controllers into groups that read the same input.  A group larger than the maximum number of
+     * loaded models is split into several groups.
+     *
+     * @param controllers	list of controllers to organize
+     *
+     * @return a list of groups, each group being a list of controller indices
+     */
+    private List<List<Integer>> groupControllers(List<ControlLine> controllers) {
+        Map<String, List<Integer>> keyMap = new LinkedHashMap<String, List<Integer>>();
+        for (int col = 0; col < controllers.size(); col++)
+            keyMap.computeIfAbsent(controllers.get(col).getGroupKey(), k -> new ArrayList<Integer>()).add(col);
+        int limit = this.groupLimit();
+        List<List<Integer>> retVal = new ArrayList<List<Integer>>(keyMap.size());
+        for (List<Integer> group : keyMap.values()) {
+            for (int i = 0; i < group.size(); i += limit)
+                retVal.add(group.subList(i, Math.min(group.size(), i + limit)));
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the maximum number of models that can be loaded at once
+     */
+    private int groupLimit() {
+        return (this.maxLoaded > 0 ? this.maxLoaded : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Run the model groups concurrently.  Each worker thread processes one group at a time, and a semaphore
+     * limits the number of models in memory.
+     *
+     * @param controllers	list of all the controllers
+     * @param groups		list of controller groups to process
+     * @param outputMap		map of keys to output columns
+     *
+     * @throws Exception
+     */
+    private void runParallel(List<ControlLine> controllers, List<List<Integer>> groups, Map<String, double[]> outputMap)
+            throws Exception {
+        int active = Math.min(this.workers, groups.size());
+        try (MathThreads mathThreads = new MathThreads(active)) {
+            if (active > 1)
+                log.info("Running {} model groups at a time with {} math threads each.", active, mathThreads.getShare());
+            Semaphore loadPermits = new Semaphore(this.groupLimit(), true);
+            ExecutorService executor = Executors.newFixedThreadPool(active);
+            try {
+                List<Future<Object>> results = new ArrayList<Future<Object>>(groups.size());
+                for (List<Integer> group : groups) {
+                    results.add(executor.submit(() -> {
+                        // Each group needs a permit for every model it loads.
+                        loadPermits.acquire(group.size());
+                        try {
+                            this.processGroup(controllers, group, outputMap);
+                        } finally {
+                            loadPermits.release(group.size());
+                        }
+                        return null;
+                    }));
+                }
+                // Wait for the groups to finish.  The first failure stops the run.
+                for (Future<Object> result : results)
+                    result.get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Apply a group of models to their common input file and store the results.  Each batch is read once
+     * and passed through all the models in the group.  The results go to the output map, or to a run builder
+     * if we are spilling.
+     *
+     * @param controllers	list of all the controllers
+     * @param group			indices of the controllers to process, which are also their output column indices
+     * @param outputMap		map of keys to output columns, or NULL if we are spilling
+     *
+     * @throws IOException
+     */
+    private void processGroup(List<ControlLine> controllers, List<Integer> group, Map<String, double[]> outputMap)
+            throws IOException {
+        final int width = controllers.size();
+        final int n = group.size();
+        ControlLine[] models = new ControlLine[n];
+        int[] cols = new int[n];
+        for (int i = 0; i < n; i++) {
+            cols[i] = group.get(i);
+            models[i] = controllers.get(cols[i]);
+        }
+        SpillSorter.RunBuilder spill = (this.spiller == null ? null : this.spiller.newBuilder());
+        TabbedDataSetReader reader = null;
+        try {
+            for (ControlLine controller : models) {
+                log.info("Loading model for {}.", controller.getOutputHeading());
+                controller.loadModel();
+            }
+            reader = models[0].openReader(this.channelMap);
+            // Process all the data in the input file.
+            for (DataSet batch : reader) {
+                // Get the raw input features and compute the key for each row.
+                INDArray rawFeatures = batch.getFeatures();
+                List<String> metaData = batch.getExampleMetaData(String.class);
+                List<String> keys = new ArrayList<String>(metaData.size());
+                List<double[]> rowResults = null;
+                for (String metaDatum : metaData)
+                    keys.add(StringUtils.substringBefore(metaDatum, "\t"));
+                if (spill == null) {
+                    rowResults = new ArrayList<double[]>(keys.size());
+                    for (String key : keys)
+                        rowResults.add(outputMap.computeIfAbsent(key, k -> new double[width]));
+                }
+                // Run each model on the batch.
+                for (int i = 0; i < n; i++) {
+                    INDArray features = rawFeatures;
+                    DataNormalization normalizer = models[i].getNormalizer();
+                    if (normalizer != null) {
+                        features = rawFeatures.dup();
+                        normalizer.transform(features);
+                    }
+                    INDArray output = models[i].getModel().output(features);
+                    double[] confidences = output.getColumn(this.classIdx).toDoubleVector();
+                    if (spill == null) {
+                        for (int row = 0; row < confidences.length; row++)
+                            rowResults.get(row)[cols[i]] = confidences[row];
+                    } else {
+                        for (int row = 0; row < confidences.length; row++)
+                            spill.add(keys.get(row), cols[i], confidences[row]);
+                    }
+                }
+            }
+            if (spill != null)
+                spill.flush();
+        } finally {
+            // Release the memory for the models and the reader.
+            if (reader != null)
+                reader.close();
+            for (ControlLine controller : models)
+                controller.close();
         }
     }
 
@@ -3,17 +3,25 @@
  */
 package org.theseed.dl4j.predict;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang3.StringUtils;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
-import org.deeplearning4j.util.ModelSerializer;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -24,8 +32,10 @@ import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.theseed.basic.ICommand;
+import org.theseed.basic.ParseFailureException;
 import org.theseed.dl4j.ChannelDataSetReader;
 import org.theseed.dl4j.TabbedDataSetReader;
+import org.theseed.dl4j.train.ModelCache;
 
 /**
  * This method uses an existing model to make predictions.  It takes as input a tab-delimited file of feature
@@ -57,6 +67,11 @@ import org.theseed.dl4j.TabbedDataSetReader;
  * --name			the model file name (the default is "model.ser" in the model directory)
  * --regression		if specified, all confidences are output rather than the label with the highest confidence;
  * 					this is recommended for regression models
+ * --queue			number of batches that can wait between pipeline stages; parsing, prediction, and output
+ * 					each run on their own thread, with the output in input order; 0 runs everything on one
+ * 					thread; the default is 4
+ * --modelCache		number of megabytes of deserialized models to keep in memory for reuse by later predictions
+ * 					in the same process; the default is 0, which leaves the model cache unchanged
 
  * @author Bruce Parrello
  *
@@ -75,6 +90,19 @@ public class PredictionProcessor implements ICommand {
     /** output print writer */
     private PrintStream writer;
 
+    /** default number of batches waiting between pipeline stages */
+    public static final int DEFAULT_QUEUE = 4;
+    /** size of the output buffer */
+    private static final int OUTPUT_BUFFER = 1 << 16;
+    /** number of bytes in a megabyte */
+    private static final long MEGABYTE = 1024L * 1024L;
+    /** formatter for the output confidences */
+    private static final DoubleFormatter CONF_FORMATTER = new DoubleFormatter(12, 8);
+    /** line separator for the output */
+    private static final String LINE_END = System.lineSeparator();
+    /** end-of-stream marker for the pipeline queues */
+    private static final Batch END = new Batch(null, null);
+
     /** logging facility */
     private static Logger log = LoggerFactory.getLogger(PredictionProcessor.class);
 
@@ -109,10 +137,44 @@ public class PredictionProcessor implements ICommand {
     @Option(name="--output", aliases={"-o"}, usage="output file name (if not STDOUT)")
     private File outFile;
 
+    /** number of batches waiting between pipeline stages */
+    @Option(name="--queue", metaVar="8", usage="number of batches waiting between pipeline stages (0 for single-threaded)")
+    private int queueSize;
+
+    /** number of megabytes of models to cache, or 0 to leave the model cache unchanged */
+    @Option(name="--modelCache", metaVar="500", usage="megabytes of deserialized models to keep in memory for reuse")
+    private int modelCache;
+
    /** model directory */
     @Argument(index=0, metaVar="modelDir", usage="model directory", required=true)
     private File modelDir;
 
+    /**
+     * This object carries a batch of input rows through the prediction pipeline.
+     */
+    private static class Batch {
+
+        /** metadata for each row */
+        private List<String> metaData;
+        /** feature array */
+        private INDArray features;
+        /** model output array */
+        private INDArray output;
+
+        /**
+         * Create a batch from parsed input.
+         *
+         * @param metaData		metadata for each row
+         * @param features		normalized features for each row
+         */
+        protected Batch(List<String> metaData, INDArray features) {
+            this.metaData = metaData;
+            this.features = features;
+            this.output = null;
+        }
+
+    }
+
     public static void makePredictions(File modelDir, boolean regression, File inFile, File outFile, 
     		List<String> metaList) throws IOException {
     	// Create the prediction processor and set up the parameters.
@@ -124,8 +186,9 @@ public class PredictionProcessor implements ICommand {
     	processor.modelName = null;
     	processor.outFile = outFile;
     	processor.confOutput = regression;
+    	processor.queueSize = DEFAULT_QUEUE;
     	// Open the output file.
-    	processor.writer = new PrintStream(outFile);
+    	processor.writer = openOutput(outFile);
     	// Initialize the prediction data.
     	processor.setupPredictionData();
     	// Produce the predictions.
@@ -144,6 +207,8 @@ public class PredictionProcessor implements ICommand {
         this.outColumn = "predicted";
         this.modelName = null;
         this.outFile = null;
+        this.queueSize = DEFAULT_QUEUE;
+        this.modelCache = 0;
         // Parse the command line.
         CmdLineParser parser = new CmdLineParser(this);
         try {
@@ -151,6 +216,11 @@ public class PredictionProcessor implements ICommand {
             if (this.help) {
                 parser.printUsage(System.err);
             } else {
+                // Set up the model cache.
+                if (this.modelCache < 0)
+                    throw new ParseFailureException("Invalid model cache size " + Integer.toString(this.modelCache) + ".  Must be 0 or greater.");
+                if (this.modelCache > 0)
+                    ModelCache.setBudget(this.modelCache * MEGABYTE);
                 // Verify the model directory and read the labels.
                 if (! this.modelDir.isDirectory()) {
                     throw new FileNotFoundException("Model directory " + this.modelDir + " not found or invalid.");
@@ -158,13 +228,11 @@ public class PredictionProcessor implements ICommand {
                     // Parse the metadata column list.
                     this.metaList = Arrays.asList(StringUtils.split(this.metaCols, ','));
                     // Set up the output print writer.
-                    if (this.outFile == null) {
+                    if (this.outFile == null)
                     	log.info("Predictions will be written to the standard output.");
-                    	this.writer = System.out;
-                    } else {
+                    else
                     	log.info("Predictions will be written to {}.", this.outFile);
-                    	this.writer = new PrintStream(this.outFile);
-                    }
+                    this.writer = openOutput(this.outFile);
                     // Read in the labels from the label file and set up the input stream.
                     setupPredictionData();
                     // Denote we're ready.
@@ -173,12 +241,30 @@ public class PredictionProcessor implements ICommand {
             }
         } catch (IOException e) {
             System.err.print(e.toString());
-        } catch (CmdLineException e) {
+        } catch (CmdLineException | ParseFailureException e) {
             System.err.print("Invalid command-line options: " + e.toString());
         }
         return retVal;
     }
 
+    /**
+     * Open a buffered output stream for the predictions.  Unlike System.out, it does not flush after each line.
+     *
+     * @param outFile	output file, or NULL to use the standard output
+     *
+     * @return a print stream for writing the predictions
+     *
+     * @throws FileNotFoundException
+     */
+    private static PrintStream openOutput(File outFile) throws FileNotFoundException {
+        FileOutputStream outStream;
+        if (outFile == null)
+            outStream = new FileOutputStream(FileDescriptor.out);
+        else
+            outStream = new FileOutputStream(outFile);
+        return new PrintStream(new BufferedOutputStream(outStream, OUTPUT_BUFFER), false);
+    }
+
 	/**
 	 * Read the labels from the label file and set up the input.
 	 * 
@@ -194,8 +280,9 @@ public class PredictionProcessor implements ICommand {
 		    // Read in the model and the normalizer.
 		    if (this.modelName == null)
 		        this.modelName = new File(this.modelDir, "model.ser");
-		    this.model = ModelSerializer.restoreMultiLayerNetwork(this.modelName, false);
-		    DataNormalization normalizer = ModelSerializer.restoreNormalizerFromFile(this.modelName);
+		    ModelCache.Entry modelData = ModelCache.get(this.modelName);
+		    this.model = modelData.getModel();
+		    DataNormalization normalizer = modelData.getNormalizer();
 		    log.info("Model read from {}.", this.modelName);
 		    // Determine the input type and get the appropriate reader.
 		    File channelFile = new File(this.modelDir, "channels.tbl");
@@ -226,53 +313,128 @@ public class PredictionProcessor implements ICommand {
 
     @Override
     public void run() {
-    	try {
-	        // Loop through the data batches.
-	        long start = System.currentTimeMillis();
-	        int rows = 0;
-	        for (DataSet batch : this.reader) {
-	            // Get the features and the associated metadata.
-	            INDArray features = batch.getFeatures();
-	            List<String> metaData = batch.getExampleMetaData(String.class);
-	            // Compute the predictions for this model.
-	            INDArray output = model.output(features);
-	            // Loop through the output and the metadata in parallel.
-	            int i = 0;
-	            for (String metaDatum : metaData) {
-	                // We have the metadata for this row.  Find the output.
-	                if (this.confOutput) {
-	                    // Here we need to output the confidences column by column.
-	                    // Start with the metadata.
-	                    this.writer.print(metaDatum);
-	                    // Loop through the labels.
-	                    for (int j = 0; j < this.labels.size(); j++)
-	                        this.writer.format("\t%12.8g", output.getDouble(i, j));
-	                    // Terminate the line.
-	                    this.writer.println();
-	                } else {
-	                    // Here we need to find the best label and its confidence.
-	                    int n = this.labels.size();
-	                    int jBest = 0;
-	                    double vBest = output.getDouble(i, 0);
-	                    for (int j = 1; j < n; j++) {
-	                        double v = output.getDouble(i, j);
-	                        if (v > vBest) {
-	                            vBest = v;
-	                            jBest = j;
-	                        }
-	                    }
-	                    String prediction = this.labels.get(jBest);
-	                    this.writer.format("%s\t%s\t%12.8g%n", metaDatum, prediction, vBest);
-	                }
-	                // Advance the row index and count.
-	                i++;
-	                rows++;
-	            }
-	        }
-	        log.info("{} data rows processed in {} seconds.", rows, (System.currentTimeMillis() - start) / 1000);
-    	} finally {
-    		// Insure we close the output stream.
-    		this.writer.close();
-    	}
+        try {
+            long start = System.currentTimeMillis();
+            int rows;
+            if (this.queueSize <= 0)
+                rows = this.runSerial();
+            else
+                rows = this.runPipeline();
+            log.info("{} data rows processed in {} seconds.", rows, (System.currentTimeMillis() - start) / 1000);
+        } finally {
+            // Insure we close the output stream.
+            this.writer.close();
+        }
+    }
+
+    /**
+     * Make the predictions on a single thread.
+     *
+     * @return the number of rows processed
+     */
+    private int runSerial() {
+        int retVal = 0;
+        for (DataSet batch : this.reader) {
+            INDArray output = this.model.output(batch.getFeatures());
+            retVal += this.writeBatch(batch.getExampleMetaData(String.class), output);
+        }
+        return retVal;
+    }
+
+    /**
+     * Make the predictions in a three-stage pipeline.  One thread parses and normalizes the input, a second
+     * runs the model, and this thread writes the output.  The stages are connected by bounded queues, and
+     * each stage processes the batches in order, so the output is in input order.  If a stage fails, the
+     * stages after it are shut down and the error is rethrown here.
+     *
+     * @return the number of rows processed
+     */
+    private int runPipeline() {
+        int retVal = 0;
+        BlockingQueue<Batch> parsed = new ArrayBlockingQueue<Batch>(this.queueSize);
+        BlockingQueue<Batch> predicted = new ArrayBlockingQueue<Batch>(this.queueSize);
+        ExecutorService stages = Executors.newFixedThreadPool(2);
+        try {
+            // Start the parsing stage.
+            Future<Object> readStage = stages.submit(() -> {
+                try {
+                    for (DataSet batch : this.reader)
+                        parsed.put(new Batch(batch.getExampleMetaData(String.class), batch.getFeatures()));
+                } finally {
+                    parsed.put(END);
+                }
+                return null;
+            });
+            // Start the prediction stage.
+            Future<Object> modelStage = stages.submit(() -> {
+                try {
+                    Batch batch = parsed.take();
+                    while (batch != END) {
+                        batch.output = this.model.output(batch.features);
+                        batch.features = null;
+                        predicted.put(batch);
+                        batch = parsed.take();
+                    }
+                } finally {
+                    predicted.put(END);
+                }
+                return null;
+            });
+            // Write the output.
+            Batch batch = predicted.take();
+            while (batch != END) {
+                retVal += this.writeBatch(batch.metaData, batch.output);
+                batch = predicted.take();
+            }
+            // Check for errors.  The prediction stage is checked first, since if it failed, the parsing stage
+            // may be stuck waiting for it.
+            modelStage.get();
+            readStage.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            stages.shutdownNow();
+        }
+        return retVal;
+    }
+
+    /**
+     * Write the output for a batch of predictions.  The values are copied out of the output array in bulk, and
+     * the whole batch is formatted into a single buffer before it is written.
+     *
+     * @param metaData	metadata for each row
+     * @param output	model output for each row
+     *
+     * @return the number of rows written
+     */
+    private int writeBatch(List<String> metaData, INDArray output) {
+        final int n = metaData.size();
+        StringBuilder buffer = new StringBuilder(n * 64);
+        if (this.confOutput) {
+            // Here we need to output the confidences column by column.
+            double[][] confidences = output.toDoubleMatrix();
+            for (int i = 0; i < n; i++) {
+                buffer.append(metaData.get(i));
+                for (double conf : confidences[i]) {
+                    buffer.append('\t');
+                    CONF_FORMATTER.append(buffer, conf);
+                }
+                buffer.append(LINE_END);
+            }
+        } else {
+            // Here we need the best label and its confidence.  Ties go to the first label, as in argMax.
+            int[] best = output.argMax(1).toIntVector();
+            double[] confidences = output.max(1).toDoubleVector();
+            for (int i = 0; i < n; i++) {
+                buffer.append(metaData.get(i)).append('\t').append(this.labels.get(best[i])).append('\t');
+                CONF_FORMATTER.append(buffer, confidences[i]);
+                buffer.append(LINE_END);
+            }
+        }
+        this.writer.append(buffer);
+        return n;
     }
 }
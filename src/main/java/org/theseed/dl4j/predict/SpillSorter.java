@@ -0,0 +1,480 @@
+/**
+ *
+ */
+package org.theseed.dl4j.predict;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object collates keyed model results without holding them all in memory.  Each result is a key, an output
+ * column index, and a value.  The results are buffered by run builders, and each time a buffer fills, it is sorted
+ * by key and written to a run file in the spill directory.  When all the results are in, the run files are merged
+ * to produce one row of values per key, in key order.
+ *
+ * If there are too many run files to merge at once, they are merged in passes, each of which combines groups of
+ * consecutive runs into a single larger run.  Memory use is therefore limited to the run builders' buffers and the
+ * input buffers for a single merge, regardless of the number of results.
+ *
+ * If a key has more than one result for the same column, the last one stored wins, as it would in a map.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SpillSorter implements Closeable {
+
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(SpillSorter.class);
+
+    // FIELDS
+    /** directory for the run files */
+    private File spillDir;
+    /** maximum number of results in a run */
+    private int runSize;
+    /** number of output columns */
+    private int width;
+    /** maximum number of runs merged at once */
+    private int fanIn;
+    /** completed runs waiting to be merged, in order */
+    private List<File> runs;
+    /** all run files currently on disk, including partial runs and merge outputs */
+    private Set<File> runFiles;
+    /** run readers currently open */
+    private List<RunReader> openReaders;
+
+    /** default maximum number of results in a run */
+    public static final int DEFAULT_RUN_SIZE = 1000000;
+    /** default maximum number of runs merged at once */
+    public static final int FAN_IN = 64;
+    /** size of each run file buffer */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** comparator for sorting results within a run */
+    private static final Comparator<Result> KEY_ORDER = Comparator.comparing(x -> x.key);
+
+    /**
+     * This object represents a single result.
+     */
+    private static class Result {
+
+        /** key of the result */
+        private String key;
+        /** output column index */
+        private int col;
+        /** result value */
+        private double value;
+
+        /**
+         * Create a result.
+         *
+         * @param key		key of the result
+         * @param col		output column index
+         * @param value		result value
+         */
+        protected Result(String key, int col, double value) {
+            this.key = key;
+            this.col = col;
+            this.value = value;
+        }
+
+    }
+
+    /**
+     * This object buffers results and writes them to runs.  Each thread storing results needs its own run builder,
+     * and the results from a single builder must be stored in order.
+     */
+    public class RunBuilder {
+
+        /** buffered results */
+        private List<Result> buffer;
+
+        /**
+         * Create a run builder.
+         */
+        protected RunBuilder() {
+            this.buffer = new ArrayList<Result>();
+        }
+
+        /**
+         * Store a result.
+         *
+         * @param key		key of the result
+         * @param col		output column index
+         * @param value		result value
+         *
+         * @throws IOException
+         */
+        public void add(String key, int col, double value) throws IOException {
+            this.buffer.add(new Result(key, col, value));
+            if (this.buffer.size() >= SpillSorter.this.runSize)
+                this.flush();
+        }
+
+        /**
+         * Write all the buffered results to a run.  The sort is stable, so results with the same key stay in the
+         * order they were stored.
+         *
+         * @throws IOException
+         */
+        public void flush() throws IOException {
+            if (! this.buffer.isEmpty()) {
+                this.buffer.sort(KEY_ORDER);
+                File runFile = SpillSorter.this.createRun();
+                try (RunWriter writer = new RunWriter(runFile)) {
+                    for (Result result : this.buffer)
+                        writer.write(result);
+                }
+                SpillSorter.this.addRun(runFile);
+                this.buffer.clear();
+            }
+        }
+
+    }
+
+    /**
+     * This object writes results to a run file.
+     */
+    private static class RunWriter implements Closeable {
+
+        /** output stream */
+        private DataOutputStream outStream;
+
+        /**
+         * Open a run file for output.
+         *
+         * @param runFile	file to write
+         *
+         * @throws IOException
+         */
+        protected RunWriter(File runFile) throws IOException {
+            this.outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), BUFFER_SIZE));
+        }
+
+        /**
+         * Write a result.
+         *
+         * @param result	result to write
+         *
+         * @throws IOException
+         */
+        protected void write(Result result) throws IOException {
+            this.outStream.writeBoolean(true);
+            this.outStream.writeUTF(result.key);
+            this.outStream.writeInt(result.col);
+            this.outStream.writeDouble(result.value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Mark the end of the run.
+            this.outStream.writeBoolean(false);
+            this.outStream.close();
+        }
+
+    }
+
+    /**
+     * This object reads results from a run file.  It is ordered by the current result's key, and then by the
+     * position of the run in the merge, so that results for the same key come out in the order they were stored.
+     */
+    private static class RunReader implements Closeable, Comparable<RunReader> {
+
+        /** input stream */
+        private DataInputStream inStream;
+        /** position of this run in the merge */
+        private int idx;
+        /** current result, or NULL at end of run */
+        private Result current;
+
+        /**
+         * Open a run file for input and read the first result.
+         *
+         * @param runFile	file to read
+         * @param idx		position of this run in the merge
+         *
+         * @throws IOException
+         */
+        protected RunReader(File runFile, int idx) throws IOException {
+            this.inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), BUFFER_SIZE));
+            this.idx = idx;
+            this.advance();
+        }
+
+        /**
+         * Read the next result.
+         *
+         * @throws IOException
+         */
+        protected void advance() throws IOException {
+            if (! this.inStream.readBoolean())
+                this.current = null;
+            else {
+                String key = this.inStream.readUTF();
+                int col = this.inStream.readInt();
+                double value = this.inStream.readDouble();
+                this.current = new Result(key, col, value);
+            }
+        }
+
+        @Override
+        public int compareTo(RunReader o) {
+            int retVal = this.current.key.compareTo(o.current.key);
+            if (retVal == 0)
+                retVal = Integer.compare(this.idx, o.idx);
+            return retVal;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.inStream.close();
+        }
+
+    }
+
+    /**
+     * This iterator performs the final merge, returning one row of values per key.
+     */
+    private class MergeIterator implements Iterator<Map.Entry<String, double[]>> {
+
+        /** queue of readers with results remaining */
+        private PriorityQueue<RunReader> queue;
+
+        /**
+         * Begin merging a set of runs.
+         *
+         * @param runFiles	runs to merge
+         *
+         * @throws IOException
+         */
+        protected MergeIterator(List<File> runFiles) throws IOException {
+            this.queue = SpillSorter.this.openRuns(runFiles);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return ! this.queue.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, double[]> next() {
+            if (this.queue.isEmpty())
+                throw new NoSuchElementException("No more keys in merge.");
+            String key = this.queue.peek().current.key;
+            double[] values = new double[SpillSorter.this.width];
+            try {
+                while (! this.queue.isEmpty() && this.queue.peek().current.key.equals(key)) {
+                    RunReader reader = this.queue.poll();
+                    values[reader.current.col] = reader.current.value;
+                    reader.advance();
+                    SpillSorter.this.enqueue(this.queue, reader);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new AbstractMap.SimpleImmutableEntry<String, double[]>(key, values);
+        }
+
+    }
+
+    /**
+     * Create a spill sorter.
+     *
+     * @param spillDir	directory for the run files
+     * @param runSize	maximum number of results in a run
+     * @param width		number of output columns
+     */
+    public SpillSorter(File spillDir, int runSize, int width) {
+        this(spillDir, runSize, width, FAN_IN);
+    }
+
+    /**
+     * Create a spill sorter with a specified merge limit.
+     *
+     * @param spillDir	directory for the run files
+     * @param runSize	maximum number of results in a run
+     * @param width		number of output columns
+     * @param fanIn		maximum number of runs merged at once
+     */
+    SpillSorter(File spillDir, int runSize, int width, int fanIn) {
+        this.spillDir = spillDir;
+        this.runSize = runSize;
+        this.width = width;
+        this.fanIn = fanIn;
+        this.runs = new ArrayList<File>();
+        this.runFiles = new LinkedHashSet<File>();
+        this.openReaders = new ArrayList<RunReader>();
+    }
+
+    /**
+     * @return a new run builder for storing results
+     */
+    public RunBuilder newBuilder() {
+        return new RunBuilder();
+    }
+
+    /**
+     * Create a new, empty run file.  The file is tracked from the moment it is created, so that it is deleted by
+     * close() even if the run is never completed.
+     *
+     * @return the new run file
+     *
+     * @throws IOException
+     */
+    private synchronized File createRun() throws IOException {
+        File retVal = File.createTempFile("run", ".ser", this.spillDir);
+        this.runFiles.add(retVal);
+        return retVal;
+    }
+
+    /**
+     * Delete a run file that is no longer needed.
+     *
+     * @param runFile	run file to delete
+     */
+    private synchronized void deleteRun(File runFile) {
+        runFile.delete();
+        this.runFiles.remove(runFile);
+    }
+
+    /**
+     * Add a completed run to the run list.
+     *
+     * @param runFile	file containing the run
+     */
+    private synchronized void addRun(File runFile) {
+        this.runs.add(runFile);
+    }
+
+    /**
+     * @return the number of runs written so far
+     */
+    public synchronized int getRunCount() {
+        return this.runs.size();
+    }
+
+    /**
+     * Merge the runs.  All the run builders must have been flushed.  If there are more runs than can be merged
+     * at once, they are merged in passes until the final merge is small enough.
+     *
+     * @return an iterator through the rows of values, in key order
+     *
+     * @throws IOException
+     */
+    public synchronized Iterator<Map.Entry<String, double[]>> merge() throws IOException {
+        int pass = 0;
+        while (this.runs.size() > this.fanIn) {
+            pass++;
+            log.info("Merge pass {} on {} runs.", pass, this.runs.size());
+            List<File> merged = new ArrayList<File>((this.runs.size() + this.fanIn - 1) / this.fanIn);
+            for (int i = 0; i < this.runs.size(); i += this.fanIn) {
+                List<File> group = this.runs.subList(i, Math.min(this.runs.size(), i + this.fanIn));
+                if (group.size() == 1)
+                    merged.add(group.get(0));
+                else
+                    merged.add(this.mergeRuns(group));
+            }
+            this.runs = merged;
+        }
+        log.info("Final merge on {} runs.", this.runs.size());
+        return new MergeIterator(this.runs);
+    }
+
+    /**
+     * Merge a group of runs into a single run and delete the originals.
+     *
+     * @param group		list of runs to merge, in order
+     *
+     * @return the file containing the merged run
+     *
+     * @throws IOException
+     */
+    private File mergeRuns(List<File> group) throws IOException {
+        File retVal = this.createRun();
+        PriorityQueue<RunReader> queue = this.openRuns(group);
+        try (RunWriter writer = new RunWriter(retVal)) {
+            while (! queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                writer.write(reader.current);
+                reader.advance();
+                this.enqueue(queue, reader);
+            }
+        }
+        for (File runFile : group)
+            this.deleteRun(runFile);
+        return retVal;
+    }
+
+    /**
+     * @return a priority queue of readers for a list of runs
+     *
+     * @param runFiles	list of runs to read, in order
+     *
+     * @throws IOException
+     */
+    private PriorityQueue<RunReader> openRuns(List<File> runFiles) throws IOException {
+        PriorityQueue<RunReader> retVal = new PriorityQueue<RunReader>(Math.max(1, runFiles.size()));
+        for (int i = 0; i < runFiles.size(); i++) {
+            RunReader reader = new RunReader(runFiles.get(i), i);
+            this.openReaders.add(reader);
+            this.enqueue(retVal, reader);
+        }
+        return retVal;
+    }
+
+    /**
+     * Put a reader in the merge queue if it has results left, or close it if it is exhausted.
+     *
+     * @param queue		merge queue
+     * @param reader	reader to put in the queue
+     *
+     * @throws IOException
+     */
+    private void enqueue(PriorityQueue<RunReader> queue, RunReader reader) throws IOException {
+        if (reader.current != null)
+            queue.add(reader);
+        else {
+            reader.close();
+            this.openReaders.remove(reader);
+        }
+    }
+
+    /**
+     * Close any open runs and delete all the run files, including any left by an incomplete flush or merge.
+     */
+    @Override
+    public synchronized void close() {
+        for (RunReader reader : this.openReaders) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                log.warn("Error closing merge run: {}", e.toString());
+            }
+        }
+        this.openReaders.clear();
+        for (File runFile : this.runFiles)
+            runFile.delete();
+        this.runFiles.clear();
+        this.runs.clear();
+    }
+
+}
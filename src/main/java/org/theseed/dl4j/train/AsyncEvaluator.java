@@ -0,0 +1,190 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.dataset.DataSet;
+
+/**
+ * This object evaluates the model after each epoch on a background thread, so that the next epoch can train
+ * while the testing set is being processed.  After each epoch, the model state is copied into a replica
+ * and the replica is queued for evaluation.  The evaluations are performed one at a time and in order, so
+ * the run statistics are updated exactly as they would be if the evaluations were done in the foreground.
+ *
+ * There is a fixed number of replicas.  If all of them are waiting for evaluation, the trainer blocks until
+ * one is free.  This bounds the number of epochs the evaluations can fall behind the training, which in
+ * turn bounds how late an early-stop decision can be.
+ *
+ * Checkpoints are written by the evaluation thread, since that is where the run statistics are updated.
+ * The random number generator position is captured on the training thread when the replica is queued.  This
+ * includes the final checkpoint, which is taken from the last replica evaluated, so that the model state,
+ * the random number generator position, and the event count all describe the same epoch.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class AsyncEvaluator implements AutoCloseable {
+
+    // FIELDS
+    /** trainer whose epochs are being evaluated */
+    private EpochTrainer trainer;
+    /** replicas that are available for use */
+    private BlockingQueue<MultiLayerNetwork> freeReplicas;
+    /** evaluation thread */
+    private ExecutorService executor;
+    /** queue of pending evaluations */
+    private Deque<Future<?>> pending;
+    /** testing set for evaluation */
+    private DataSet testingSet;
+    /** run statistics for the training */
+    private RunStats runStats;
+    /** progress monitor */
+    private ITrainReporter monitor;
+    /** description of the training processed per epoch */
+    private String process;
+    /** score after the most recently evaluated epoch */
+    private double oldScore;
+    /** replica for the most recently evaluated epoch, or NULL if none */
+    private MultiLayerNetwork lastReplica;
+    /** random number generator position for the most recently evaluated epoch */
+    private long[] lastRngState;
+
+    /**
+     * Create an asynchronous evaluator.
+     *
+     * @param trainer		trainer whose epochs are being evaluated
+     * @param model			model being trained
+     * @param lag			maximum number of epochs the evaluation can fall behind
+     * @param startScore	initial score for bounce detection
+     * @param testingSet	testing set for evaluation
+     * @param runStats		a RunStats object describing our progress and success
+     * @param monitor		ITrainReporter for progress monitoring
+     * @param process		description of the training processed per epoch
+     */
+    public AsyncEvaluator(EpochTrainer trainer, MultiLayerNetwork model, int lag, double startScore, DataSet testingSet,
+            RunStats runStats, ITrainReporter monitor, String process) {
+        this.trainer = trainer;
+        this.testingSet = testingSet;
+        this.runStats = runStats;
+        this.monitor = monitor;
+        this.process = process;
+        this.oldScore = startScore;
+        this.lastReplica = null;
+        this.lastRngState = null;
+        this.freeReplicas = new ArrayBlockingQueue<MultiLayerNetwork>(lag);
+        for (int i = 0; i < lag; i++)
+            this.freeReplicas.add(model.clone());
+        this.pending = new ArrayDeque<Future<?>>(lag);
+        this.executor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Queue the current state of the model for evaluation.  If the evaluations are too far behind, this
+     * method waits for one to finish.
+     *
+     * @param model		model to evaluate
+     * @param metrics	throughput and resource metrics for the epoch
+     * @param last		TRUE if this is the last epoch of the training run
+     *
+     * @throws InterruptedException
+     */
+    public void submit(MultiLayerNetwork model, EpochMetrics metrics, boolean last) throws InterruptedException {
+        this.checkPending(false);
+        final MultiLayerNetwork replica = this.freeReplicas.take();
+        ModelSnapshot.copyState(model, replica);
+        final long[] rngState = Checkpointer.captureRandom();
+        this.pending.add(this.executor.submit(() -> {
+            try {
+                this.evaluate(replica, metrics, last, rngState);
+            } finally {
+                this.freeReplicas.add(replica);
+            }
+        }));
+    }
+
+    /**
+     * Evaluate a replica.  This runs on the evaluation thread.
+     *
+     * @param replica		replica containing the model state to evaluate
+     * @param metrics		throughput and resource metrics for the epoch
+     * @param last			TRUE if this is the last epoch of the training run
+     * @param rngState		random number generator position when the replica was queued
+     */
+    private void evaluate(MultiLayerNetwork replica, EpochMetrics metrics, boolean last, long[] rngState) {
+        synchronized (this.runStats) {
+            // Once the model has been abandoned, there is no point in evaluating it further.
+            if (! this.runStats.isErrorStop()) {
+                this.runStats.event();
+                this.oldScore = this.trainer.checkEpoch(replica, this.oldScore, metrics, last, this.testingSet,
+                        this.runStats, this.monitor, this.process);
+                this.trainer.checkpoint(replica, this.runStats, this.oldScore, rngState, false);
+                this.lastReplica = replica;
+                this.lastRngState = rngState;
+            }
+        }
+    }
+
+    /**
+     * @return TRUE if the evaluations so far indicate training should stop
+     */
+    public boolean isStopped() {
+        synchronized (this.runStats) {
+            return this.runStats.isErrorStop() ||
+                    this.runStats.getUselessIterations() >= this.trainer.processor.getEarlyStop();
+        }
+    }
+
+    /**
+     * Check the pending evaluations for errors, and remove the ones that are complete.
+     *
+     * @param wait	TRUE to wait for all of the evaluations to complete
+     *
+     * @throws InterruptedException
+     */
+    private void checkPending(boolean wait) throws InterruptedException {
+        while (! this.pending.isEmpty() && (wait || this.pending.peek().isDone())) {
+            Future<?> evaluation = this.pending.remove();
+            try {
+                evaluation.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                throw new RuntimeException("Error in model evaluation: " + cause.toString(), cause);
+            }
+        }
+    }
+
+    /**
+     * Wait for all the pending evaluations to complete, and then write the final checkpoint.  No more epochs
+     * can be submitted after this, since the last replica evaluated must not be overwritten.
+     *
+     * @throws InterruptedException
+     */
+    public void finish() throws InterruptedException {
+        this.checkPending(true);
+        this.pending.add(this.executor.submit(() -> {
+            synchronized (this.runStats) {
+                if (this.lastReplica != null)
+                    this.trainer.checkpoint(this.lastReplica, this.runStats, this.oldScore, this.lastRngState, true);
+            }
+        }));
+        this.checkPending(true);
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+}
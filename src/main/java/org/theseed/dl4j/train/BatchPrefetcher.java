@@ -0,0 +1,196 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object wraps a dataset iterator so that the batches are read ahead in a background thread.  The
+ * background thread parses and normalizes up to a fixed number of batches and stages them on a bounded
+ * queue, so the training thread only waits when the reader falls behind.  The object also tracks the amount
+ * of time the caller spent waiting for input.
+ *
+ * If the queue depth is 0, no background thread is used, and the batches are read directly from the
+ * source iterator.  The wait time is still tracked, so the I/O cost can be compared in either mode.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class BatchPrefetcher implements Iterator<DataSet>, AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(BatchPrefetcher.class);
+    /** source iterator */
+    private Iterator<DataSet> source;
+    /** queue of staged batches, or NULL if we are not prefetching */
+    private BlockingQueue<DataSet> queue;
+    /** background reader thread */
+    private Thread readerThread;
+    /** next batch to return, or NULL if we have not looked ahead */
+    private DataSet nextBatch;
+    /** TRUE if the end of the input has been reached */
+    private boolean done;
+    /** error encountered by the reader thread, or NULL if none */
+    private volatile Throwable readError;
+    /** number of batches remaining before we hit the batch limit */
+    private int remaining;
+    /** nanoseconds spent waiting for input */
+    private long waitNanos;
+    /** number of batches returned */
+    private int batchCount;
+
+    /** marker for end of input */
+    private static final DataSet END_MARKER = new DataSet();
+    /** maximum number of milliseconds to wait for the reader thread to stop */
+    private static final long STOP_WAIT = 30000;
+
+    /**
+     * Create a batch prefetcher.
+     *
+     * @param source	source dataset iterator
+     * @param depth		maximum number of batches to stage, or 0 to read synchronously
+     * @param limit		maximum number of batches to read
+     */
+    public BatchPrefetcher(Iterator<DataSet> source, int depth, int limit) {
+        this.source = source;
+        this.nextBatch = null;
+        this.done = false;
+        this.readError = null;
+        this.remaining = limit;
+        this.waitNanos = 0;
+        this.batchCount = 0;
+        if (depth <= 0) {
+            this.queue = null;
+            this.readerThread = null;
+        } else {
+            this.queue = new ArrayBlockingQueue<DataSet>(depth);
+            this.readerThread = new Thread(() -> this.readBatches(), "BatchPrefetcher");
+            this.readerThread.setDaemon(true);
+            this.readerThread.start();
+        }
+    }
+
+    /**
+     * Read batches from the source and put them on the queue.  This runs in the background thread.
+     */
+    private void readBatches() {
+        try {
+            while (this.remaining > 0 && this.source.hasNext()) {
+                DataSet batch = this.source.next();
+                this.remaining--;
+                this.queue.put(batch);
+            }
+        } catch (InterruptedException e) {
+            // Here the consumer closed us.  Just stop.
+            return;
+        } catch (Throwable e) {
+            // Any failure, including an Error, must be passed to the consumer, or it will wait forever.
+            this.readError = e;
+        }
+        // Denote there is no more data.  If the queue is full, we wait for the consumer to make room.
+        try {
+            this.queue.put(END_MARKER);
+        } catch (InterruptedException e) {
+            // Consumer is gone, so no one needs the marker.
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.nextBatch == null && ! this.done) {
+            long start = System.nanoTime();
+            if (this.queue == null) {
+                // Here we are reading synchronously.
+                if (this.remaining > 0 && this.source.hasNext()) {
+                    this.nextBatch = this.source.next();
+                    this.remaining--;
+                } else
+                    this.done = true;
+            } else {
+                try {
+                    DataSet batch = this.queue.take();
+                    if (batch == END_MARKER) {
+                        this.done = true;
+                        this.checkReadError();
+                    } else
+                        this.nextBatch = batch;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for training batch.", e);
+                }
+            }
+            this.waitNanos += System.nanoTime() - start;
+        }
+        return (this.nextBatch != null);
+    }
+
+    /**
+     * Rethrow the error encountered by the reader thread, if any.
+     */
+    private void checkReadError() {
+        Throwable e = this.readError;
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        else if (e instanceof Error)
+            throw (Error) e;
+        else if (e != null)
+            throw new RuntimeException("Error reading training batch: " + e.toString(), e);
+    }
+
+    @Override
+    public DataSet next() {
+        if (! this.hasNext())
+            throw new NoSuchElementException("No more training batches.");
+        DataSet retVal = this.nextBatch;
+        this.nextBatch = null;
+        this.batchCount++;
+        return retVal;
+    }
+
+    /**
+     * @return the number of seconds spent waiting for input
+     */
+    public double getWaitSeconds() {
+        return this.waitNanos / 1e9;
+    }
+
+    /**
+     * @return the number of batches returned
+     */
+    public int getBatchCount() {
+        return this.batchCount;
+    }
+
+    /**
+     * Stop the background thread and release the staged batches.  The reader is interrupted, and then we wait
+     * for it to finish the batch it is parsing, so the source is not in use after we return.
+     */
+    @Override
+    public void close() {
+        if (this.readerThread != null) {
+            this.readerThread.interrupt();
+            try {
+                this.readerThread.join(STOP_WAIT);
+                if (this.readerThread.isAlive())
+                    log.warn("Batch reader thread did not stop within {} seconds.", STOP_WAIT / 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while waiting for the batch reader thread to stop.");
+            }
+            this.readerThread = null;
+            this.queue.clear();
+        }
+        this.done = true;
+        this.nextBatch = null;
+    }
+
+}
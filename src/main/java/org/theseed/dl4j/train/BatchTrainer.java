@@ -11,7 +11,10 @@ import org.slf4j.Logger;
 
 /**
  * This trainer processes the dataset in batch mode, one batch at a time with many iterations.
- * It is the preferred method for very large datasets.
+ * It is the preferred method for very large datasets.  The testing-set evaluation can be limited to every N
+ * batches or to a minimum number of seconds apart, and the training can be limited to a maximum number of
+ * minutes.  The model parameters are checked for divergence every N batches, and a diverged model stops the
+ * training immediately.
  *
  * @author Bruce Parrello
  *
@@ -41,40 +44,81 @@ public class BatchTrainer extends Trainer {
      */
     @Override
     public void trainModel(MultiLayerNetwork model, Iterator<DataSet> reader, DataSet testingSet, RunStats runStats, ITrainReporter monitor) throws InterruptedException {
-        double oldScore = Double.MAX_VALUE;
+        double oldScore = this.getStartScore();
         String process = processor.getIterations() + " iterations";
-        while (reader.hasNext() && runStats.getEventCount() < processor.getMaxBatches() && ! runStats.isErrorStop()) {
-            // Record this batch.
-            runStats.event();
-            // Read it in and train with it.
-            long startTime = System.currentTimeMillis();
-            DataSet trainingData = reader.next();
-            for(int i=0; i < processor.getIterations(); i++ ) {
-                model.fit(trainingData);
-            }
-            long duration = (System.currentTimeMillis() - startTime) / 1000;
-            // Check for a score bounce.
-            boolean saved = false;
-            double newScore = model.score();
-            if (oldScore < newScore) {
-                runStats.bounce();
-                log.info("Score at end of batch {} is {}.", runStats.getEventCount(),
-                        newScore);
-            } else try {
-                saved = runStats.checkModel(model, testingSet, this.processor, duration, this.eventsName(), process);
-            } catch (IllegalStateException e) {
-                // Here we had underflow in the evaluation.
-                newScore = Double.NaN;
-                log.warn("IllegalStateException: {}", e.toString());
-            }
-            oldScore = newScore;
-            // Force a stop if we have overflow or underflow.
-            if (! Double.isFinite(newScore)) {
-                log.error("Overflow/Underflow in gradient processing.  Model abandoned.");
-                runStats.error();
-            } else {
-                monitor.displayEpoch(runStats.getEventCount(), newScore, runStats.getRating(), saved);
+        // If we are resuming, skip the batches already processed.
+        int skip = runStats.getEventCount();
+        if (skip > 0) {
+            log.info("Skipping {} batches already processed.", skip);
+            for (int i = 0; i < skip && reader.hasNext(); i++)
+                reader.next();
+        }
+        // The batches are read through a prefetcher, which stages them in the background and tracks the I/O wait.
+        long computeNanos = 0;
+        this.startClock(runStats);
+        boolean timeUp = false;
+        try (BatchPrefetcher batches = new BatchPrefetcher(reader, processor.getPrefetch(), processor.getMaxBatches() - skip)) {
+            while (batches.hasNext() && ! runStats.isErrorStop() && ! timeUp) {
+                // Record this batch.
+                runStats.event();
+                // Read it in and train with it.
+                long startTime = System.nanoTime();
+                DataSet trainingData = batches.next();
+                long computeStart = System.nanoTime();
+                for(int i=0; i < processor.getIterations(); i++ ) {
+                    model.fit(trainingData);
+                }
+                long fitNanos = System.nanoTime() - computeStart;
+                computeNanos += fitNanos;
+                double duration = (System.nanoTime() - startTime) / 1e9;
+                EpochMetrics metrics = this.captureMetrics(runStats.getEventCount(),
+                        (long) trainingData.numExamples() * processor.getIterations(), processor.getIterations(), fitNanos);
+                timeUp = this.checkTimeLimit(runStats, runStats.getEventCount());
+                boolean last = (timeUp || ! batches.hasNext());
+                // If the parameters have diverged, there is no point in evaluating.  The health check has
+                // already stopped the training.
+                if (! this.checkHealth(model, runStats, runStats.getEventCount())) {
+                    // Check for a score bounce.
+                    boolean saved = false;
+                    double newScore = model.score();
+                    if (oldScore < newScore) {
+                        runStats.bounce();
+                        log.info("Score at end of batch {} is {}.", runStats.getEventCount(),
+                                newScore);
+                    } else if (! this.isEvalDue(runStats.getEventCount(), last)) {
+                        log.info("Score at end of batch {} is {}.  Evaluation skipped.", runStats.getEventCount(),
+                                newScore);
+                    } else {
+                        this.evalDone(runStats.getEventCount());
+                        long evalStart = System.nanoTime();
+                        try {
+                            saved = runStats.checkModel(model, testingSet, this.processor, duration, this.eventsName(), process);
+                        } catch (IllegalStateException e) {
+                            // Here we had underflow in the evaluation.
+                            newScore = Double.NaN;
+                            log.warn("IllegalStateException: {}", e.toString());
+                        }
+                        metrics.setEvalNanos(System.nanoTime() - evalStart);
+                    }
+                    oldScore = newScore;
+                    // Force a stop if we have overflow or underflow.
+                    if (! Double.isFinite(newScore)) {
+                        log.error("Overflow/Underflow in gradient processing.  Model abandoned.");
+                        runStats.error();
+                    } else {
+                        monitor.displayEpoch(runStats.getEventCount(), newScore, runStats.getRating(), saved);
+                    }
+                }
+                this.reportMetrics(metrics, monitor);
+                this.checkpoint(model, runStats, oldScore, Checkpointer.captureRandom(), false);
             }
+            this.checkpoint(model, runStats, oldScore, Checkpointer.captureRandom(), true);
+            double waitSeconds = batches.getWaitSeconds();
+            double computeSeconds = computeNanos / 1e9;
+            double total = waitSeconds + computeSeconds;
+            log.info("{} batches trained.  {} seconds waiting for input, {} seconds fitting ({}% of the time waiting on I/O).",
+                    batches.getBatchCount(), String.format("%4.2f", waitSeconds), String.format("%4.2f", computeSeconds),
+                    String.format("%4.1f", (total > 0 ? waitSeconds * 100 / total : 0.0)));
         }
     }
 
@@ -0,0 +1,319 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.rng.Random;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This object manages training checkpoints.  A checkpoint contains the current model parameters and updater
+ * state, the best-model snapshot, the run statistics, the score used for bounce detection, and the position
+ * of the random number generator.  This is enough to resume the training run where it left off.
+ *
+ * The checkpoint state is copied into buffers on the training thread, and then it is serialized on a
+ * background thread so training can continue.  Only one checkpoint can be written at a time, so if the
+ * previous write is still running when the next checkpoint is due, the trainer waits for it.  Each
+ * checkpoint is written to a temporary file and then renamed, so a crash during the write leaves the
+ * previous checkpoint intact.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class Checkpointer implements AutoCloseable {
+
+    // FIELDS
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(Checkpointer.class);
+    /** checkpoint file */
+    private File checkpointFile;
+    /** number of events between checkpoints, or 0 if checkpoints are turned off */
+    private int interval;
+    /** snapshot of the current model state */
+    private ModelSnapshot current;
+    /** copy of the best-model snapshot */
+    private ModelSnapshot best;
+    /** background writer thread */
+    private ExecutorService writer;
+    /** checkpoint currently being written, or NULL if none */
+    private Future<?> pending;
+    /** event count for the last checkpoint saved, or -1 if none */
+    private int lastEvent;
+    /** event count at which training resumed, or 0 if this is a new run */
+    private int resumeEvent;
+    /** bounce-detection score at which training resumed */
+    private double resumeScore;
+
+    /** key for the training state in the checkpoint file */
+    private static final String STATE_KEY = "trainingState";
+
+    /**
+     * This object contains the training state stored in a checkpoint, other than the current model.
+     */
+    public static class State implements Serializable {
+
+        /** serialization version ID */
+        private static final long serialVersionUID = 4108856287711374561L;
+
+        /** TRUE if training stopped because of an error */
+        protected boolean errorStop;
+        /** number of score bounces */
+        protected int bounceCount;
+        /** number of training events */
+        protected int eventCount;
+        /** number of times the model was saved */
+        protected int saveCount;
+        /** event count when the best model was saved */
+        protected int bestEvent;
+        /** accuracy of the best model */
+        protected double bestAccuracy;
+        /** number of events in a row where the model was not saved */
+        protected int uselessEvents;
+        /** score of the best model */
+        protected double bestScore;
+        /** score after the last event, for bounce detection */
+        protected double oldScore;
+        /** random number generator root state */
+        protected long rngRoot;
+        /** random number generator node state */
+        protected long rngNode;
+        /** serialized parameters of the best model, or NULL if there is no best model */
+        protected byte[] bestParams;
+        /** serialized updater state of the best model, or NULL if there is none */
+        protected byte[] bestUpdater;
+        /** iteration count of the best model */
+        protected int bestIterations;
+        /** epoch count of the best model */
+        protected int bestEpochs;
+        /** internal score of the best model */
+        protected double bestModelScore;
+
+    }
+
+    /**
+     * Create a checkpoint manager.
+     *
+     * @param checkpointFile	checkpoint file
+     * @param interval			number of events between checkpoints, or 0 to turn checkpoints off
+     */
+    public Checkpointer(File checkpointFile, int interval) {
+        this.checkpointFile = checkpointFile;
+        this.interval = interval;
+        this.current = new ModelSnapshot(null);
+        this.best = new ModelSnapshot(null);
+        this.writer = null;
+        this.pending = null;
+        this.lastEvent = -1;
+        this.resumeEvent = 0;
+        this.resumeScore = Double.MAX_VALUE;
+    }
+
+    /**
+     * @return the current position of the random number generator, for use in a checkpoint
+     */
+    public static long[] captureRandom() {
+        Random rng = Nd4j.getRandom();
+        return new long[] { rng.rootState(), rng.nodeState() };
+    }
+
+    /**
+     * @return TRUE if a checkpoint is due after the specified event
+     *
+     * @param eventCount	number of training events completed
+     * @param force			TRUE if a checkpoint is wanted even when the interval has not elapsed
+     */
+    public boolean isDue(int eventCount, boolean force) {
+        return (this.interval > 0 && eventCount != this.lastEvent && (force || eventCount % this.interval == 0));
+    }
+
+    /**
+     * Save a checkpoint if one is due.  Nothing is saved once training has stopped with an error, since the
+     * model parameters may be unusable and they would replace the last good checkpoint.
+     *
+     * @param model			model being trained
+     * @param runStats		run statistics for the training
+     * @param oldScore		score after the last event, for bounce detection
+     * @param rngState		random number generator position, from captureRandom()
+     * @param force			TRUE to save a checkpoint even if the interval has not elapsed
+     *
+     * @return TRUE if a checkpoint was saved
+     */
+    public boolean checkpoint(MultiLayerNetwork model, RunStats runStats, double oldScore, long[] rngState,
+            boolean force) {
+        boolean retVal = false;
+        if (runStats.isErrorStop()) {
+            if (force && this.interval > 0 && this.lastEvent >= 0)
+                log.warn("Training stopped with an error.  Checkpoint {} keeps the state after {} events.",
+                        this.checkpointFile, this.lastEvent);
+        } else if (this.isDue(runStats.getEventCount(), force)) {
+            this.save(model, runStats, oldScore, rngState);
+            retVal = true;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of events between checkpoints, or 0 if checkpoints are turned off
+     */
+    public int getInterval() {
+        return this.interval;
+    }
+
+    /**
+     * Save a checkpoint.  The state is copied immediately, and the file is written in the background.
+     *
+     * @param model			model being trained
+     * @param runStats		run statistics for the training
+     * @param oldScore		score after the last event, for bounce detection
+     * @param rngState		random number generator position, from captureRandom()
+     */
+    public void save(MultiLayerNetwork model, RunStats runStats, double oldScore, long[] rngState) {
+        // Insure the previous checkpoint is finished, since it is using the buffers.
+        this.waitForWrite();
+        this.current.save(model);
+        this.best.copyFrom(runStats.getBestSnapshot());
+        final State state = new State();
+        runStats.saveState(state);
+        state.oldScore = oldScore;
+        state.rngRoot = rngState[0];
+        state.rngNode = rngState[1];
+        this.lastEvent = runStats.getEventCount();
+        if (this.writer == null)
+            this.writer = Executors.newSingleThreadExecutor();
+        this.pending = this.writer.submit(() -> this.write(state));
+    }
+
+    /**
+     * Write the checkpoint file.  This runs on the background thread.
+     *
+     * @param state		training state to store in the file
+     */
+    private void write(State state) {
+        File tempFile = new File(this.checkpointFile.getParentFile(), this.checkpointFile.getName() + ".tmp");
+        try {
+            if (this.best.isSaved()) {
+                state.bestParams = Nd4j.toByteArray(this.best.getParams());
+                if (this.best.getUpdaterState() != null)
+                    state.bestUpdater = Nd4j.toByteArray(this.best.getUpdaterState());
+                state.bestIterations = this.best.getIterationCount();
+                state.bestEpochs = this.best.getEpochCount();
+                state.bestModelScore = this.best.getScore();
+            }
+            ModelSerializer.writeModel(this.current.getModel(), tempFile, true);
+            ModelSerializer.addObjectToFile(tempFile, STATE_KEY, state);
+            Files.move(tempFile.toPath(), this.checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            log.info("Checkpoint written to {} after {} events.", this.checkpointFile, state.eventCount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Wait for the current checkpoint write to finish.  A failed checkpoint is logged, but it does not
+     * stop the training.
+     */
+    private void waitForWrite() {
+        if (this.pending != null) {
+            try {
+                this.pending.get();
+            } catch (ExecutionException e) {
+                log.error("Checkpoint write failed: {}", e.getCause().toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Interrupted while waiting for checkpoint write.");
+            }
+            this.pending = null;
+        }
+    }
+
+    /**
+     * Restore the training state from the checkpoint file.
+     *
+     * @param model		model being trained; its state will be replaced by the checkpointed state
+     * @param runStats	run statistics for the training; these will be replaced by the checkpointed statistics
+     *
+     * @return TRUE if a checkpoint was restored, FALSE if there was no checkpoint file
+     *
+     * @throws IOException
+     */
+    public boolean restore(MultiLayerNetwork model, RunStats runStats) throws IOException {
+        boolean retVal = false;
+        if (! this.checkpointFile.canRead())
+            log.warn("Checkpoint file {} not found.  Training will start from the beginning.", this.checkpointFile);
+        else {
+            log.info("Resuming training from checkpoint {}.", this.checkpointFile);
+            MultiLayerNetwork saved = ModelSerializer.restoreMultiLayerNetwork(this.checkpointFile, true);
+            if (saved.numParams() != model.numParams())
+                throw new IllegalArgumentException("Checkpoint in " + this.checkpointFile +
+                        " does not match the current model configuration.");
+            ModelSnapshot.copyState(saved, model);
+            State state = ModelSerializer.getObjectFromFile(this.checkpointFile, STATE_KEY);
+            runStats.restoreState(state);
+            if (state.bestParams != null) {
+                INDArray bestParams = Nd4j.fromByteArray(state.bestParams);
+                INDArray bestUpdater = (state.bestUpdater == null ? null : Nd4j.fromByteArray(state.bestUpdater));
+                runStats.getBestSnapshot().load(model, bestParams, bestUpdater, state.bestIterations,
+                        state.bestEpochs, state.bestModelScore);
+            }
+            Nd4j.getRandom().setStates(state.rngRoot, state.rngNode);
+            this.resumeEvent = state.eventCount;
+            this.resumeScore = state.oldScore;
+            this.lastEvent = state.eventCount;
+            log.info("Training resumed after {} events.  Best event so far was {}.", state.eventCount,
+                    state.bestEvent);
+            retVal = true;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of events completed before training resumed, or 0 if this is a new run
+     */
+    public int getResumeEvent() {
+        return this.resumeEvent;
+    }
+
+    /**
+     * @return the bounce-detection score at the point where training resumed
+     */
+    public double getResumeScore() {
+        return this.resumeScore;
+    }
+
+    /**
+     * @return the checkpoint file
+     */
+    public File getCheckpointFile() {
+        return this.checkpointFile;
+    }
+
+    /**
+     * Wait for any pending checkpoint and release the background thread.
+     */
+    @Override
+    public void close() {
+        this.waitForWrite();
+        if (this.writer != null) {
+            this.writer.shutdown();
+            this.writer = null;
+        }
+    }
+
+}
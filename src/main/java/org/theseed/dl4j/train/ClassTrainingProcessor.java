@@ -56,6 +56,9 @@ import org.theseed.reports.TestValidationReport;
  *
  * The standard output will contain evaluations and logs.  A snapshot of the input parameters and the
  * evaluation results will be appended to the file "trials.log".
+ * If "--metrics" is specified, throughput and resource measurements for each epoch or batch (fit and
+ * evaluation times, examples per second, garbage collection, heap and native memory, and CPU use) will be
+ * appended to the tab-delimited file "metrics.tbl".
  *
  * The following command-line options are supported.
  *
@@ -99,8 +102,8 @@ import org.theseed.reports.TestValidationReport;
  * 				layers
  * --init		activation type for the input layer; the default is HARDTANH
  * --comment	a comment to display at the beginning of the trial log
- * --method		training strategy to use-- epoch (small datasets) or batch (large datasets); the default
- * 				is EPOCH
+ * --method		training strategy to use-- epoch (small datasets), parallel (small datasets on many cores),
+ * 				or batch (large datasets); the default is EPOCH
  * --batch		use batch normalization before the hidden layers
  * --start		weight initialization algorithm; the default is XAVIER
  * --updater	update algorithm to use; the default is ADAM
@@ -131,6 +134,38 @@ import org.theseed.reports.TestValidationReport;
  * --earlyStop	maximum number of iterations allowed with no accuracy improvement; if this
  * 				limit is exceeded, the run is terminated; a value of 0 causes the value
  * 				to be set impossibly high; the default is 200
+ * --shuffle	if specified, the training examples will be put in a new random order before each epoch
+ * --evalLag	if nonzero, the testing-set evaluation after each epoch will be performed in a background
+ * 				thread while the next epoch trains; the value is the maximum number of epochs the
+ * 				evaluation can fall behind, which also bounds how late an early stop can occur; the
+ * 				default is 0 (evaluate in the foreground)
+ * --checkpoint	number of epochs (or batches, for training method BATCH) between training checkpoints;
+ * 				the default is 0 (no checkpoints)
+ * --checkpointFile	name of the checkpoint file; the default is "checkpoint.ser" in the model directory, or
+ * 				"checkpoint-TAG.ser" if a run tag is specified
+ * --resume		if specified, training will resume from the state in the checkpoint file
+ * --maxTime	maximum number of minutes to train; training stops cleanly at the end of the first epoch
+ * 				or batch after the limit is reached; the default is 0 (no limit)
+ * --evalEvery	minimum number of epochs or batches between testing-set evaluations; epochs that are not
+ * 				evaluated do not count toward the early-stop limit, which must be larger than this value;
+ * 				the default is 1
+ * --evalSeconds	minimum number of seconds between testing-set evaluations; the default is 0
+ * --healthCheck	number of epochs or batches between checks of the model parameters for divergence; a
+ * 				diverged model stops training immediately; the default is 1 (0 to check only at the end)
+ * --metrics	if specified, throughput and resource metrics are appended to "metrics.tbl"
+ * --runTag		label to distinguish runs sharing the model directory; it is added to the run identifier in
+ * 				the metrics file and to the default checkpoint file name; the default is none
+ *
+ * For training method PARALLEL, the following options also apply:
+ *
+ * --workers	number of model replicas to train in parallel; the default is 2
+ * --avgFreq	number of batches each replica processes before the replica parameters are averaged;
+ * 				the default is 1
+ *
+ * For training method BATCH, the following option also applies:
+ *
+ * --prefetch	number of batches to read ahead in a background thread while the current batch is
+ * 				training; 0 turns this off; the default is 2
  *
  * The following are utility options
  *
@@ -248,6 +283,11 @@ public class ClassTrainingProcessor extends TrainingProcessor implements IComman
         this.setupTraining(this.labelCol);
     }
 
+    @Override
+    protected String getDataKey() {
+        return super.getDataKey() + "\t" + this.labelCol;
+    }
+
     public IValidationReport getValidationReporter(OutputStream out) {
         return new ClassValidationReport(out);
     }
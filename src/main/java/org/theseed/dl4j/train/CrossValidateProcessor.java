@@ -6,8 +6,17 @@ package org.theseed.dl4j.train;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
@@ -37,6 +46,10 @@ import org.theseed.utils.Parms;
  *
  * The rating of the model is a prediction error, computed according to the model type.
  *
+ * For neural-net models, the input file is parsed once into a DataSetStore at the start.  Each fold still reads
+ * its testing set and the file headers through the normal reader, but the training set and the evaluation against
+ * the whole input are built from index-based views of the store.
+ *
  * The positional parameter is the name of the model directory.
  *
  * The command-line options are as follows.
@@ -46,6 +59,9 @@ import org.theseed.utils.Parms;
  * -t	type of model (CLASS or REGRESSION, default CLASS)
  *
  * --parms 	name of the parameter file (default is "parms.prm" in the model directory)
+ * --parallel	number of folds to train at the same time; each fold runs on its own training processor with
+ * 				its own copy of the rotated input, and the results are processed in fold order, so the best
+ * 				fold and the report are the same as for a serial run; the default is 1
  *
  * @author Bruce Parrello
  *
@@ -75,6 +91,12 @@ public class CrossValidateProcessor implements ICommand {
     private double[][] foldStats;
     /** progress monitor */
     private ITrainReporter progressMonitor;
+    /** validation report statistic titles */
+    private String[] statTitles;
+    /** parsed input examples, or NULL if the input must be parsed for each fold */
+    private DataSetStore store;
+    /** map of input lines to example indices in the store */
+    private Map<String, Integer> lineIndex;
 
     // COMMAND-LINE OPTIONS
 
@@ -94,10 +116,92 @@ public class CrossValidateProcessor implements ICommand {
     @Option(name = "--parms", metaVar="parms.prm", usage="parameter file (if not the default)")
     private File parmFile;
 
+    /** number of folds to train at once */
+    @Option(name = "--parallel", metaVar = "4", usage = "number of folds to train in parallel")
+    private int parallel;
+
     /** model directory */
     @Argument(index=0, metaVar="modelDir", usage="model directory", required=true)
     private File modelDir;
 
+    /**
+     * This object describes the training and evaluation of a single fold.  In a parallel run, it is created
+     * on the main thread, executed on a worker thread, and then processed on the main thread.
+     */
+    private class Fold {
+
+        /** fold number (1-based) */
+        private int k;
+        /** input lines for this fold, with the testing set at the front */
+        private Shuffler<String> data;
+        /** training processor for this fold */
+        private ITrainingProcessor processor;
+        /** prediction error summary */
+        private IPredictError errors;
+        /** mean error of the fold's best model */
+        private double error;
+        /** exception that aborted the fold, or NULL if it succeeded */
+        private Exception failure;
+
+        /**
+         * Create a fold.
+         *
+         * @param k				fold number
+         * @param data			input lines for this fold
+         * @param processor		training processor to use
+         */
+        protected Fold(int k, Shuffler<String> data, ITrainingProcessor processor) {
+            this.k = k;
+            this.data = data;
+            this.processor = processor;
+            this.errors = null;
+            this.error = Double.NaN;
+            this.failure = null;
+        }
+
+        /**
+         * Train the model for this fold and evaluate it against the whole input.
+         *
+         * @return this object
+         */
+        protected Fold execute() {
+            try {
+                this.processor.setComment(String.format("Cross-validation fold %d.", this.k));
+                if (this.processor instanceof LearningProcessor)
+                    ((LearningProcessor) this.processor).setRunTag("fold" + this.k);
+                // Read the data and run the training.  If the examples are preloaded, only the testing set
+                // is read from the input.
+                TabbedDataSetReader myReader = this.processor.openReader(this.data);
+                this.processor.configureTraining(myReader);
+                DataSetStore.View view = CrossValidateProcessor.this.getView(this.data);
+                if (view != null) {
+                    int testSize = CrossValidateProcessor.this.testSize;
+                    ((TrainingProcessor) this.processor).setTrainingView(view.subView(testSize, view.size()));
+                }
+                this.processor.run();
+                // Compute the accuracy.  Note we reread the input.
+                TestValidationReport testErrorReport = this.processor.getTestReporter();
+                String idCol = this.processor.getIdCol();
+                if (idCol != null) {
+                    try (TabbedLineReader reader = new TabbedLineReader(this.data)) {
+                        Collection<String> trained = this.processor.getTrainingMeta(reader);
+                        testErrorReport.setupIdCol(CrossValidateProcessor.this.modelDir, idCol,
+                                this.processor.getMetaList(), trained);
+                    }
+                }
+                if (view != null)
+                    this.errors = ((TrainingProcessor) this.processor).testBestPredictions(view, testErrorReport);
+                else
+                    this.errors = this.processor.testBestPredictions(this.data, testErrorReport);
+                this.error = testErrorReport.getError();
+            } catch (Exception e) {
+                this.failure = e;
+            }
+            return this;
+        }
+
+    }
+
     /**
      * Create a new, blank cross-validation processor.
      */
@@ -124,6 +228,7 @@ public class CrossValidateProcessor implements ICommand {
             this.foldK = 10;
             this.modelType = ModelType.CLASS;
             this.parmFile = null;
+            this.parallel = 1;
             parser.parseArgument(args);
             if (this.help) {
                 parser.printUsage(System.err);
@@ -131,6 +236,9 @@ public class CrossValidateProcessor implements ICommand {
                 // Verify that the fold size is reasonable.
                 if (this.foldK < 2)
                     throw new ParseFailureException("Invalid k-fold " + Integer.toString(this.foldK) + ".  Must be 2 or greater.");
+                // Verify the parallelism.
+                if (this.parallel < 1)
+                    throw new ParseFailureException("Invalid parallel count " + Integer.toString(this.parallel) + ".  Must be 1 or greater.");
                 // Verify the model directory.
                 if (! this.modelDir.isDirectory())
                     throw new FileNotFoundException("Model directory " + this.modelDir + " not found or invalid.");
@@ -143,6 +251,10 @@ public class CrossValidateProcessor implements ICommand {
                     throw new FileNotFoundException("Parameter file " + this.parmFile + " not found or unreadable.");
                 else {
                     this.parms = new Parms(this.parmFile);
+                    // Each fold needs its own checkpoint file, which the training processor derives from the fold's
+                    // run tag.  An explicit file would be shared by all the folds.
+                    if (! this.parms.getValue("--checkpointFile").isEmpty())
+                        throw new ParseFailureException("A checkpoint file name cannot be specified for cross-validation.  Each fold uses its own default file.");
                     // Extract the training file.
                     String trainingName = this.parms.getValue("--training");
                     File trainingFile;
@@ -201,52 +313,23 @@ public class CrossValidateProcessor implements ICommand {
             // Set the defaults.
             this.trainingProcessor.setupParameters(this.parms, this.modelDir);
             // This will hold the validation report statistic titles.
-            String[] statTitles = null;
+            this.statTitles = null;
             // Prevent the model from saving.
             this.trainingProcessor.setSearchMode();
-            for (int k = 1; k <= this.foldK; k++) {
-                // Fix the comment.
-                String comment = String.format("Cross-validation fold %d.", k);
-                this.trainingProcessor.setComment(comment);
-                // Read the data and run the training.
-                TabbedDataSetReader myReader = this.trainingProcessor.openReader(this.mainFile);
-                this.trainingProcessor.configureTraining(myReader);
-                this.progressMonitor.showMessage(comment);
-                this.trainingProcessor.run();
-                // Compute the accuracy.  Note we reread the input.
-                TestValidationReport testErrorReport = this.trainingProcessor.getTestReporter();
-                String idCol = this.trainingProcessor.getIdCol();
-                if (idCol != null) {
-                    try (TabbedLineReader reader = new TabbedLineReader(this.mainFile)) {
-                        Collection<String> trained = this.trainingProcessor.getTrainingMeta(reader);
-                        testErrorReport.setupIdCol(this.modelDir, idCol, this.trainingProcessor.getMetaList(), trained);
-                    }
-                }
-                IPredictError errors = this.trainingProcessor.testBestPredictions(this.mainFile, testErrorReport);
-                double thisError = testErrorReport.getError();
-                log.info("Mean error for this model was {}.", thisError);
-                if (thisError < this.bestError) {
-                    this.bestIdx = k;
-                    this.bestError = thisError;
-                    log.info("Model is the best so far.");
-                    this.trainingProcessor.saveModelForced();
-                    if (this.trainingProcessor.getIdCol() != null)
-                        this.trainingProcessor.saveTrainingMeta(this.mainFile);
-                    this.progressMonitor.showResults(this.trainingProcessor.getResultReport());
-                } else {
-                    log.info("Best so far is fold {} with error {}.", this.bestIdx, this.bestError);
+            // Parse the input once, if we can.
+            this.store = null;
+            if (this.trainingProcessor instanceof TrainingProcessor)
+                this.loadStore((TrainingProcessor) this.trainingProcessor);
+            if (this.parallel <= 1) {
+                for (int k = 1; k <= this.foldK; k++) {
+                    this.progressMonitor.showMessage(String.format("Cross-validation fold %d.", k));
+                    Fold fold = new Fold(k, this.mainFile, this.trainingProcessor);
+                    this.processFold(fold.execute());
+                    // Shuffle the input for the next fold.
+                    this.mainFile.rotate(1, -this.testSize);
                 }
-                // Now we need to track this model's performance.  First, insure we have titles.
-                if (statTitles == null)
-                    statTitles = errors.getTitles();
-                // Store the mean error.
-                this.errorTracker.add(thisError);
-                this.foldErrors[k] = thisError;
-                // Store the auxiliary stats.
-                this.foldStats[k] = errors.getStats();
-                // Shuffle the input for the next fold.
-                this.mainFile.rotate(1, -this.testSize);
-            }
+            } else
+                this.runParallel();
             log.info("Best result was fold {} with error {}.", this.bestIdx, this.bestError);
             // Finish the regression statistics.
             this.errorTracker.finish();
@@ -256,7 +339,7 @@ public class CrossValidateProcessor implements ICommand {
             buffer.appendNewLine();
             buffer.appendln(boundary);
             buffer.appendln(String.format("%4s  %14s ", "Fold", "Error")
-                    + Arrays.stream(statTitles).map(x -> String.format(" %14s", x)).collect(Collectors.joining()));
+                    + Arrays.stream(this.statTitles).map(x -> String.format(" %14s", x)).collect(Collectors.joining()));
             buffer.appendNewLine();
             for (int k = 1; k <= this.foldK; k++) {
                 char flag = (k == this.bestIdx ? '*' : ' ');
@@ -277,6 +360,135 @@ public class CrossValidateProcessor implements ICommand {
         }
     }
 
+    /**
+     * Parse the input into a store of examples.  This must be done before the input is rotated, so that the
+     * example indices match the line positions.  If the input cannot be stored, the store is left NULL and
+     * each fold will parse the input itself.
+     *
+     * @param processor		configured training processor for reading the input
+     *
+     * @throws IOException
+     */
+    private void loadStore(TrainingProcessor processor) throws IOException {
+        log.info("Parsing input for cross-validation.");
+        this.store = DataSetStore.load(processor.openDataFile(this.mainFile));
+        int lines = this.mainFile.size() - 1;
+        if (this.store == null)
+            log.warn("Input cannot be preloaded.  It will be parsed for each fold.");
+        else if (this.store.size() != lines) {
+            log.warn("Parsed input has {} examples for {} lines.  It will be parsed for each fold.", this.store.size(), lines);
+            this.store = null;
+        } else {
+            // The folds use copies of the input list that contain the same string objects, so we index by identity.
+            this.lineIndex = new IdentityHashMap<String, Integer>(lines);
+            for (int i = 1; i <= lines; i++)
+                this.lineIndex.put(this.mainFile.get(i), i - 1);
+            log.info("{} examples preloaded.", lines);
+        }
+    }
+
+    /**
+     * @return a view of the stored examples in the order of the specified input lines, or NULL if there is no store
+     *
+     * @param data		input lines, beginning with the header
+     */
+    private DataSetStore.View getView(List<String> data) {
+        DataSetStore.View retVal = null;
+        if (this.store != null) {
+            int[] rows = new int[data.size() - 1];
+            for (int i = 0; i < rows.length; i++)
+                rows[i] = this.lineIndex.get(data.get(i + 1));
+            retVal = this.store.view(rows);
+        }
+        return retVal;
+    }
+
+    /**
+     * Train the folds in parallel.  Each fold gets its own training processor and its own copy of the input,
+     * rotated to put the fold's testing set at the front.  The results are processed on this thread in fold
+     * order.  At most two folds per worker are outstanding at any time.
+     *
+     * @throws Exception
+     */
+    private void runParallel() throws Exception {
+        try (MathThreads mathThreads = new MathThreads(this.parallel)) {
+            log.info("Running {} folds at a time with {} math threads each.", this.parallel, mathThreads.getShare());
+            ExecutorService workers = Executors.newFixedThreadPool(this.parallel);
+            Deque<Future<Fold>> pending = new ArrayDeque<Future<Fold>>(2 * this.parallel);
+            try {
+                int next = 1;
+                while (next <= this.foldK || ! pending.isEmpty()) {
+                    // Fill the pipeline.
+                    while (pending.size() < 2 * this.parallel && next <= this.foldK) {
+                        this.progressMonitor.showMessage(String.format("Cross-validation fold %d.", next));
+                        Shuffler<String> data = new Shuffler<String>(this.mainFile.size());
+                        data.addAll(this.mainFile);
+                        Fold fold = new Fold(next, data, this.createWorker());
+                        pending.add(workers.submit(() -> fold.execute()));
+                        // Shuffle the input for the next fold.
+                        this.mainFile.rotate(1, -this.testSize);
+                        next++;
+                    }
+                    // Process the oldest fold.
+                    this.processFold(pending.remove().get());
+                }
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * @return a training processor for a parallel fold; its progress is not reported
+     *
+     * @throws IOException
+     */
+    private ITrainingProcessor createWorker() throws IOException {
+        ITrainingProcessor retVal = ModelType.create(this.modelType);
+        retVal.setModelDir(this.modelDir);
+        retVal.setProgressMonitor(new NullTrainReporter());
+        retVal.setupParameters(this.parms, this.modelDir);
+        retVal.setSearchMode();
+        return retVal;
+    }
+
+    /**
+     * Process the result of a fold.  This must be called in fold order.  If the fold failed, its exception
+     * is rethrown.
+     *
+     * @param fold		fold that has been executed
+     *
+     * @throws Exception
+     */
+    private void processFold(Fold fold) throws Exception {
+        if (fold.failure != null)
+            throw fold.failure;
+        int k = fold.k;
+        double thisError = fold.error;
+        log.info("Mean error for fold {} was {}.", k, thisError);
+        if (thisError < this.bestError) {
+            this.bestIdx = k;
+            this.bestError = thisError;
+            log.info("Model is the best so far.");
+            fold.processor.saveModelForced();
+            if (fold.processor.getIdCol() != null)
+                fold.processor.saveTrainingMeta(fold.data);
+            this.progressMonitor.showResults(fold.processor.getResultReport());
+        } else {
+            log.info("Best so far is fold {} with error {}.", this.bestIdx, this.bestError);
+        }
+        // Now we need to track this model's performance.  First, insure we have titles.
+        if (this.statTitles == null)
+            this.statTitles = fold.errors.getTitles();
+        // Store the mean error.
+        this.errorTracker.add(thisError);
+        this.foldErrors[k] = thisError;
+        // Store the auxiliary stats.
+        this.foldStats[k] = fold.errors.getStats();
+    }
+
     /**
      * @return the error information for the cross-validation
      */
@@ -0,0 +1,218 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * This object holds a parsed input file in memory, so that subsets of it can be presented as datasets without
+ * parsing the file again.  The features are packed into a single matrix with one row per example, and the labels
+ * into a second one.  The example metadata is kept in a parallel list.  A view is an array of example indices; its
+ * batches are assembled by pulling the indexed rows out of the matrices.
+ *
+ * The stored examples are not normalized.  A normalizer can be specified when the batches of a view are requested.
+ *
+ * Datasets with masks cannot be stored.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class DataSetStore {
+
+    // FIELDS
+    /** matrix of feature rows, one per example */
+    private INDArray features;
+    /** matrix of label rows, one per example */
+    private INDArray labels;
+    /** shape of the features for a single example */
+    private long[] featureShape;
+    /** shape of the labels for a single example */
+    private long[] labelShape;
+    /** metadata for each example, or NULL if there is none */
+    private List<Serializable> metadata;
+    /** number of examples */
+    private int size;
+
+    /**
+     * This is a subset of the stored examples in a specific order.
+     */
+    public class View {
+
+        /** indices of the examples in this view */
+        private int[] rows;
+
+        /**
+         * Create a view.
+         *
+         * @param rows	indices of the examples to include, in order
+         */
+        protected View(int[] rows) {
+            this.rows = rows;
+        }
+
+        /**
+         * @return the number of examples in this view
+         */
+        public int size() {
+            return this.rows.length;
+        }
+
+        /**
+         * @return a view containing a range of this view's examples
+         *
+         * @param start		index of the first example to include
+         * @param end		index past the last example to include
+         */
+        public View subView(int start, int end) {
+            return new View(Arrays.copyOfRange(this.rows, start, end));
+        }
+
+        /**
+         * @return an iterable for the batches of this view
+         *
+         * @param batchSize		number of examples per batch
+         * @param normalizer	normalizer to apply to each batch, or NULL if there is none
+         */
+        public Iterable<DataSet> batches(int batchSize, DataNormalization normalizer) {
+            return () -> new BatchIterator(this.rows, batchSize, normalizer);
+        }
+
+    }
+
+    /**
+     * This iterator assembles the batches for a view.  Each batch is newly allocated.
+     */
+    private class BatchIterator implements Iterator<DataSet> {
+
+        /** indices of the examples to return */
+        private int[] rows;
+        /** number of examples per batch */
+        private int batchSize;
+        /** normalizer for the batches, or NULL if there is none */
+        private DataNormalization normalizer;
+        /** position of the next batch's first example */
+        private int pos;
+
+        /**
+         * Create an iterator through a list of examples.
+         *
+         * @param rows			indices of the examples to return
+         * @param batchSize		number of examples per batch
+         * @param normalizer	normalizer for the batches, or NULL if there is none
+         */
+        protected BatchIterator(int[] rows, int batchSize, DataNormalization normalizer) {
+            this.rows = rows;
+            this.batchSize = batchSize;
+            this.normalizer = normalizer;
+            this.pos = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.pos < this.rows.length;
+        }
+
+        @Override
+        public DataSet next() {
+            if (this.pos >= this.rows.length)
+                throw new NoSuchElementException("No more batches in view.");
+            int n = Math.min(this.batchSize, this.rows.length - this.pos);
+            int[] indices = Arrays.copyOfRange(this.rows, this.pos, this.pos + n);
+            this.pos += n;
+            DataSetStore parent = DataSetStore.this;
+            INDArray batchFeatures = Nd4j.pullRows(parent.features, 1, indices)
+                    .reshape('c', EpochCache.batchShape(n, parent.featureShape));
+            INDArray batchLabels = Nd4j.pullRows(parent.labels, 1, indices)
+                    .reshape('c', EpochCache.batchShape(n, parent.labelShape));
+            DataSet retVal = new DataSet(batchFeatures, batchLabels);
+            if (parent.metadata != null) {
+                List<Serializable> batchMeta = new ArrayList<Serializable>(n);
+                for (int idx : indices)
+                    batchMeta.add(parent.metadata.get(idx));
+                retVal.setExampleMetaData(batchMeta);
+            }
+            if (this.normalizer != null)
+                this.normalizer.transform(retVal);
+            return retVal;
+        }
+
+    }
+
+    /**
+     * Create a store from a list of batches.
+     *
+     * @param batches	list of batches to store
+     */
+    private DataSetStore(List<DataSet> batches) {
+        DataSet first = batches.get(0);
+        this.featureShape = EpochCache.exampleShape(first.getFeatures());
+        this.labelShape = EpochCache.exampleShape(first.getLabels());
+        this.size = batches.stream().mapToInt(x -> x.numExamples()).sum();
+        this.features = Nd4j.create(first.getFeatures().dataType(), this.size, EpochCache.rowWidth(this.featureShape));
+        this.labels = Nd4j.create(first.getLabels().dataType(), this.size, EpochCache.rowWidth(this.labelShape));
+        this.metadata = (first.getExampleMetaData() == null ? null : new ArrayList<Serializable>(this.size));
+        int row = 0;
+        for (DataSet batch : batches) {
+            int n = batch.numExamples();
+            EpochCache.copyRows(this.features, row, batch.getFeatures(), n);
+            EpochCache.copyRows(this.labels, row, batch.getLabels(), n);
+            if (this.metadata != null) {
+                List<Serializable> batchMeta = batch.getExampleMetaData();
+                if (batchMeta == null)
+                    this.metadata = null;
+                else
+                    this.metadata.addAll(batchMeta);
+            }
+            row += n;
+        }
+    }
+
+    /**
+     * Read all the batches from a dataset iterator into a store.
+     *
+     * @param reader	iterator through the batches to store
+     *
+     * @return the store, or NULL if the batches cannot be stored
+     */
+    public static DataSetStore load(Iterator<DataSet> reader) {
+        List<DataSet> batches = new ArrayList<DataSet>();
+        boolean ok = true;
+        while (ok && reader.hasNext()) {
+            DataSet batch = reader.next();
+            ok = (batch.getFeaturesMaskArray() == null && batch.getLabelsMaskArray() == null);
+            batches.add(batch);
+        }
+        DataSetStore retVal = null;
+        if (ok && ! batches.isEmpty())
+            retVal = new DataSetStore(batches);
+        return retVal;
+    }
+
+    /**
+     * @return the number of examples stored
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return a view of the specified examples
+     *
+     * @param rows	indices of the examples to include, in order
+     */
+    public View view(int[] rows) {
+        return new View(rows);
+    }
+
+}
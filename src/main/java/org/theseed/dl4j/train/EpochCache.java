@@ -0,0 +1,276 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+/**
+ * This object holds an entire training set in memory for epoch-based training.  All of the features are
+ * packed into a single contiguous matrix with one row per example, and all the labels into a second one.
+ * At the start of each epoch, the examples can be put into a new random order.  The mini-batches are
+ * then assembled by pulling the rows for each batch into a fixed pool of buffers, so no new arrays are
+ * allocated once training is underway.
+ *
+ * The pool contains a fixed number of slots.  A batch returned for a slot remains valid until the
+ * next batch is requested for the same slot, so a caller that needs several batches at once (such as
+ * the parallel trainer) must use a different slot for each.
+ *
+ * Datasets with masks cannot be packed.  In this case, the original batches are kept, and only the
+ * batch order is shuffled.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class EpochCache {
+
+    // FIELDS
+    /** matrix of feature rows, one per example */
+    private INDArray features;
+    /** matrix of label rows, one per example */
+    private INDArray labels;
+    /** shape of the features for a single example */
+    private long[] featureShape;
+    /** shape of the labels for a single example */
+    private long[] labelShape;
+    /** number of examples */
+    private int exampleCount;
+    /** number of examples per batch */
+    private int batchSize;
+    /** number of batches per epoch */
+    private int batchCount;
+    /** current example order */
+    private int[] order;
+    /** buffer pool for full-sized batches */
+    private Slot[] fullSlots;
+    /** buffer pool for the short batch at the end of the epoch */
+    private Slot[] lastSlots;
+    /** original batch list (only used if the batches could not be packed) */
+    private List<DataSet> batches;
+    /** seed for the shuffle randomizer */
+    private long seed;
+
+    /**
+     * This object represents the buffers for one batch in the pool.
+     */
+    private static class Slot {
+
+        /** feature buffer, with one row per example */
+        private INDArray featureRows;
+        /** label buffer, with one row per example */
+        private INDArray labelRows;
+        /** dataset containing views of the buffers in the original shapes */
+        private DataSet batch;
+        /** indices of the examples in the batch */
+        private int[] indices;
+
+        /**
+         * Allocate the buffers for a batch.
+         *
+         * @param size		number of examples in the batch
+         * @param parent	parent epoch cache
+         */
+        private Slot(int size, EpochCache parent) {
+            this.featureRows = Nd4j.create(parent.features.dataType(), size, parent.features.columns());
+            this.labelRows = Nd4j.create(parent.labels.dataType(), size, parent.labels.columns());
+            // Reshaping a new c-order array produces a view, so the dataset sees everything we pull into the rows.
+            INDArray batchFeatures = this.featureRows.reshape('c', batchShape(size, parent.featureShape));
+            INDArray batchLabels = this.labelRows.reshape('c', batchShape(size, parent.labelShape));
+            this.batch = new DataSet(batchFeatures, batchLabels);
+            this.indices = new int[size];
+        }
+
+    }
+
+    /**
+     * Create an epoch cache from a list of training batches.
+     *
+     * @param batches	list of batches to cache; this list is emptied as the batches are packed
+     * @param slots		number of batches that must be available simultaneously
+     * @param seed		seed for shuffling the examples
+     */
+    public EpochCache(List<DataSet> batches, int slots, long seed) {
+        this.seed = seed;
+        this.batchCount = batches.size();
+        this.batches = null;
+        this.features = null;
+        this.labels = null;
+        if (batches.isEmpty()) {
+            this.batchSize = 0;
+            this.exampleCount = 0;
+            this.order = new int[0];
+        } else if (batches.stream().anyMatch(x -> x.getFeaturesMaskArray() != null || x.getLabelsMaskArray() != null)) {
+            // Here we cannot pack the batches, so we keep the list.
+            this.batches = new ArrayList<DataSet>(batches);
+            this.batchSize = batches.get(0).numExamples();
+            this.exampleCount = batches.stream().mapToInt(x -> x.numExamples()).sum();
+            this.order = new int[this.batchCount];
+        } else {
+            this.pack(batches, slots);
+        }
+        // Start with the examples in their original order.
+        this.shuffle(-1);
+    }
+
+    /**
+     * Pack the batches into the feature and label matrices.
+     *
+     * @param batches	list of batches to pack; it will be emptied
+     * @param slots		number of batches that must be available simultaneously
+     */
+    private void pack(List<DataSet> batches, int slots) {
+        DataSet first = batches.get(0);
+        this.batchSize = first.numExamples();
+        this.featureShape = exampleShape(first.getFeatures());
+        this.labelShape = exampleShape(first.getLabels());
+        this.exampleCount = batches.stream().mapToInt(x -> x.numExamples()).sum();
+        this.features = Nd4j.create(first.getFeatures().dataType(), this.exampleCount, rowWidth(this.featureShape));
+        this.labels = Nd4j.create(first.getLabels().dataType(), this.exampleCount, rowWidth(this.labelShape));
+        int row = 0;
+        for (int i = 0; i < this.batchCount; i++) {
+            DataSet batch = batches.get(i);
+            int n = batch.numExamples();
+            if (n > this.batchSize)
+                throw new IllegalArgumentException("Batch " + (i + 1) + " is larger than the first batch.");
+            copyRows(this.features, row, batch.getFeatures(), n);
+            copyRows(this.labels, row, batch.getLabels(), n);
+            row += n;
+            // Release the original batch so its memory can be recovered.
+            batches.set(i, null);
+        }
+        batches.clear();
+        // Compute the real batch count.  This is only different from the list size if there were undersized batches.
+        this.batchCount = (this.exampleCount + this.batchSize - 1) / this.batchSize;
+        // Create the pools.  The slots themselves are allocated when first needed.
+        this.fullSlots = new Slot[slots];
+        this.lastSlots = new Slot[slots];
+        this.order = new int[this.exampleCount];
+    }
+
+    /**
+     * Copy the examples from a batch array into a packed matrix.
+     *
+     * @param target	target matrix, one row per example
+     * @param row		index of the first row to fill
+     * @param source	source array, with the examples along the first dimension
+     * @param n			number of examples in the source array
+     */
+    static void copyRows(INDArray target, int row, INDArray source, int n) {
+        INDArray rows = source.reshape('c', n, target.columns());
+        target.get(NDArrayIndex.interval(row, row + n), NDArrayIndex.all()).assign(rows);
+    }
+
+    /**
+     * @return the shape of a single example in a batch array
+     *
+     * @param array		batch array, with the examples along the first dimension
+     */
+    static long[] exampleShape(INDArray array) {
+        long[] shape = array.shape();
+        return ArrayUtils.subarray(shape, 1, shape.length);
+    }
+
+    /**
+     * @return the number of values in a single example
+     *
+     * @param shape		shape of the example
+     */
+    static long rowWidth(long[] shape) {
+        long retVal = 1;
+        for (long dim : shape)
+            retVal *= dim;
+        return retVal;
+    }
+
+    /**
+     * @return the shape of a batch array
+     *
+     * @param size		number of examples in the batch
+     * @param shape		shape of a single example
+     */
+    static long[] batchShape(int size, long[] shape) {
+        return ArrayUtils.insert(0, shape, (long) size);
+    }
+
+    /**
+     * Compute the example order for an epoch.  Each epoch's order depends only on the seed and the epoch
+     * number, so a training run can be reproduced.
+     *
+     * @param epoch		number of the epoch, or a negative number to restore the original order
+     */
+    public void shuffle(int epoch) {
+        for (int i = 0; i < this.order.length; i++)
+            this.order[i] = i;
+        if (epoch >= 0) {
+            Random rand = new Random(this.seed * 31 + epoch);
+            for (int i = this.order.length - 1; i > 0; i--) {
+                int j = rand.nextInt(i + 1);
+                int temp = this.order[i];
+                this.order[i] = this.order[j];
+                this.order[j] = temp;
+            }
+        }
+    }
+
+    /**
+     * @return the specified batch in the current epoch order
+     *
+     * @param i		index of the batch to return
+     * @param slot	index of the pool slot to use for the batch
+     */
+    public DataSet getBatch(int i, int slot) {
+        DataSet retVal;
+        if (this.batches != null)
+            retVal = this.batches.get(this.order[i]);
+        else {
+            int start = i * this.batchSize;
+            int n = Math.min(this.batchSize, this.exampleCount - start);
+            Slot buffers;
+            if (n == this.batchSize) {
+                if (this.fullSlots[slot] == null)
+                    this.fullSlots[slot] = new Slot(n, this);
+                buffers = this.fullSlots[slot];
+            } else {
+                if (this.lastSlots[slot] == null)
+                    this.lastSlots[slot] = new Slot(n, this);
+                buffers = this.lastSlots[slot];
+            }
+            // Pull the examples for this batch into the buffers.
+            System.arraycopy(this.order, start, buffers.indices, 0, n);
+            Nd4j.pullRows(this.features, buffers.featureRows, 1, buffers.indices);
+            Nd4j.pullRows(this.labels, buffers.labelRows, 1, buffers.indices);
+            retVal = buffers.batch;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the number of batches in an epoch
+     */
+    public int size() {
+        return this.batchCount;
+    }
+
+    /**
+     * @return the number of examples in the cache
+     */
+    public int getExampleCount() {
+        return this.exampleCount;
+    }
+
+    /**
+     * @return TRUE if the examples were packed, FALSE if the original batches are being used
+     */
+    public boolean isPacked() {
+        return (this.features != null);
+    }
+
+}
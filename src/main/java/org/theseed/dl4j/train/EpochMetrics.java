@@ -0,0 +1,315 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.List;
+import java.util.Locale;
+
+import org.bytedeco.javacpp.Pointer;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * This object contains the throughput and resource measurements for a single training event (an epoch or a
+ * batch).  The fit time is measured on the training thread, and the evaluation time is filled in when the
+ * testing-set evaluation is complete.  The resource measurements are the changes since the previous event
+ * (for garbage collection and CPU time) or the levels at the end of the fit (for memory).
+ *
+ * The measurements are taken by the nested Collector class, of which there is one per training run.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class EpochMetrics {
+
+    // FIELDS
+    /** event number (1-based) */
+    private int event;
+    /** number of training examples processed */
+    private long examples;
+    /** number of batches fitted */
+    private int batches;
+    /** nanoseconds spent fitting */
+    private long fitNanos;
+    /** nanoseconds spent evaluating, or 0 if there was no evaluation */
+    private long evalNanos;
+    /** number of garbage collections since the previous event */
+    private long gcCount;
+    /** milliseconds spent in garbage collection since the previous event */
+    private long gcMillis;
+    /** bytes of JVM heap in use */
+    private long heapUsed;
+    /** bytes of JVM heap committed */
+    private long heapCommitted;
+    /** bytes of off-heap memory tracked by JavaCPP */
+    private long offHeap;
+    /** bytes of physical memory used by the process */
+    private long physical;
+    /** bytes of workspace memory allocated on the training thread */
+    private long workspace;
+    /** fraction of available CPU capacity used by the process since the previous event */
+    private double cpuUse;
+    /** maximum number of native threads used by ND4J operations */
+    private int threads;
+
+    /** header line for a metrics file */
+    public static final String HEADER = "event\texamples\tbatches\tfit_ms\teval_ms\texamples_per_sec\tms_per_batch\t" +
+            "gc_count\tgc_ms\theap_used_mb\theap_committed_mb\toff_heap_mb\tphysical_mb\tworkspace_mb\tcpu_use\tthreads";
+
+    /** number of bytes in a megabyte */
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+
+    /**
+     * This object takes the measurements for a training run.  The measurements must be taken on the
+     * training thread.
+     */
+    public static class Collector {
+
+        /** garbage collectors being monitored */
+        private List<GarbageCollectorMXBean> collectors;
+        /** operating system interface for CPU time, or NULL if it is not available */
+        private com.sun.management.OperatingSystemMXBean os;
+        /** number of available processors */
+        private int processors;
+        /** garbage collection count at the previous event */
+        private long lastGcCount;
+        /** garbage collection milliseconds at the previous event */
+        private long lastGcMillis;
+        /** process CPU nanoseconds at the previous event */
+        private long lastCpuNanos;
+        /** wall-clock nanoseconds at the previous event */
+        private long lastWallNanos;
+
+        /**
+         * Create a new metrics collector and take the initial measurements.
+         */
+        public Collector() {
+            this.collectors = ManagementFactory.getGarbageCollectorMXBeans();
+            OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+            if (osBean instanceof com.sun.management.OperatingSystemMXBean)
+                this.os = (com.sun.management.OperatingSystemMXBean) osBean;
+            else
+                this.os = null;
+            this.processors = Runtime.getRuntime().availableProcessors();
+            this.lastGcCount = this.gcCount();
+            this.lastGcMillis = this.gcMillis();
+            this.lastCpuNanos = this.cpuNanos();
+            this.lastWallNanos = System.nanoTime();
+        }
+
+        /**
+         * Measure the resources used by a training event.
+         *
+         * @param event		event number (1-based)
+         * @param examples	number of training examples processed
+         * @param batches	number of batches fitted
+         * @param fitNanos	nanoseconds spent fitting
+         *
+         * @return the metrics for the event
+         */
+        public EpochMetrics capture(int event, long examples, int batches, long fitNanos) {
+            EpochMetrics retVal = new EpochMetrics();
+            retVal.event = event;
+            retVal.examples = examples;
+            retVal.batches = batches;
+            retVal.fitNanos = fitNanos;
+            retVal.evalNanos = 0;
+            // Compute the garbage collection since the last event.
+            long gcCount = this.gcCount();
+            long gcMillis = this.gcMillis();
+            retVal.gcCount = gcCount - this.lastGcCount;
+            retVal.gcMillis = gcMillis - this.lastGcMillis;
+            this.lastGcCount = gcCount;
+            this.lastGcMillis = gcMillis;
+            // Compute the CPU use since the last event.
+            long cpuNanos = this.cpuNanos();
+            long wallNanos = System.nanoTime();
+            long elapsed = wallNanos - this.lastWallNanos;
+            if (cpuNanos < 0 || elapsed <= 0)
+                retVal.cpuUse = Double.NaN;
+            else
+                retVal.cpuUse = (double) (cpuNanos - this.lastCpuNanos) / ((double) elapsed * this.processors);
+            this.lastCpuNanos = cpuNanos;
+            this.lastWallNanos = wallNanos;
+            // Get the memory levels.
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            retVal.heapUsed = heap.getUsed();
+            retVal.heapCommitted = heap.getCommitted();
+            retVal.offHeap = Pointer.totalBytes();
+            retVal.physical = Pointer.physicalBytes();
+            long workspace = 0;
+            for (MemoryWorkspace ws : Nd4j.getWorkspaceManager().getAllWorkspacesForCurrentThread())
+                workspace += ws.getCurrentSize();
+            retVal.workspace = workspace;
+            retVal.threads = Nd4j.getEnvironment().maxThreads();
+            return retVal;
+        }
+
+        /**
+         * @return the total number of garbage collections so far
+         */
+        private long gcCount() {
+            long retVal = 0;
+            for (GarbageCollectorMXBean collector : this.collectors)
+                retVal += Math.max(0, collector.getCollectionCount());
+            return retVal;
+        }
+
+        /**
+         * @return the total number of milliseconds spent in garbage collection so far
+         */
+        private long gcMillis() {
+            long retVal = 0;
+            for (GarbageCollectorMXBean collector : this.collectors)
+                retVal += Math.max(0, collector.getCollectionTime());
+            return retVal;
+        }
+
+        /**
+         * @return the process CPU time in nanoseconds, or -1 if it is not available
+         */
+        private long cpuNanos() {
+            return (this.os == null ? -1 : this.os.getProcessCpuTime());
+        }
+
+    }
+
+    /**
+     * Record the time spent on the testing-set evaluation for this event.
+     *
+     * @param nanos		nanoseconds spent evaluating
+     */
+    public void setEvalNanos(long nanos) {
+        this.evalNanos = nanos;
+    }
+
+    /**
+     * @return the event number (1-based)
+     */
+    public int getEvent() {
+        return this.event;
+    }
+
+    /**
+     * @return the number of training examples processed
+     */
+    public long getExamples() {
+        return this.examples;
+    }
+
+    /**
+     * @return the number of batches fitted
+     */
+    public int getBatches() {
+        return this.batches;
+    }
+
+    /**
+     * @return the number of seconds spent fitting
+     */
+    public double getFitSeconds() {
+        return this.fitNanos / 1e9;
+    }
+
+    /**
+     * @return the number of seconds spent evaluating
+     */
+    public double getEvalSeconds() {
+        return this.evalNanos / 1e9;
+    }
+
+    /**
+     * @return the number of training examples processed per second of fitting
+     */
+    public double getExamplesPerSecond() {
+        return (this.fitNanos > 0 ? this.examples * 1e9 / this.fitNanos : 0.0);
+    }
+
+    /**
+     * @return the number of milliseconds spent fitting each batch
+     */
+    public double getMillisPerBatch() {
+        return (this.batches > 0 ? this.fitNanos / (1e6 * this.batches) : 0.0);
+    }
+
+    /**
+     * @return the number of garbage collections since the previous event
+     */
+    public long getGcCount() {
+        return this.gcCount;
+    }
+
+    /**
+     * @return the number of milliseconds spent in garbage collection since the previous event
+     */
+    public long getGcMillis() {
+        return this.gcMillis;
+    }
+
+    /**
+     * @return the number of bytes of JVM heap in use
+     */
+    public long getHeapUsed() {
+        return this.heapUsed;
+    }
+
+    /**
+     * @return the number of bytes of JVM heap committed
+     */
+    public long getHeapCommitted() {
+        return this.heapCommitted;
+    }
+
+    /**
+     * @return the number of bytes of off-heap memory tracked by JavaCPP
+     */
+    public long getOffHeap() {
+        return this.offHeap;
+    }
+
+    /**
+     * @return the number of bytes of physical memory used by the process
+     */
+    public long getPhysical() {
+        return this.physical;
+    }
+
+    /**
+     * @return the number of bytes of workspace memory allocated on the training thread
+     */
+    public long getWorkspace() {
+        return this.workspace;
+    }
+
+    /**
+     * @return the fraction of available CPU capacity used by the process since the previous event, or NaN
+     * 		   if it is not available
+     */
+    public double getCpuUse() {
+        return this.cpuUse;
+    }
+
+    /**
+     * @return the maximum number of native threads used by ND4J operations
+     */
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * @return a tab-delimited line for a metrics file, in the order of the header
+     */
+    public String toLine() {
+        return String.format(Locale.ROOT, "%d\t%d\t%d\t%.1f\t%.1f\t%.1f\t%.3f\t%d\t%d\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\t%.3f\t%d",
+                this.event, this.examples, this.batches, this.fitNanos / 1e6, this.evalNanos / 1e6,
+                this.getExamplesPerSecond(), this.getMillisPerBatch(), this.gcCount, this.gcMillis,
+                this.heapUsed / MEGABYTE, this.heapCommitted / MEGABYTE, this.offHeap / MEGABYTE,
+                this.physical / MEGABYTE, this.workspace / MEGABYTE, this.cpuUse, this.threads);
+    }
+
+}
@@ -16,6 +16,14 @@ import org.slf4j.Logger;
  * and goes back to do this again multiple times.  It provides better results for smaller datasets.
  * The best-scoring model is saved.
  *
+ * The testing-set evaluation can be limited to every N epochs or to a minimum number of seconds apart, and
+ * the training can be limited to a maximum number of minutes.  The time limit is checked at the end of each
+ * epoch, and the final epoch is always evaluated.  The model parameters are checked for divergence every N
+ * epochs, and a diverged model stops the training immediately.
+ *
+ * The training examples are packed into an epoch cache.  If shuffling is requested, the examples are
+ * put into a new random order at the start of each epoch.
+ *
  * @author Bruce Parrello
  *
  */
@@ -40,42 +48,175 @@ public class EpochTrainer extends Trainer {
         for (batchesRead = 0; batchesRead < this.processor.getMaxBatches() && reader.hasNext(); batchesRead++)
             batches.add(reader.next());
         String process = batchesRead + " batches";
-        // Initialize the old score for bounce detection.
-        double oldScore = Double.MAX_VALUE;
-        // Do one epoch per iteration.
-        while (runStats.getEventCount() < processor.getIterations() && ! runStats.isErrorStop() &&
-                runStats.getUselessIterations() < processor.getEarlyStop()) {
-            runStats.event();
-            long start = System.currentTimeMillis();
-            for (DataSet batch : batches) {
-                model.fit(batch);
+        EpochCache cache = new EpochCache(batches, this.getSlotCount(), this.processor.getSeed());
+        if (! cache.isPacked())
+            log.warn("Training data has masks and cannot be packed.  Only the batch order will be shuffled.");
+        log.info("{} training examples cached in {} batches.", cache.getExampleCount(), cache.size());
+        // Do any setup required by the subclass.
+        this.startTraining(model, cache);
+        this.startClock(runStats);
+        try {
+            int lag = this.processor.getEvalLag();
+            if (lag <= 0) {
+                // Initialize the old score for bounce detection.
+                double oldScore = this.getStartScore();
+                boolean timeUp = false;
+                // Do one epoch per iteration.
+                while (runStats.getEventCount() < processor.getIterations() && ! runStats.isErrorStop() &&
+                        runStats.getUselessIterations() < processor.getEarlyStop() && ! timeUp) {
+                    runStats.event();
+                    int epoch = runStats.getEventCount();
+                    EpochMetrics metrics = this.runEpoch(model, cache, epoch);
+                    if (this.checkHealth(model, runStats, epoch)) {
+                        // The parameters have diverged, so there is no point in evaluating.
+                        this.reportMetrics(metrics, monitor);
+                    } else {
+                        timeUp = this.checkTimeLimit(runStats, epoch);
+                        boolean last = (timeUp || epoch >= processor.getIterations());
+                        oldScore = this.checkEpoch(model, oldScore, metrics, last, testingSet, runStats, monitor, process);
+                        this.checkpoint(model, runStats, oldScore, Checkpointer.captureRandom(), false);
+                    }
+                }
+                this.checkpoint(model, runStats, oldScore, Checkpointer.captureRandom(), true);
+            } else {
+                // Here the evaluations run in the background while we train the next epoch.
+                log.info("Evaluations will run in the background, at most {} epochs behind training.", lag);
+                try (AsyncEvaluator evaluator = new AsyncEvaluator(this, model, lag, this.getStartScore(), testingSet,
+                        runStats, monitor, process)) {
+                    int epochs = runStats.getEventCount();
+                    boolean timeUp = false;
+                    while (epochs < processor.getIterations() && ! evaluator.isStopped() && ! timeUp) {
+                        epochs++;
+                        EpochMetrics metrics = this.runEpoch(model, cache, epochs);
+                        // A diverged epoch is not submitted.  The evaluator will see the error stop.
+                        if (this.checkHealth(model, runStats, epochs))
+                            break;
+                        timeUp = this.checkTimeLimit(runStats, epochs);
+                        evaluator.submit(model, metrics, timeUp || epochs >= processor.getIterations());
+                    }
+                    evaluator.finish();
+                }
             }
-            double seconds = (double) (System.currentTimeMillis() - start) / 1000;
-            double newScore = model.score();
-            boolean saved = false;
-             if (newScore > oldScore) {
-                runStats.bounce();
-                log.info("Score after {} epochs is {}.  {} seconds to process {}.", runStats.getEventCount(),
-                        newScore, seconds, process);
-                runStats.uselessIteration();
-            } else try {
+        } finally {
+            this.finishTraining();
+        }
+        log.info("Best model was epoch {} with score {}.  {} models saved.", runStats.getBestEvent(),
+                runStats.getBestScore(), runStats.getSaveCount());
+    }
+
+    /**
+     * Train the model for one epoch.
+     *
+     * @param model		the model to train
+     * @param cache		cache of training batches
+     * @param epoch		number of the epoch (1-based)
+     *
+     * @return the throughput and resource metrics for the epoch
+     *
+     * @throws InterruptedException
+     */
+    private EpochMetrics runEpoch(MultiLayerNetwork model, EpochCache cache, int epoch) throws InterruptedException {
+        long start = System.nanoTime();
+        if (this.processor.isShuffle())
+            cache.shuffle(epoch);
+        this.trainEpoch(model, cache);
+        return this.captureMetrics(epoch, cache.getExampleCount(), cache.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Evaluate the model after an epoch, and save it if it is the best so far.  The caller must already
+     * have recorded the epoch in the run statistics.  Only score bounces and evaluated epochs that do not
+     * improve the model count as useless iterations, so an epoch whose evaluation is skipped does not use up
+     * any of the early-stop limit.  If a bounce brings the run to the early-stop limit, the model is evaluated
+     * anyway, so the run never stops on a model state that has not been tested.
+     *
+     * @param model			model to evaluate
+     * @param oldScore		score after the previous epoch
+     * @param metrics		throughput and resource metrics for the epoch; the evaluation time will be filled in
+     * @param last			TRUE if this is the last epoch of the training run
+     * @param testingSet	testing set for evaluation
+     * @param runStats		a RunStats object describing our progress and success
+     * @param monitor		ITrainReporter for progress monitoring
+     * @param process		description of the training processed per epoch
+     *
+     * @return the score after this epoch
+     */
+    protected double checkEpoch(MultiLayerNetwork model, double oldScore, EpochMetrics metrics, boolean last,
+            DataSet testingSet, RunStats runStats, ITrainReporter monitor, String process) {
+        double seconds = metrics.getFitSeconds();
+        double newScore = model.score();
+        boolean saved = false;
+        boolean bounced = (newScore > oldScore);
+        if (bounced) {
+            runStats.bounce();
+            runStats.uselessIteration();
+        }
+        boolean stopping = (runStats.getUselessIterations() >= this.processor.getEarlyStop());
+        if (bounced && ! stopping) {
+            log.info("Score after {} epochs is {}.  {} seconds to process {}.", runStats.getEventCount(),
+                    newScore, seconds, process);
+        } else if (! this.isEvalDue(runStats.getEventCount(), last || stopping)) {
+            // Here we are skipping the testing-set evaluation for this epoch.
+            log.info("Score after {} epochs is {}.  {} seconds to process {}.  Evaluation skipped.",
+                    runStats.getEventCount(), newScore, seconds, process);
+        } else {
+            this.evalDone(runStats.getEventCount());
+            long evalStart = System.nanoTime();
+            try {
                 saved = runStats.checkModel(model, testingSet, this.processor, seconds, this.eventsName(), process);
             } catch (IllegalStateException e) {
                 // Here we had underflow in the evaluation.  Fake a score bounce.
                 log.warn("IllegalStateException: {}", e.toString());
                 runStats.error();
             }
-            oldScore = newScore;
-            // Force a stop if we have overflow or underflow.
-            if (! Double.isFinite(newScore)) {
-                log.error("Overflow/Underflow in gradient processing.  Model abandoned.");
-                runStats.error();
-            } else {
-                monitor.displayEpoch(runStats.getEventCount(), newScore, runStats.getRating(), saved);
-            }
+            metrics.setEvalNanos(System.nanoTime() - evalStart);
         }
-        log.info("Best model was epoch {} with score {}.  {} models saved.", runStats.getBestEvent(),
-                runStats.getBestScore(), runStats.getSaveCount());
+        // Force a stop if we have overflow or underflow.
+        if (! Double.isFinite(newScore)) {
+            log.error("Overflow/Underflow in gradient processing.  Model abandoned.");
+            runStats.error();
+        } else {
+            monitor.displayEpoch(runStats.getEventCount(), newScore, runStats.getRating(), saved);
+        }
+        this.reportMetrics(metrics, monitor);
+        return newScore;
+    }
+
+    /**
+     * @return the number of training batches that must be available simultaneously
+     */
+    protected int getSlotCount() {
+        return 1;
+    }
+
+    /**
+     * Prepare for training.  The default is to do nothing.
+     *
+     * @param model		the model to train
+     * @param batches	cache of training batches
+     */
+    protected void startTraining(MultiLayerNetwork model, EpochCache batches) {
+    }
+
+    /**
+     * Run a single epoch of training.
+     *
+     * @param model		the model to train
+     * @param batches	cache of training batches
+     *
+     * @throws InterruptedException
+     */
+    protected void trainEpoch(MultiLayerNetwork model, EpochCache batches) throws InterruptedException {
+        final int n = batches.size();
+        for (int i = 0; i < n; i++) {
+            model.fit(batches.getBatch(i, 0));
+        }
+    }
+
+    /**
+     * Clean up after training.  The default is to do nothing.
+     */
+    protected void finishTraining() {
     }
 
 
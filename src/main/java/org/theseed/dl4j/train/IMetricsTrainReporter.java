@@ -0,0 +1,23 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+/**
+ * This interface extends the training reporter to receive throughput and resource measurements.  The
+ * trainers check for this interface and, if the reporter supports it, pass it the metrics for each
+ * epoch or batch after the call to displayEpoch.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public interface IMetricsTrainReporter extends ITrainReporter {
+
+    /**
+     * Display the throughput and resource measurements for a training event.
+     *
+     * @param metrics	metrics for the event
+     */
+    public void displayMetrics(EpochMetrics metrics);
+
+}
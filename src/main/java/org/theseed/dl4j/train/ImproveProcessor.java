@@ -72,8 +72,8 @@ public class ImproveProcessor extends LearningProcessor implements ICommand {
     @Override
     public void run() {
         try {
-            // Read in the model and the normalizer.
-            MultiLayerNetwork model = readModel();
+            // Read in the model and the normalizer.  We clone the model, since we will be training it.
+            MultiLayerNetwork model = readModel().clone();
             this.reader.setNormalizer(this.getNormalizer());
             // Now  we train the model.
             Trainer trainer = Trainer.create(this.method, this, log);
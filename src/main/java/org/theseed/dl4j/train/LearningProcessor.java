@@ -4,6 +4,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -26,12 +30,23 @@ import org.theseed.stats.Shuffler;
 
 public class LearningProcessor extends ModelProcessor {
 
+    /** default number of training iterations */
+    public static final int DEFAULT_ITERATIONS = 1000;
+
     // FIELDS
 
     /** normalization object */
     private DataNormalization normalizer;
     /** training results */
     private RunStats results;
+    /** checkpoint manager for the current training run */
+    private Checkpointer checkpointer;
+    /** shared metrics file, or NULL if no training run is active or metrics are off */
+    private MetricsFile metricsOut;
+    /** identifier of the current training run in the metrics file */
+    private String metricsRun;
+    /** preloaded training examples to use instead of the reader, or NULL to use the reader */
+    private DataSetStore.View trainingView;
     /** logging facility */
     protected static Logger log = LoggerFactory.getLogger(LearningProcessor.class);
 
@@ -53,13 +68,55 @@ public class LearningProcessor extends ModelProcessor {
     @Option(name = "--earlyStop", aliases = {
             "--early" }, metaVar = "100", usage = "early stop max useless iterations (0 to turn off)")
     protected int earlyStop;
+    /** number of model replicas for parallel training */
+    @Option(name = "--workers", metaVar = "4", usage = "number of model replicas for PARALLEL training")
+    protected int workers;
+    /** number of batches per replica between parameter averagings */
+    @Option(name = "--avgFreq", metaVar = "5", usage = "batches per replica between parameter averagings for PARALLEL training")
+    protected int avgFreq;
+    /** number of batches to read ahead for batch training */
+    @Option(name = "--prefetch", metaVar = "4", usage = "number of batches to read ahead in the background for BATCH training (0 to turn off)")
+    protected int prefetch;
+    /** TRUE to shuffle the training examples before each epoch */
+    @Option(name = "--shuffle", usage = "shuffle the training examples before each epoch for EPOCH and PARALLEL training")
+    protected boolean shuffle;
+    /** maximum number of epochs the background evaluation can lag behind training, or 0 for foreground evaluation */
+    @Option(name = "--evalLag", metaVar = "2", usage = "maximum number of epochs background evaluation can lag behind EPOCH or PARALLEL training (0 to evaluate in the foreground)")
+    protected int evalLag;
+    /** number of epochs or batches between checkpoints, or 0 for no checkpoints */
+    @Option(name = "--checkpoint", metaVar = "10", usage = "number of epochs or batches between training checkpoints (0 to turn off)")
+    protected int checkpointInterval;
+    /** TRUE to resume training from the checkpoint file */
+    @Option(name = "--resume", usage = "resume training from the checkpoint file")
+    protected boolean resume;
+    /** checkpoint file name */
+    @Option(name = "--checkpointFile", metaVar = "check.ser", usage = "checkpoint file name (default is \"checkpoint.ser\" or \"checkpoint-TAG.ser\" in the model directory)")
+    protected File checkpointFile;
+    /** maximum number of minutes to train, or 0 for no limit */
+    @Option(name = "--maxTime", metaVar = "60", usage = "maximum number of minutes to train (0 for no limit)")
+    protected int maxTime;
+    /** minimum number of epochs or batches between testing-set evaluations */
+    @Option(name = "--evalEvery", metaVar = "5", usage = "minimum number of epochs or batches between testing-set evaluations")
+    protected int evalEvery;
+    /** minimum number of seconds between testing-set evaluations */
+    @Option(name = "--evalSeconds", metaVar = "300", usage = "minimum number of seconds between testing-set evaluations")
+    protected int evalSeconds;
+    /** number of epochs or batches between parameter health checks, or 0 for none */
+    @Option(name = "--healthCheck", metaVar = "10", usage = "number of epochs or batches between parameter divergence checks (0 for none)")
+    protected int healthCheck;
+    /** TRUE to append the per-event metrics to the metrics file */
+    @Option(name = "--metrics", usage = "append throughput and resource metrics for each epoch or batch to the metrics file")
+    protected boolean metrics;
+    /** label to distinguish this training run from others running at the same time, or NULL for none */
+    @Option(name = "--runTag", metaVar = "fold3", usage = "label to distinguish this run in the metrics file and the default checkpoint file name")
+    protected String runTag;
 
     /**
      * Set the defaults and perform initialization for the parameters.
      */
     public void setDefaults() {
         this.help = false;
-        this.iterations = 1000;
+        this.iterations = DEFAULT_ITERATIONS;
         this.batchSize = 500;
         this.testSize = 2000;
         this.maxBatches = Integer.MAX_VALUE;
@@ -69,6 +126,23 @@ public class LearningProcessor extends ModelProcessor {
         this.channelCount = 1;
         this.method = Type.EPOCH;
         this.earlyStop = 200;
+        this.workers = 2;
+        this.avgFreq = 1;
+        this.prefetch = 2;
+        this.shuffle = false;
+        this.evalLag = 0;
+        this.checkpointInterval = 0;
+        this.resume = false;
+        this.checkpointFile = null;
+        this.checkpointer = null;
+        this.metricsOut = null;
+        this.metrics = false;
+        this.runTag = null;
+        this.trainingView = null;
+        this.maxTime = 0;
+        this.evalEvery = 1;
+        this.evalSeconds = 0;
+        this.healthCheck = 1;
         this.modelName = null;
         this.comment = null;
         this.idCol = null;
@@ -91,12 +165,62 @@ public class LearningProcessor extends ModelProcessor {
     public void trainModel(MultiLayerNetwork model, RunStats runStats, Trainer trainer, ITrainReporter progressMonitor) throws IOException, InterruptedException {
         this.reader.setBatchSize(this.batchSize);
         long start = System.currentTimeMillis();
-        log.info("Starting trainer.");
-        trainer.trainModel(model, this.reader, getTestingSet(), runStats, progressMonitor);
+        // If the training examples were preloaded or the training data cache is on, the batches may already
+        // be in memory.
+        Iterator<DataSet> batches = this.reader;
+        if (this.trainingView != null)
+            batches = this.trainingView.batches(this.batchSize, this.normalizer).iterator();
+        else if (TrainingDataCache.isEnabled())
+            batches = TrainingDataCache.get(this.getDataKey(), this.reader, this.maxBatches).iterator();
+        // The default checkpoint file includes the run tag, so that runs sharing a model directory do not
+        // overwrite each other's checkpoints.
+        File checkFile = this.checkpointFile;
+        if (checkFile == null)
+            checkFile = new File(this.modelDir, (this.runTag == null ? "checkpoint.ser" : "checkpoint-" + this.runTag + ".ser"));
+        // If metrics are requested, the per-event metrics are appended to the metrics file.  Each run is
+        // identified by its start time and its run tag.
+        try (Checkpointer checkpoints = new Checkpointer(checkFile, this.checkpointInterval);
+                MetricsFile metricsFile = (this.metrics ? MetricsFile.open(new File(this.modelDir, this.getMetricsName())) : null)) {
+            this.metricsRun = DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS));
+            if (this.runTag != null)
+                this.metricsRun += "/" + this.runTag;
+            this.metricsOut = metricsFile;
+            this.checkpointer = checkpoints;
+            if (this.resume)
+                checkpoints.restore(model, runStats);
+            log.info("Starting trainer.");
+            trainer.trainModel(model, batches, getTestingSet(), runStats, progressMonitor);
+        } finally {
+            this.metricsOut = null;
+        }
         runStats.setDuration(DurationFormatUtils.formatDuration(System.currentTimeMillis() - start, "mm:ss"));
         this.results = runStats;
     }
 
+    /**
+     * Specify preloaded training examples.  These will be used in place of the training examples from the
+     * reader.  The testing set is still taken from the reader.
+     *
+     * @param trainingView	view of the training examples, or NULL to use the reader
+     */
+    public void setTrainingView(DataSetStore.View trainingView) {
+        this.trainingView = trainingView;
+    }
+
+    /**
+     * Compute the data key for this processor's training set.  Two processors with the same data key read
+     * the same training batches, so they can share them in the training data cache.
+     *
+     * @return a string identifying the training file and all the parameters that affect how it is read
+     */
+    protected String getDataKey() {
+        File inFile = this.trainingFile;
+        String fileKey = (inFile == null ? "" : inFile.getAbsolutePath() + "@" + inFile.lastModified() + "/" + inFile.length());
+        return String.join("\t", fileKey, this.modelDir.getAbsolutePath(), this.metaCols,
+                String.valueOf(this.idCol), Boolean.toString(this.isChannelMode()), Integer.toString(this.channelCount),
+                Integer.toString(this.testSize), Integer.toString(this.batchSize), Integer.toString(this.maxBatches));
+    }
+
     /**
      * If a model was created, save it to the model directory.
      *
@@ -204,30 +328,15 @@ public class LearningProcessor extends ModelProcessor {
             for (String pType : params.keySet()) {
                 INDArray pValue = params.get(pType);
                 String shape = ArrayUtils.toString(pValue.shape());
-                double min = Double.MAX_VALUE;
-                double max = -Double.MAX_VALUE;
-                double total = 0.0;
-                long count = 0;
-                long badCount = 0;
-                for (long i = 0; i < pValue.length(); i++) {
-                    double value = pValue.getDouble(i);
-                    if (! Double.isFinite(value))
-                        badCount++;
-                    else {
-                        if (min > value) min = value;
-                        if (max < value) max = value;
-                        total += value;
-                        count++;
-                    }
-                }
+                ParameterHealth health = new ParameterHealth(pValue);
                 retVal.append("     %-12s: %-20s", pType, shape);
-                if (count == 0)
+                if (health.getGoodCount() == 0)
                     retVal.appendln(" has no finite parameters");
                 else {
                     retVal.append(" min = %12.4g, mean = %12.4g, max = %12.4g",
-                            min, total / count, max);
-                    if (badCount > 0)
-                        retVal.appendln(", %d infinite values", badCount);
+                            health.getMin(), health.getMean(), health.getMax());
+                    if (health.getBadCount() > 0)
+                        retVal.appendln(", %d infinite values", health.getBadCount());
                     else
                         retVal.appendNewLine();
                 }
@@ -269,6 +378,83 @@ public class LearningProcessor extends ModelProcessor {
         return this.earlyStop;
     }
 
+    /**
+     * @return the number of model replicas for parallel training
+     */
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    /**
+     * @return the number of batches each replica processes between parameter averagings
+     */
+    public int getAvgFreq() {
+        return this.avgFreq;
+    }
+
+    /**
+     * @return the number of batches to read ahead during batch training
+     */
+    public int getPrefetch() {
+        return this.prefetch;
+    }
+
+    /**
+     * @return TRUE if the training examples should be shuffled before each epoch
+     */
+    public boolean isShuffle() {
+        return this.shuffle;
+    }
+
+    /**
+     * @return the maximum number of epochs background evaluation can lag behind training, or 0 for foreground evaluation
+     */
+    public int getEvalLag() {
+        return this.evalLag;
+    }
+
+    /**
+     * @return the maximum number of minutes to train, or 0 for no limit
+     */
+    public int getMaxTime() {
+        return this.maxTime;
+    }
+
+    /**
+     * @return the minimum number of epochs or batches between testing-set evaluations
+     */
+    public int getEvalEvery() {
+        return this.evalEvery;
+    }
+
+    /**
+     * @return the minimum number of seconds between testing-set evaluations
+     */
+    public int getEvalSeconds() {
+        return this.evalSeconds;
+    }
+
+    /**
+     * @return the number of epochs or batches between parameter health checks, or 0 for none
+     */
+    public int getHealthCheck() {
+        return this.healthCheck;
+    }
+
+    /**
+     * @return the checkpoint manager for the current training run, or NULL if training has not started
+     */
+    public Checkpointer getCheckpointer() {
+        return this.checkpointer;
+    }
+
+    /**
+     * @return the random number seed
+     */
+    public int getSeed() {
+        return this.seed;
+    }
+
     /**
      * @return the testingSet
      */
@@ -301,7 +487,35 @@ public class LearningProcessor extends ModelProcessor {
     }
 
     /**
-     * @return the model for this model directory
+     * @return the metrics file base name
+     */
+    protected String getMetricsName() {
+        return "metrics.tbl";
+    }
+
+    /**
+     * Write the metrics for a training event to the metrics file, if metrics are turned on.  This may be called
+     * from the evaluation thread, so it is synchronized.
+     *
+     * @param metrics	metrics for the event
+     */
+    public synchronized void recordMetrics(EpochMetrics metrics) {
+        if (this.metricsOut != null)
+            this.metricsOut.write(this.metricsRun, metrics);
+    }
+
+    /**
+     * Specify a label to distinguish this training run from others running at the same time.
+     *
+     * @param runTag	label for the run, or NULL for none
+     */
+    public void setRunTag(String runTag) {
+        this.runTag = runTag;
+    }
+
+    /**
+     * @return the model for this model directory; it may be shared through the model cache, so it must be
+     * 		   cloned before it is modified
      *
      * @throws IOException
      */
@@ -309,10 +523,9 @@ public class LearningProcessor extends ModelProcessor {
         if (this.modelName == null)
             this.modelName = new File(this.modelDir, "model.ser");
         log.info("Reading model from {}.", this.modelName);
-        MultiLayerNetwork model = ModelSerializer.restoreMultiLayerNetwork(this.modelName, false);
-        DataNormalization normalizer = ModelSerializer.restoreNormalizerFromFile(this.modelName);
-        this.normalizer = normalizer;
-        return model;
+        ModelCache.Entry modelData = ModelCache.get(this.modelName);
+        this.normalizer = modelData.getNormalizer();
+        return modelData.getModel();
     }
 
     @Override
@@ -342,14 +555,8 @@ public class LearningProcessor extends ModelProcessor {
         for (org.deeplearning4j.nn.api.Layer layer : layers) {
             Map<String, INDArray> params = layer.paramTable();
             for (String pType : params.keySet()) {
-                INDArray pValue = params.get(pType);
-                long count = 0;
-                for (long i = 0; i < pValue.length(); i++) {
-                    double value = pValue.getDouble(i);
-                    if (Double.isFinite(value))
-                        count++;
-                }
-                if (count == 0)
+                ParameterHealth health = new ParameterHealth(params.get(pType));
+                if (health.getGoodCount() == 0)
                     retVal = false;
             }
         }
@@ -0,0 +1,77 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * This object divides the native math library's threads evenly among a group of worker threads.  Without the
+ * division, each worker's math library would try to use every processor, and the workers would thrash.  The
+ * thread limits are process-wide, so they also apply to anything else using ND4J in the same process until
+ * this object is closed, at which point the original limits are restored.  If there is only one worker, the
+ * limits are left alone.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MathThreads implements AutoCloseable {
+
+    // FIELDS
+    /** original environment thread limit */
+    private int oldThreads;
+    /** original BLAS thread limit */
+    private int oldBlasThreads;
+    /** number of math threads for each worker */
+    private int share;
+    /** TRUE if the limits were changed */
+    private boolean changed;
+
+    /**
+     * Divide the math threads among the workers.
+     *
+     * @param workers	number of workers that will run at the same time
+     */
+    public MathThreads(int workers) {
+        this.oldThreads = Nd4j.getEnvironment().maxThreads();
+        this.oldBlasThreads = Nd4j.factory().blas().getMaxThreads();
+        this.changed = false;
+        if (workers <= 1)
+            this.share = this.oldThreads;
+        else {
+            this.share = Math.max(1, Runtime.getRuntime().availableProcessors() / workers);
+            this.changed = true;
+            try {
+                Nd4j.getEnvironment().setMaxThreads(this.share);
+                Nd4j.factory().blas().setMaxThreads(this.share);
+            } catch (RuntimeException | Error e) {
+                // Insure a partial change does not outlive the failure.
+                this.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return the number of math threads for each worker
+     */
+    public int getShare() {
+        return this.share;
+    }
+
+    /**
+     * Restore the original thread limits.
+     */
+    @Override
+    public void close() {
+        if (this.changed) {
+            this.changed = false;
+            try {
+                Nd4j.getEnvironment().setMaxThreads(this.oldThreads);
+            } finally {
+                Nd4j.factory().blas().setMaxThreads(this.oldBlasThreads);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This object manages a metrics file.  Training processors in the same JVM that use the same metrics file share
+ * a single writer, so the header is written exactly once and the lines from parallel training runs do not
+ * interleave.  Each processor opens the file at the start of a training run and closes it at the end; the file
+ * is closed for real when the last user is done with it.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class MetricsFile implements AutoCloseable {
+
+    // FIELDS
+    /** canonical path of the metrics file */
+    private String key;
+    /** output stream for the file */
+    private PrintWriter writer;
+    /** number of training runs currently using the file */
+    private int users;
+
+    /** map of canonical file paths to open metrics files */
+    private static final Map<String, MetricsFile> OPEN_FILES = new HashMap<String, MetricsFile>();
+
+    /**
+     * Open a metrics file for appending.  If the file is new or empty, the header is written.
+     *
+     * @param key			canonical path of the file
+     * @param metricsFile	file to open
+     *
+     * @throws IOException
+     */
+    private MetricsFile(String key, File metricsFile) throws IOException {
+        this.key = key;
+        boolean newFile = (metricsFile.length() == 0);
+        this.writer = new PrintWriter(new FileWriter(metricsFile, true));
+        if (newFile) {
+            this.writer.println("run\t" + EpochMetrics.HEADER);
+            this.writer.flush();
+        }
+        this.users = 0;
+    }
+
+    /**
+     * Get the shared writer for a metrics file.  Each call must be matched by a call to close().
+     *
+     * @param metricsFile	metrics file to use
+     *
+     * @return the shared metrics file object
+     *
+     * @throws IOException
+     */
+    public static MetricsFile open(File metricsFile) throws IOException {
+        String key = metricsFile.getCanonicalPath();
+        synchronized (OPEN_FILES) {
+            MetricsFile retVal = OPEN_FILES.get(key);
+            if (retVal == null) {
+                retVal = new MetricsFile(key, metricsFile);
+                OPEN_FILES.put(key, retVal);
+            }
+            retVal.users++;
+            return retVal;
+        }
+    }
+
+    /**
+     * Write the metrics for a training event.
+     *
+     * @param run		identifier of the training run
+     * @param metrics	metrics for the event
+     */
+    public synchronized void write(String run, EpochMetrics metrics) {
+        this.writer.println(run + "\t" + metrics.toLine());
+        this.writer.flush();
+    }
+
+    /**
+     * Release this training run's use of the file.
+     */
+    @Override
+    public void close() {
+        synchronized (OPEN_FILES) {
+            this.users--;
+            if (this.users <= 0) {
+                OPEN_FILES.remove(this.key);
+                synchronized (this) {
+                    this.writer.close();
+                }
+            }
+        }
+    }
+
+}
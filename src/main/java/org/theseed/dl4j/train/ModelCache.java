@@ -0,0 +1,267 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.nd4j.common.primitives.Pair;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.preprocessor.DataNormalization;
+import org.nd4j.linalg.dataset.api.preprocessor.Normalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This is an in-memory cache of deserialized models, shared by all the model readers in the JVM.  The network and
+ * its normalizer are always read from the model file in a single pass.  If the cache is enabled, the results are
+ * kept, so that a tool reading the same model more than once gets it without going back to the file.
+ *
+ * The cache is keyed on the model file's path, and each entry remembers the file's modification time and length.
+ * If the file has changed since it was read, it is read again.
+ *
+ * The cache is disabled until a memory budget is set, either by the "--modelCache" option of the prediction
+ * commands or by a call to setBudget() from a program that makes predictions repeatedly.  The size of an entry is estimated from the size of the
+ * network parameters.  When the total exceeds the budget, the least recently used models are dropped.  If two
+ * threads ask for the same model at the same time, one reads it and the other waits.
+ *
+ * The cached models are shared, so callers must not modify them.  Network output is synchronized, so a model can be
+ * used for predictions on several threads, but a caller that wants to train the model must clone it first.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ModelCache {
+
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(ModelCache.class);
+
+    // FIELDS
+    /** maximum number of bytes of models to keep */
+    private static long budget = 0;
+    /** estimated number of bytes of models currently kept */
+    private static long totalBytes = 0;
+    /** map of model file paths to cache slots, in access order */
+    private static final Map<String, Slot> CACHE = new LinkedHashMap<String, Slot>(16, 0.75f, true);
+
+    /**
+     * This object contains a model and its normalizer.
+     */
+    public static class Entry {
+
+        /** neural network */
+        private MultiLayerNetwork model;
+        /** normalizer for the input, or NULL if there is none */
+        private DataNormalization normalizer;
+        /** estimated size of the model in bytes */
+        private long bytes;
+
+        /**
+         * Read a model and its normalizer from a model file.
+         *
+         * @param modelFile		file containing the model
+         *
+         * @throws IOException
+         */
+        protected Entry(File modelFile) throws IOException {
+            Pair<MultiLayerNetwork, Normalizer> modelData =
+                    ModelSerializer.restoreMultiLayerNetworkAndNormalizer(modelFile, false);
+            this.model = modelData.getFirst();
+            this.normalizer = (DataNormalization) modelData.getSecond();
+            INDArray params = this.model.params();
+            this.bytes = params.length() * params.dataType().width();
+        }
+
+        /**
+         * @return the neural network
+         */
+        public MultiLayerNetwork getModel() {
+            return this.model;
+        }
+
+        /**
+         * @return the normalizer for the input, or NULL if there is none
+         */
+        public DataNormalization getNormalizer() {
+            return this.normalizer;
+        }
+
+        /**
+         * @return the estimated size of the model in bytes
+         */
+        public long getBytes() {
+            return this.bytes;
+        }
+
+    }
+
+    /**
+     * This object holds the cache entry for a single model file version.  It is loaded by the first thread that
+     * asks for it.
+     */
+    private static class Slot {
+
+        /** modification time of the model file */
+        private long modified;
+        /** length of the model file */
+        private long length;
+        /** cached model, or NULL if it has not been read yet */
+        private Entry entry;
+        /** TRUE if the model's size has been added to the total */
+        private boolean counted;
+
+        /**
+         * Create an empty slot for a model file.
+         *
+         * @param modelFile		model file to be cached
+         */
+        protected Slot(File modelFile) {
+            this.modified = modelFile.lastModified();
+            this.length = modelFile.length();
+            this.entry = null;
+            this.counted = false;
+        }
+
+        /**
+         * @return TRUE if this slot is for the current version of the model file
+         *
+         * @param modelFile		model file to check
+         */
+        protected boolean isCurrent(File modelFile) {
+            return this.modified == modelFile.lastModified() && this.length == modelFile.length();
+        }
+
+        /**
+         * @return the cached model, reading it if necessary
+         *
+         * @param modelFile		file containing the model
+         *
+         * @throws IOException
+         */
+        protected synchronized Entry load(File modelFile) throws IOException {
+            if (this.entry != null)
+                log.info("Using cached model from {}.", modelFile);
+            else
+                this.entry = new Entry(modelFile);
+            return this.entry;
+        }
+
+    }
+
+    /**
+     * Specify the maximum memory to use for cached models.  A budget of 0 disables the cache and empties it.
+     *
+     * @param newBudget		maximum number of bytes of models to keep in memory
+     */
+    public static void setBudget(long newBudget) {
+        synchronized (CACHE) {
+            budget = newBudget;
+            if (budget <= 0) {
+                CACHE.clear();
+                totalBytes = 0;
+            } else
+                trim();
+        }
+    }
+
+    /**
+     * @return TRUE if the cache is enabled
+     */
+    public static boolean isEnabled() {
+        synchronized (CACHE) {
+            return budget > 0;
+        }
+    }
+
+    /**
+     * @return the number of models currently cached
+     */
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * Get a model and its normalizer.  If the cache is disabled, or the model is not in the cache, it is read from
+     * the model file.
+     *
+     * @param modelFile		file containing the model
+     *
+     * @return the model and its normalizer
+     *
+     * @throws IOException
+     */
+    public static Entry get(File modelFile) throws IOException {
+        Entry retVal;
+        if (! isEnabled())
+            retVal = new Entry(modelFile);
+        else {
+            String key = modelFile.getCanonicalPath();
+            Slot slot;
+            synchronized (CACHE) {
+                slot = CACHE.get(key);
+                if (slot == null || ! slot.isCurrent(modelFile)) {
+                    if (slot != null)
+                        drop(slot);
+                    slot = new Slot(modelFile);
+                    CACHE.put(key, slot);
+                }
+            }
+            // The load is outside the map lock, so that other models can be retrieved while this one is read.
+            try {
+                retVal = slot.load(modelFile);
+            } catch (IOException e) {
+                // Insure a failed load does not stay in the cache.
+                synchronized (CACHE) {
+                    CACHE.remove(key, slot);
+                }
+                throw e;
+            }
+            synchronized (CACHE) {
+                if (! slot.counted && CACHE.get(key) == slot) {
+                    slot.counted = true;
+                    totalBytes += retVal.getBytes();
+                    trim();
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Remove the counted size of a slot from the total.  The caller must hold the map lock.
+     *
+     * @param slot		slot being removed from the cache
+     */
+    private static void drop(Slot slot) {
+        if (slot.counted) {
+            totalBytes -= slot.entry.getBytes();
+            slot.counted = false;
+        }
+    }
+
+    /**
+     * Drop the least recently used models until the cache is within its budget.  Models still being read are
+     * skipped.  The caller must hold the map lock.
+     */
+    private static void trim() {
+        Iterator<Map.Entry<String, Slot>> iter = CACHE.entrySet().iterator();
+        while (totalBytes > budget && iter.hasNext()) {
+            Map.Entry<String, Slot> cached = iter.next();
+            Slot slot = cached.getValue();
+            if (slot.counted) {
+                log.info("Dropping cached model {}.", cached.getKey());
+                drop(slot);
+                iter.remove();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import org.deeplearning4j.nn.api.Updater;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * This object holds a snapshot of a model's state.  Rather than cloning the whole network each time a
+ * snapshot is taken, it copies the flattened parameters and updater state into buffers that are allocated
+ * once and reused.  A network is only built from the snapshot when it is requested, and that network is
+ * kept until the next snapshot is taken.
+ *
+ * All the snapshots must come from models with the same configuration.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ModelSnapshot {
+
+    // FIELDS
+    /** model to return if no snapshot has been taken */
+    private MultiLayerNetwork original;
+    /** configuration of the model */
+    private MultiLayerConfiguration config;
+    /** buffer holding the snapshot parameters */
+    private INDArray params;
+    /** buffer holding the snapshot updater state, or NULL if there is none */
+    private INDArray updaterState;
+    /** iteration count at the time of the snapshot */
+    private int iterationCount;
+    /** epoch count at the time of the snapshot */
+    private int epochCount;
+    /** score at the time of the snapshot */
+    private double score;
+    /** network built from the current snapshot, or NULL if none has been built */
+    private MultiLayerNetwork model;
+    /** TRUE if a snapshot has been taken */
+    private boolean saved;
+
+    /**
+     * Create an empty snapshot.
+     *
+     * @param original	model to return if no snapshot is taken
+     */
+    public ModelSnapshot(MultiLayerNetwork original) {
+        this.original = original;
+        this.config = null;
+        this.params = null;
+        this.updaterState = null;
+        this.model = null;
+        this.saved = false;
+    }
+
+    /**
+     * Take a snapshot of the specified model.
+     *
+     * @param source	model whose state is to be saved
+     */
+    public void save(MultiLayerNetwork source) {
+        INDArray sourceParams = source.params();
+        if (this.params == null) {
+            // This is the first snapshot, so we allocate the buffers.
+            this.config = source.getLayerWiseConfigurations().clone();
+            this.params = sourceParams.ulike();
+        }
+        this.params.assign(sourceParams);
+        INDArray sourceState = getUpdaterState(source, false);
+        if (sourceState == null)
+            this.updaterState = null;
+        else {
+            if (this.updaterState == null)
+                this.updaterState = sourceState.ulike();
+            this.updaterState.assign(sourceState);
+        }
+        this.iterationCount = source.getIterationCount();
+        this.epochCount = source.getEpochCount();
+        this.score = source.score();
+        // Any network built from the old snapshot is now obsolete.
+        this.model = null;
+        this.saved = true;
+    }
+
+    /**
+     * Copy another snapshot into this one.
+     *
+     * @param other		snapshot to copy
+     */
+    public void copyFrom(ModelSnapshot other) {
+        if (! other.saved)
+            this.saved = false;
+        else {
+            if (this.params == null) {
+                this.config = other.config;
+                this.params = other.params.ulike();
+            }
+            this.params.assign(other.params);
+            if (other.updaterState == null)
+                this.updaterState = null;
+            else {
+                if (this.updaterState == null)
+                    this.updaterState = other.updaterState.ulike();
+                this.updaterState.assign(other.updaterState);
+            }
+            this.iterationCount = other.iterationCount;
+            this.epochCount = other.epochCount;
+            this.score = other.score;
+            this.model = null;
+            this.saved = true;
+        }
+    }
+
+    /**
+     * Load a snapshot from saved arrays.  The arrays become the property of this object.
+     *
+     * @param template			model with the same configuration as the snapshot
+     * @param params			array of parameters
+     * @param updaterState		array of updater state values, or NULL if there is none
+     * @param iterationCount	iteration count at the time of the snapshot
+     * @param epochCount		epoch count at the time of the snapshot
+     * @param score				score at the time of the snapshot
+     */
+    public void load(MultiLayerNetwork template, INDArray params, INDArray updaterState, int iterationCount,
+            int epochCount, double score) {
+        this.config = template.getLayerWiseConfigurations().clone();
+        this.params = params;
+        this.updaterState = updaterState;
+        this.iterationCount = iterationCount;
+        this.epochCount = epochCount;
+        this.score = score;
+        this.model = null;
+        this.saved = true;
+    }
+
+    /**
+     * Copy the state of one model into another model with the same configuration.
+     *
+     * @param source	source model
+     * @param target	target model
+     */
+    public static void copyState(MultiLayerNetwork source, MultiLayerNetwork target) {
+        target.setParams(source.params());
+        INDArray sourceState = getUpdaterState(source, false);
+        if (sourceState != null)
+            getUpdaterState(target, true).assign(sourceState);
+        target.setIterationCount(source.getIterationCount());
+        target.setEpochCount(source.getEpochCount());
+        target.setScore(source.score());
+    }
+
+    /**
+     * @return the updater state array for a model, or NULL if it has none
+     *
+     * @param model		model of interest
+     * @param create	TRUE to create the updater if it does not exist yet
+     */
+    private static INDArray getUpdaterState(MultiLayerNetwork model, boolean create) {
+        INDArray retVal = null;
+        Updater updater = model.getUpdater(create);
+        if (updater != null)
+            retVal = updater.getStateViewArray();
+        return retVal;
+    }
+
+    /**
+     * @return a network containing the state from the snapshot
+     */
+    public MultiLayerNetwork getModel() {
+        MultiLayerNetwork retVal;
+        if (! this.saved)
+            retVal = this.original;
+        else {
+            if (this.model == null) {
+                // Here we must build the network from the snapshot.
+                this.model = new MultiLayerNetwork(this.config.clone());
+                this.model.init(this.params, true);
+                if (this.updaterState != null)
+                    getUpdaterState(this.model, true).assign(this.updaterState);
+                this.model.setIterationCount(this.iterationCount);
+                this.model.setEpochCount(this.epochCount);
+                this.model.setScore(this.score);
+            }
+            retVal = this.model;
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if a snapshot has been taken
+     */
+    public boolean isSaved() {
+        return this.saved;
+    }
+
+    /**
+     * @return the parameter buffer
+     */
+    protected INDArray getParams() {
+        return this.params;
+    }
+
+    /**
+     * @return the updater state buffer, or NULL if there is none
+     */
+    protected INDArray getUpdaterState() {
+        return this.updaterState;
+    }
+
+    /**
+     * @return the iteration count at the time of the snapshot
+     */
+    protected int getIterationCount() {
+        return this.iterationCount;
+    }
+
+    /**
+     * @return the epoch count at the time of the snapshot
+     */
+    protected int getEpochCount() {
+        return this.epochCount;
+    }
+
+    /**
+     * @return the score at the time of the snapshot
+     */
+    protected double getScore() {
+        return this.score;
+    }
+
+}
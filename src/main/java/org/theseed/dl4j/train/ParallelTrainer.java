@@ -0,0 +1,151 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deeplearning4j.nn.api.Updater;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.slf4j.Logger;
+
+/**
+ * The parallel trainer is a data-parallel version of the epoch trainer.  It keeps multiple replicas of the
+ * model, each of which is fed different batches from the in-memory batch list on its own thread.  After
+ * each replica has processed a fixed number of batches, the parameters and updater states of the replicas
+ * are averaged and the average is propagated back to all of them.  The first replica is the model itself,
+ * so the results are evaluated and reported exactly as they are for the epoch trainer.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ParallelTrainer extends EpochTrainer {
+
+    // FIELDS
+    /** array of model replicas; the first is the model being trained */
+    private MultiLayerNetwork[] replicas;
+    /** thread pool for running the replicas */
+    private ExecutorService workerPool;
+    /** number of batches each replica processes between averagings */
+    private int avgFreq;
+
+    /**
+     * Construct a parallel trainer.
+     *
+     * @param processor		TrainingProcessor that created this model
+     * @param log			log to use for messages
+     */
+    public ParallelTrainer(LearningProcessor processor, Logger log) {
+        super(processor, log);
+    }
+
+    @Override
+    protected int getSlotCount() {
+        // Every batch in a round is in use at the same time.
+        return this.processor.getWorkers() * this.processor.getAvgFreq();
+    }
+
+    @Override
+    protected void startTraining(MultiLayerNetwork model, EpochCache batches) {
+        int workers = this.processor.getWorkers();
+        this.avgFreq = this.processor.getAvgFreq();
+        log.info("Creating {} model replicas.  Parameters will be averaged every {} batches.", workers, this.avgFreq);
+        this.replicas = new MultiLayerNetwork[workers];
+        this.replicas[0] = model;
+        for (int i = 1; i < workers; i++)
+            this.replicas[i] = model.clone();
+        this.workerPool = Executors.newFixedThreadPool(workers);
+    }
+
+    @Override
+    protected void trainEpoch(MultiLayerNetwork model, EpochCache batches) throws InterruptedException {
+        final int workers = this.replicas.length;
+        // Each round feeds "avgFreq" batches to each replica and then averages.
+        final int roundSize = workers * this.avgFreq;
+        for (int roundStart = 0; roundStart < batches.size(); roundStart += roundSize) {
+            int roundEnd = Math.min(batches.size(), roundStart + roundSize);
+            // Distribute the batches in this round among the replicas.
+            List<Callable<Double>> tasks = new ArrayList<Callable<Double>>(workers);
+            for (int i = 0; i < workers && roundStart + i < roundEnd; i++) {
+                final MultiLayerNetwork replica = this.replicas[i];
+                final List<DataSet> myBatches = new ArrayList<DataSet>(this.avgFreq);
+                for (int j = roundStart + i; j < roundEnd; j += workers)
+                    myBatches.add(batches.getBatch(j, j - roundStart));
+                tasks.add(() -> {
+                    for (DataSet batch : myBatches)
+                        replica.fit(batch);
+                    return replica.score();
+                });
+            }
+            // Run the replicas and collect the scores.
+            double scoreTotal = 0.0;
+            try {
+                for (Future<Double> result : this.workerPool.invokeAll(tasks))
+                    scoreTotal += result.get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Error in training replica: " + e.getCause().toString(), e.getCause());
+            }
+            this.average(tasks.size());
+            model.setScore(scoreTotal / tasks.size());
+        }
+    }
+
+    /**
+     * Average the parameters and updater states of the active replicas and propagate the result to all of them.
+     *
+     * @param active	number of replicas that were trained in the most recent round
+     */
+    private void average(int active) {
+        if (active > 1) {
+            List<INDArray> params = new ArrayList<INDArray>(active);
+            List<INDArray> states = new ArrayList<INDArray>(active);
+            for (int i = 0; i < active; i++) {
+                params.add(this.replicas[i].params());
+                INDArray state = getUpdaterState(this.replicas[i]);
+                if (state != null)
+                    states.add(state);
+            }
+            Nd4j.averageAndPropagate(null, params);
+            if (states.size() == active)
+                Nd4j.averageAndPropagate(null, states);
+        }
+        // Replicas that sat out the round pick up the new average from the main model.
+        INDArray modelParams = this.replicas[0].params();
+        INDArray modelState = getUpdaterState(this.replicas[0]);
+        for (int i = active; i < this.replicas.length; i++) {
+            this.replicas[i].setParams(modelParams);
+            INDArray state = getUpdaterState(this.replicas[i]);
+            if (modelState != null && state != null)
+                state.assign(modelState);
+        }
+    }
+
+    /**
+     * @return the updater state of a replica, or NULL if it has none
+     *
+     * @param replica	replica of interest
+     */
+    private static INDArray getUpdaterState(MultiLayerNetwork replica) {
+        Updater updater = replica.getUpdater();
+        return (updater == null ? null : updater.getStateViewArray());
+    }
+
+    @Override
+    protected void finishTraining() {
+        if (this.workerPool != null) {
+            this.workerPool.shutdownNow();
+            this.workerPool = null;
+        }
+        this.replicas = null;
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.transforms.bool.IsFinite;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * This object summarizes the health of a parameter array:  the number of values, the number of values that are
+ * not finite (NaN or infinite), and the minimum, mean, and maximum of the finite values.  The scan is done with
+ * native reductions, so it does not cross into native code once per value.  In the normal case, where all the
+ * values are finite, it costs three reductions over the array.  Only when a reduction comes back non-finite do
+ * we count the bad values and copy the array out to compute the statistics without them.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class ParameterHealth {
+
+    // FIELDS
+    /** number of values scanned */
+    private long count;
+    /** number of non-finite values */
+    private long badCount;
+    /** minimum finite value */
+    private double min;
+    /** mean finite value */
+    private double mean;
+    /** maximum finite value */
+    private double max;
+
+    /**
+     * Scan a parameter array.
+     *
+     * @param params	parameter array to scan
+     */
+    public ParameterHealth(INDArray params) {
+        this.count = params.length();
+        this.badCount = 0;
+        if (this.count == 0) {
+            this.min = Double.NaN;
+            this.mean = Double.NaN;
+            this.max = Double.NaN;
+        } else {
+            // A single non-finite value poisons all three reductions, so if they are all finite, the
+            // array is healthy.
+            this.min = params.minNumber().doubleValue();
+            this.mean = params.meanNumber().doubleValue();
+            this.max = params.maxNumber().doubleValue();
+            if (! Double.isFinite(this.min) || ! Double.isFinite(this.mean) || ! Double.isFinite(this.max))
+                this.scanBadValues(params);
+        }
+    }
+
+    /**
+     * Count the non-finite values and compute the statistics for the finite ones.  This is only done when
+     * the native reductions indicate a problem (usually non-finite values, but possibly a sum that overflowed),
+     * so we are not concerned about speed.  The array is copied out in a single operation and scanned in Java.
+     *
+     * @param params	parameter array to scan
+     */
+    private void scanBadValues(INDArray params) {
+        INDArray finite = Nd4j.getExecutioner().exec(new IsFinite(params,
+                Nd4j.createUninitialized(DataType.BOOL, params.shape())));
+        this.badCount = this.count - finite.castTo(DataType.LONG).sumNumber().longValue();
+        double[] values = params.ravel().toDoubleVector();
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double total = 0.0;
+        for (double value : values) {
+            if (Double.isFinite(value)) {
+                if (min > value) min = value;
+                if (max < value) max = value;
+                total += value;
+            }
+        }
+        long good = this.count - this.badCount;
+        if (good == 0) {
+            this.min = Double.NaN;
+            this.mean = Double.NaN;
+            this.max = Double.NaN;
+        } else {
+            this.min = min;
+            this.mean = total / good;
+            this.max = max;
+        }
+    }
+
+    /**
+     * @return the number of values scanned
+     */
+    public long getCount() {
+        return this.count;
+    }
+
+    /**
+     * @return the number of values that are not finite
+     */
+    public long getBadCount() {
+        return this.badCount;
+    }
+
+    /**
+     * @return the number of finite values
+     */
+    public long getGoodCount() {
+        return this.count - this.badCount;
+    }
+
+    /**
+     * @return the minimum finite value, or NaN if there are none
+     */
+    public double getMin() {
+        return this.min;
+    }
+
+    /**
+     * @return the mean finite value, or NaN if there are none
+     */
+    public double getMean() {
+        return this.mean;
+    }
+
+    /**
+     * @return the maximum finite value, or NaN if there are none
+     */
+    public double getMax() {
+        return this.max;
+    }
+
+    /**
+     * @return TRUE if all of the values are finite
+     */
+    public boolean isHealthy() {
+        return this.badCount == 0;
+    }
+
+}
@@ -0,0 +1,267 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.util.Arrays;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.BooleanIndexing;
+import org.nd4j.linalg.indexing.conditions.Conditions;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+/**
+ * This object computes the regression metrics used to evaluate a model against a testing set.  The metrics
+ * are computed for each label column using whole-array operations, so there is no element-by-element access
+ * to the arrays.  The work buffers are kept between calls, so a single object can be used repeatedly
+ * during training without reallocating them.
+ *
+ * The metrics computed are mean absolute error, mean squared error, Pearson correlation, coefficient of
+ * determination, pseudo-accuracy (the fraction of outputs on the same side of the bound as the expected
+ * value), and bound-accuracy (the fraction of outputs that round to the expected value).  The results
+ * are the same as the ones computed by RegressionEvaluation and the old element-by-element loops.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class RegressionMetrics {
+
+    // FIELDS
+    /** threshold for pseudo-accuracy */
+    private double bound;
+    /** first work buffer */
+    private INDArray work1;
+    /** second work buffer */
+    private INDArray work2;
+    /** third work buffer */
+    private INDArray work3;
+    /** number of rows in the most recent evaluation */
+    private long rows;
+    /** mean absolute error for each column */
+    private double[] mae;
+    /** mean squared error for each column */
+    private double[] mse;
+    /** Pearson correlation for each column */
+    private double[] pearson;
+    /** coefficient of determination for each column */
+    private double[] rSquared;
+    /** pseudo-accuracy for each column */
+    private double[] pseudoAccuracy;
+    /** bound-accuracy for each column */
+    private double[] boundAccuracy;
+
+    /**
+     * Create a new regression metrics engine.
+     *
+     * @param bound		threshold for pseudo-accuracy
+     */
+    public RegressionMetrics(double bound) {
+        this.bound = bound;
+        this.work1 = null;
+        this.work2 = null;
+        this.work3 = null;
+        this.rows = 0;
+    }
+
+    /**
+     * Compute the metrics for a set of model outputs.
+     *
+     * @param expect	expected values, one row per example and one column per label
+     * @param output	output values, in the same shape as the expected values
+     *
+     * @return this object, for chaining
+     */
+    public RegressionMetrics compute(INDArray expect, INDArray output) {
+        this.rows = expect.rows();
+        long cols = expect.columns();
+        // Insure we have buffers of the proper shape.  Double precision keeps the rounding exact.
+        if (this.work1 == null || this.work1.rows() != this.rows || this.work1.columns() != cols) {
+            this.work1 = Nd4j.create(DataType.DOUBLE, this.rows, cols);
+            this.work2 = Nd4j.create(DataType.DOUBLE, this.rows, cols);
+            this.work3 = Nd4j.create(DataType.DOUBLE, this.rows, cols);
+        }
+        final double n = this.rows;
+        INDArray out = this.work1.assign(output);
+        INDArray exp = this.work2.assign(expect);
+        // Compute the error sums.  The squares of the absolute errors are the squared errors.
+        INDArray err = this.work3.assign(out).subi(exp);
+        Transforms.abs(err, false);
+        double[] absErrors = err.sum(0).toDoubleVector();
+        err.muli(err);
+        double[] sqErrors = err.sum(0).toDoubleVector();
+        // Center both arrays on their means to get the correlation sums.
+        out.subiRowVector(out.mean(0));
+        exp.subiRowVector(exp.mean(0));
+        double[] crossSums = this.work3.assign(out).muli(exp).sum(0).toDoubleVector();
+        double[] expSums = exp.muli(exp).sum(0).toDoubleVector();
+        double[] outSums = out.muli(out).sum(0).toDoubleVector();
+        // Count the pseudo-accuracy misses.  Each array is converted to 1 where the value is at least the bound
+        // and 0 elsewhere.  Non-numbers are treated as below the bound.
+        this.flagBound(this.work1.assign(output));
+        this.flagBound(this.work2.assign(expect));
+        double[] pseudoMisses = Transforms.abs(this.work1.subi(this.work2), false).sum(0).toDoubleVector();
+        // Count the bound-accuracy misses.  Math.round converts a non-number to 0, and otherwise is floor(x + 0.5).
+        out = this.work1.assign(output);
+        BooleanIndexing.replaceWhere(out, 0.0, Conditions.isNan());
+        Transforms.floor(out.addi(0.5), false);
+        out.subi(this.work2.assign(expect));
+        Transforms.abs(out, false);
+        BooleanIndexing.replaceWhere(out, 1.0, Conditions.isNan());
+        Transforms.sign(out, false);
+        double[] boundMisses = out.sum(0).toDoubleVector();
+        // Now compute the per-column metrics.
+        int width = (int) cols;
+        if (this.mae == null || this.mae.length != width) {
+            this.mae = new double[width];
+            this.mse = new double[width];
+            this.pearson = new double[width];
+            this.rSquared = new double[width];
+            this.pseudoAccuracy = new double[width];
+            this.boundAccuracy = new double[width];
+        }
+        for (int i = 0; i < width; i++) {
+            this.mae[i] = absErrors[i] / n;
+            this.mse[i] = sqErrors[i] / n;
+            this.pearson[i] = crossSums[i] / (Math.sqrt(expSums[i]) * Math.sqrt(outSums[i]));
+            this.rSquared[i] = 1.0 - sqErrors[i] / expSums[i];
+            this.pseudoAccuracy[i] = (n - pseudoMisses[i]) / n;
+            this.boundAccuracy[i] = (n - boundMisses[i]) / n;
+        }
+        return this;
+    }
+
+    /**
+     * Convert the values in a work buffer to 1 if they are at or above the bound and 0 otherwise.
+     *
+     * @param buffer	work buffer to convert
+     */
+    private void flagBound(INDArray buffer) {
+        // A non-number is never at or above the bound, so we make it negative infinity.
+        BooleanIndexing.replaceWhere(buffer, Double.NEGATIVE_INFINITY, Conditions.isNan());
+        // The sign is -1, 0, or 1.  Adding 1 and halving gives 0, 0.5, or 1, and the ceiling gives 0, 1, or 1.
+        Transforms.sign(buffer.subi(this.bound), false);
+        Transforms.ceil(buffer.addi(1.0).divi(2.0), false);
+    }
+
+    /**
+     * @return the mean absolute error for a column
+     *
+     * @param col	index of the column of interest
+     */
+    public double meanAbsoluteError(int col) {
+        return this.mae[col];
+    }
+
+    /**
+     * @return the mean squared error for a column
+     *
+     * @param col	index of the column of interest
+     */
+    public double meanSquaredError(int col) {
+        return this.mse[col];
+    }
+
+    /**
+     * @return the Pearson correlation for a column
+     *
+     * @param col	index of the column of interest
+     */
+    public double pearsonCorrelation(int col) {
+        return this.pearson[col];
+    }
+
+    /**
+     * @return the coefficient of determination for a column
+     *
+     * @param col	index of the column of interest
+     */
+    public double rSquared(int col) {
+        return this.rSquared[col];
+    }
+
+    /**
+     * @return the pseudo-accuracy for a column
+     *
+     * @param col	index of the column of interest
+     */
+    public double pseudoAccuracy(int col) {
+        return this.pseudoAccuracy[col];
+    }
+
+    /**
+     * @return the bound-accuracy for a column
+     *
+     * @param col	index of the column of interest
+     */
+    public double boundAccuracy(int col) {
+        return this.boundAccuracy[col];
+    }
+
+    /**
+     * @return the mean absolute error averaged over all columns
+     */
+    public double averageMeanAbsoluteError() {
+        return average(this.mae);
+    }
+
+    /**
+     * @return the mean squared error averaged over all columns
+     */
+    public double averageMeanSquaredError() {
+        return average(this.mse);
+    }
+
+    /**
+     * @return the Pearson correlation averaged over all columns
+     */
+    public double averagePearsonCorrelation() {
+        return average(this.pearson);
+    }
+
+    /**
+     * @return the coefficient of determination averaged over all columns
+     */
+    public double averageRSquared() {
+        return average(this.rSquared);
+    }
+
+    /**
+     * @return the pseudo-accuracy over all columns
+     */
+    public double averagePseudoAccuracy() {
+        return average(this.pseudoAccuracy);
+    }
+
+    /**
+     * @return the bound-accuracy over all columns
+     */
+    public double averageBoundAccuracy() {
+        return average(this.boundAccuracy);
+    }
+
+    /**
+     * @return the number of examples in the most recent evaluation
+     */
+    public long getRows() {
+        return this.rows;
+    }
+
+    /**
+     * @return the threshold for pseudo-accuracy
+     */
+    public double getBound() {
+        return this.bound;
+    }
+
+    /**
+     * @return the mean of an array of values
+     *
+     * @param values	array of values to average
+     */
+    private static double average(double[] values) {
+        return Arrays.stream(values).sum() / values.length;
+    }
+
+}
@@ -19,7 +19,6 @@ import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
-import org.nd4j.evaluation.regression.RegressionEvaluation;
 import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.theseed.basic.ICommand;
@@ -61,6 +60,9 @@ import org.theseed.stats.RegressionStatistics;
  *
  * The standard output will contain evaluations and logs.  A snapshot of the input parameters and the
  * evaluation results will be appended to the file "trials.log".
+ * If "--metrics" is specified, throughput and resource measurements for each epoch or batch (fit and
+ * evaluation times, examples per second, garbage collection, heap and native memory, and CPU use) will be
+ * appended to the tab-delimited file "metrics.tbl".
  *
  * The following command-line options are supported.
  *
@@ -105,8 +107,8 @@ import org.theseed.stats.RegressionStatistics;
  * 				layers
  * --init		activation type for the input layer; the default is HARDTANH
  * --comment	a comment to display at the beginning of the trial log
- * --method		training strategy to use-- epoch (small datasets) or batch (large datasets); the default
- * 				is EPOCH
+ * --method		training strategy to use-- epoch (small datasets), parallel (small datasets on many cores),
+ * 				or batch (large datasets); the default is EPOCH
  * --batch		use batch normalization before the hidden layers
  * --start		weight initialization algorithm; the default is XAVIER
  * --updater	update algorithm to use; the default is ADAM
@@ -120,6 +122,33 @@ import org.theseed.stats.RegressionStatistics;
  * --earlyStop	maximum number of iterations allowed with no accuracy improvement; if this
  * 				limit is exceeded, the run is terminated; a value of 0 causes the value
  * 				to be set impossibly high; the default is 200
+ * --workers	number of model replicas to train in parallel for training method PARALLEL; the default is 2
+ * --avgFreq	number of batches each replica processes before the replica parameters are averaged in
+ * 				training method PARALLEL; the default is 1
+ * --prefetch	number of batches to read ahead in a background thread for training method BATCH; 0 turns
+ * 				this off; the default is 2
+ * --shuffle	if specified, the training examples will be put in a new random order before each epoch
+ * 				in training methods EPOCH and PARALLEL
+ * --evalLag	if nonzero, the testing-set evaluation after each epoch will be performed in a background
+ * 				thread while the next epoch trains in training methods EPOCH and PARALLEL; the value is the
+ * 				maximum number of epochs the evaluation can fall behind; the default is 0 (evaluate in the
+ * 				foreground)
+ * --checkpoint	number of epochs (or batches, for training method BATCH) between training checkpoints;
+ * 				the default is 0 (no checkpoints)
+ * --checkpointFile	name of the checkpoint file; the default is "checkpoint.ser" in the model directory, or
+ * 				"checkpoint-TAG.ser" if a run tag is specified
+ * --resume		if specified, training will resume from the state in the checkpoint file
+ * --maxTime	maximum number of minutes to train; training stops cleanly at the end of the first epoch
+ * 				or batch after the limit is reached; the default is 0 (no limit)
+ * --evalEvery	minimum number of epochs or batches between testing-set evaluations; epochs that are not
+ * 				evaluated do not count toward the early-stop limit, which must be larger than this value;
+ * 				the default is 1
+ * --evalSeconds	minimum number of seconds between testing-set evaluations; the default is 0
+ * --healthCheck	number of epochs or batches between checks of the model parameters for divergence; a
+ * 				diverged model stops training immediately; the default is 1 (0 to check only at the end)
+ * --metrics	if specified, throughput and resource metrics are appended to "metrics.tbl"
+ * --runTag		label to distinguish runs sharing the model directory; it is added to the run identifier in
+ * 				the metrics file and to the default checkpoint file name; the default is none
  *
  * For a convolution input layer, the following additional parameters are used.
  *
@@ -217,34 +246,27 @@ public class RegressionTrainingProcessor extends TrainingProcessor implements IC
      */
     private void regressionReport(MultiLayerNetwork model, TextStringBuilder buffer, RunStats runStats) {
         // Evaluate the model.
-        RegressionEvaluation eval = runStats.scoreModel(model, getTestingSet(), getLabels());
+        RegressionMetrics eval = runStats.scoreModel(model, getTestingSet(), getLabels());
         // Write the header.
         buffer.appendln("%n%-21s %11s %11s %11s %11s %11s %11s %11s %11s", "label", "MAE", "MSE", "Pearson's", "R-Squared", "Pseudo-Acc", "Round-Acc", "inner_MAE", "IQR");
         buffer.appendln(StringUtils.repeat('-', 117));
-        // We need the output and the testing set labels for the pseudo-accuracy.
+        // We need the output and the testing set labels for the quartile-related stats.
         INDArray output = runStats.getOutput();
         INDArray expect = this.getTestingSet().getLabels();
+        int rows = (int) eval.getRows();
         // Write the stats for each column.
         for (int i = 0; i < this.getLabels().size(); i++) {
             String label = this.getLabels().get(i);
             // These are used to compute the quartile-related stats.
-            RegressionStatistics rStats = new RegressionStatistics(this.testSize);
-            // These will track the pseudo-accuracies.
-            int goodCount = 0;
-            int closeCount = 0;
-            // Loop through the data;
-            for (int r = 0; r < this.testSize; r++) {
-                double e = expect.getDouble(r, i);
-                double o = output.getDouble(r, i);
-                rStats.add(e, o);
-                boolean eDiff = (e >= this.bound);
-                boolean oDiff = (o >= this.bound);
-                if (eDiff == oDiff) goodCount++;
-                if (Math.round(o) == e) closeCount++;
-            }
+            RegressionStatistics rStats = new RegressionStatistics(rows);
+            double[] eCol = expect.getColumn(i).toDoubleVector();
+            double[] oCol = output.getColumn(i).toDoubleVector();
+            for (int r = 0; r < rows; r++)
+                rStats.add(eCol[r], oCol[r]);
             rStats.finish();
-            String accuracy = ModelProcessor.formatRatio(goodCount, this.testSize);
-            String boundAcc = ModelProcessor.formatRatio(closeCount, this.testSize);
+            // The pseudo-accuracies come from the metrics object.
+            String accuracy = ModelProcessor.formatRatio((int) Math.round(eval.pseudoAccuracy(i) * rows), rows);
+            String boundAcc = ModelProcessor.formatRatio((int) Math.round(eval.boundAccuracy(i) * rows), rows);
             // Now we compute the clean average error.
             buffer.appendln("%-21s %11.4f %11.4f %11.4f %11.4f %11s %11s %11.4f %11.4f", label, eval.meanAbsoluteError(i),
                     eval.meanSquaredError(i), eval.pearsonCorrelation(i), eval.rSquared(i), accuracy, boundAcc,
@@ -4,7 +4,6 @@ import java.util.List;
 
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.nd4j.evaluation.classification.Evaluation;
-import org.nd4j.evaluation.regression.RegressionEvaluation;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.slf4j.Logger;
@@ -52,14 +51,20 @@ abstract public class RunStats {
     /** TRUE if we stopped because of an error, else FALSE */
     private boolean errorStop;
 
+    /** TRUE if we stopped because the time limit was reached, else FALSE */
+    private boolean timeStop;
+
+    /** TRUE if we stopped because the model parameters diverged, else FALSE */
+    private boolean diverged;
+
     /** number of times the score bounced */
     private int bounceCount;
 
     /** number of training events */
     private int eventCount;
 
-    /** saved copy of the best model found */
-    private MultiLayerNetwork bestModel;
+    /** snapshot of the best model found */
+    private ModelSnapshot bestModel;
 
     /** number of times the model was saved */
     private int saveCount;
@@ -91,6 +96,9 @@ abstract public class RunStats {
     /** output from best model */
     protected INDArray output;
 
+    /** regression metrics engine, or NULL for a classification model */
+    private RegressionMetrics metrics;
+
     /**
      * Construct a blank run tracker.
      *
@@ -98,15 +106,29 @@ abstract public class RunStats {
      */
     protected RunStats(MultiLayerNetwork model) {
         this.errorStop = false;
+        this.timeStop = false;
+        this.diverged = false;
         this.bounceCount = 0;
         this.eventCount = 0;
-        this.bestModel = model;
+        this.bestModel = new ModelSnapshot(model);
         this.bestEvent = 0;
         this.saveCount = 0;
         this.bestAccuracy = -Double.MAX_VALUE;
         this.uselessEvents = 0;
         this.bestScore = Double.MAX_VALUE;
         this.duration = "00:00";
+        this.metrics = null;
+    }
+
+    /**
+     * Construct a blank run tracker for a regression model.
+     *
+     * @param model     model whose runs are to be tracked
+     * @param processor regression training processor for the model
+     */
+    protected RunStats(MultiLayerNetwork model, RegressionTrainingProcessor processor) {
+        this(model);
+        this.metrics = new RegressionMetrics(processor.getBound());
     }
 
     /**
@@ -190,6 +212,31 @@ abstract public class RunStats {
         return errorStop;
     }
 
+    /** Record that the time limit was reached. */
+    public void timeLimit() {
+        this.timeStop = true;
+    }
+
+    /**
+     * @return the time-stop flag
+     */
+    public boolean isTimeStop() {
+        return this.timeStop;
+    }
+
+    /** Record that the model parameters diverged.  This is also an error stop. */
+    public void diverge() {
+        this.diverged = true;
+        this.errorStop = true;
+    }
+
+    /**
+     * @return TRUE if training stopped because the model parameters diverged
+     */
+    public boolean isDiverged() {
+        return this.diverged;
+    }
+
     /**
      * @return the number of score bounces
      */
@@ -215,7 +262,7 @@ abstract public class RunStats {
      * @return the best model found
      */
     public MultiLayerNetwork getBestModel() {
-        return bestModel;
+        return this.bestModel.getModel();
     }
 
     /**
@@ -256,12 +303,13 @@ abstract public class RunStats {
     }
 
     /**
-     * Store the new best model.
+     * Store the new best model.  The model's state is copied into a snapshot, so the model itself
+     * can continue training.
      *
      * @param bestModel the new best model
      */
     public void setBestModel(MultiLayerNetwork bestModel) {
-        this.bestModel = bestModel;
+        this.bestModel.save(bestModel);
         this.bestAccuracy = this.newAccuracy;
         this.bestScore = this.newScore;
         this.bestEvent = this.eventCount;
@@ -269,6 +317,46 @@ abstract public class RunStats {
         this.uselessEvents = 0;
     }
 
+    /**
+     * @return the snapshot holding the best model
+     */
+    protected ModelSnapshot getBestSnapshot() {
+        return this.bestModel;
+    }
+
+    /**
+     * Store the run statistics in a checkpoint state object.
+     *
+     * @param state		checkpoint state to update
+     */
+    protected void saveState(Checkpointer.State state) {
+        state.errorStop = this.errorStop;
+        state.bounceCount = this.bounceCount;
+        state.eventCount = this.eventCount;
+        state.saveCount = this.saveCount;
+        state.bestEvent = this.bestEvent;
+        state.bestAccuracy = this.bestAccuracy;
+        state.uselessEvents = this.uselessEvents;
+        state.bestScore = this.bestScore;
+    }
+
+    /**
+     * Restore the run statistics from a checkpoint state object.  The best-model snapshot is restored
+     * separately.
+     *
+     * @param state		checkpoint state containing the statistics
+     */
+    protected void restoreState(Checkpointer.State state) {
+        this.errorStop = state.errorStop;
+        this.bounceCount = state.bounceCount;
+        this.eventCount = state.eventCount;
+        this.saveCount = state.saveCount;
+        this.bestEvent = state.bestEvent;
+        this.bestAccuracy = state.bestAccuracy;
+        this.uselessEvents = state.uselessEvents;
+        this.bestScore = state.bestScore;
+    }
+
     /**
      * @return the number of useless iterations so far
      */
@@ -326,81 +414,31 @@ abstract public class RunStats {
 
     /**
      * Statistically score a model against a testing set. Subclasses that use this
-     * must provide a chooseAltScore method.
+     * must provide a chooseAltScore method.  The metrics engine is reused, so the
+     * object returned is only valid until the next call.
      *
      * @param model      model to evaluate
      * @param testingSet testing set for the evaluation
+     * @param labels     list of label names
      *
-     * @return an evaluation object containing an assessment of the model's
+     * @return a metrics object containing an assessment of the model's
      *         performance
      */
-    public RegressionEvaluation scoreModel(MultiLayerNetwork model, DataSet testingSet, List<String> labels) {
+    public RegressionMetrics scoreModel(MultiLayerNetwork model, DataSet testingSet, List<String> labels) {
         this.output = model.output(testingSet.getFeatures());
-        RegressionEvaluation retVal = new RegressionEvaluation(labels);
-        retVal.eval(testingSet.getLabels(), this.output);
-        this.newAccuracy = this.chooseAltScore(retVal, testingSet);
+        RegressionMetrics retVal = this.metrics.compute(testingSet.getLabels(), this.output);
+        this.newAccuracy = this.chooseAltScore(retVal);
         this.newScore = model.score();
         return retVal;
     }
 
-    /**
-     * Compute the pseudo-accuracy for all columns. The pseudo-accuracy is the
-     * fraction of entries where the output value is on the same side of the bound
-     * as the value in the testing set.
-     *
-     * @param testingSet testing set containing desired results
-     * @param bound      threshold for pseudo-accuracy
-     *
-     * @return the pseudo-accuracy for the given label column
-     */
-    public double pseudoAccuracy(DataSet testingSet, double bound) {
-        INDArray expect = testingSet.getLabels();
-        int goodCount = 0;
-        int total = 0;
-        for (long r = 0; r < expect.rows(); r++) {
-            for (long c = 0; c < expect.columns(); c++) {
-                boolean eDiff = (expect.getDouble(r, c) >= bound);
-                boolean oDiff = (output.getDouble(r, c) >= bound);
-                if (eDiff == oDiff)
-                    goodCount++;
-                total++;
-            }
-        }
-        return (((double) goodCount) / total);
-    }
-
-    /**
-     * Compute the bound accuracy for all columns. The bound accuracy is the
-     * fraction of entries where the output value rounds to the value in the testing
-     * set.
-     *
-     * @param testingSet testing set containing desired results
-     *
-     * @return the pseudo-accuracy for the given label column
-     */
-    public double boundAccuracy(DataSet testingSet) {
-        INDArray expect = testingSet.getLabels();
-        int goodCount = 0;
-        int total = 0;
-        for (long r = 0; r < expect.rows(); r++) {
-            for (long c = 0; c < expect.columns(); c++) {
-                double oValue = Math.round(output.getDouble(r, c));
-                if (oValue == expect.getDouble(r, c))
-                    goodCount++;
-                total++;
-            }
-        }
-        return (((double) goodCount) / total);
-    }
-
     /**
      * @return the alternate score preferred by this criterion
      *
-     * @param eval       RegressionEvaluation object containing the scores
-     * @param testingSet testing set with target values
+     * @param metrics    metrics object containing the scores
      */
-    protected double chooseAltScore(RegressionEvaluation eval, DataSet testingSet) {
-        return eval.averageRSquared();
+    protected double chooseAltScore(RegressionMetrics metrics) {
+        return metrics.averageRSquared();
     }
 
     /**
@@ -446,7 +484,7 @@ abstract public class RunStats {
             String saveFlag = "";
             if (this.newScore < this.getBestScore()
                     || newScore == this.getBestScore() && this.newAccuracy > this.getBestAccuracy()) {
-                this.setBestModel(model.clone());
+                this.setBestModel(model);
                 saveFlag = "  Model saved.";
                 retVal = true;
             } else {
@@ -493,7 +531,7 @@ abstract public class RunStats {
             String saveFlag = "";
             if (this.newAccuracy > this.getBestAccuracy()
                     || this.newAccuracy == this.getBestAccuracy() && this.newScore < this.getBestScore()) {
-                this.setBestModel(model.clone());
+                this.setBestModel(model);
                 saveFlag = "  Model saved.";
                 retVal = true;
             } else {
@@ -514,7 +552,7 @@ abstract public class RunStats {
     public static class Regression extends RunStats {
 
         protected Regression(MultiLayerNetwork model, RegressionTrainingProcessor processor) {
-            super(model);
+            super(model, processor);
         }
 
         /**
@@ -535,7 +573,7 @@ abstract public class RunStats {
             String saveFlag = "";
             if (this.newScore < this.getBestScore()
                     || newScore == this.getBestScore() && this.newAccuracy > this.getBestAccuracy()) {
-                this.setBestModel(model.clone());
+                this.setBestModel(model);
                 saveFlag = "  Model saved.";
                 retVal = true;
             } else {
@@ -561,7 +599,7 @@ abstract public class RunStats {
     public static class Coefficient extends RunStats {
 
         protected Coefficient(MultiLayerNetwork model, RegressionTrainingProcessor processor) {
-            super(model);
+            super(model, processor);
         }
 
         /**
@@ -582,7 +620,7 @@ abstract public class RunStats {
             String saveFlag = "";
             if (this.newAccuracy > this.getBestAccuracy()
                     || newAccuracy == this.getBestAccuracy() && this.newScore < this.getBestScore()) {
-                this.setBestModel(model.clone());
+                this.setBestModel(model);
                 saveFlag = "  Model saved.";
                 retVal = true;
             } else {
@@ -603,7 +641,7 @@ abstract public class RunStats {
     public static class Pearson extends RunStats {
 
         protected Pearson(MultiLayerNetwork model, RegressionTrainingProcessor processor) {
-            super(model);
+            super(model, processor);
         }
 
         /**
@@ -624,7 +662,7 @@ abstract public class RunStats {
             String saveFlag = "";
             if (this.newAccuracy > this.getBestAccuracy()
                     || newAccuracy == this.getBestAccuracy() && this.newScore < this.getBestScore()) {
-                this.setBestModel(model.clone());
+                this.setBestModel(model);
                 saveFlag = "  Model saved.";
                 retVal = true;
             } else {
@@ -640,11 +678,10 @@ abstract public class RunStats {
         /**
          * @return the alternate score preferred by this criterion
          *
-         * @param eval       RegressionEvaluation object containing the scores
-         * @param testingSet testing set containing the desired outcomes
+         * @param metrics    metrics object containing the scores
          */
-        protected double chooseAltScore(RegressionEvaluation eval, DataSet testingSet) {
-            return eval.averagePearsonCorrelation();
+        protected double chooseAltScore(RegressionMetrics metrics) {
+            return metrics.averagePearsonCorrelation();
         }
 
     }
@@ -663,11 +700,10 @@ abstract public class RunStats {
         /**
          * @return the alternate score preferred by this criterion
          *
-         * @param eval       RegressionEvaluation object containing the scores
-         * @param testingSet testing set containing the desired outcomes
+         * @param metrics    metrics object containing the scores
          */
-        protected double chooseAltScore(RegressionEvaluation eval, DataSet testingSet) {
-            return boundAccuracy(testingSet);
+        protected double chooseAltScore(RegressionMetrics metrics) {
+            return metrics.averageBoundAccuracy();
         }
 
     }
@@ -677,11 +713,8 @@ abstract public class RunStats {
      */
     public static class PseudoAccuracy extends RunStats {
 
-        protected double bound;
-
         protected PseudoAccuracy(MultiLayerNetwork model, RegressionTrainingProcessor processor) {
-            super(model);
-            this.bound = processor.getBound();
+            super(model, processor);
         }
 
         /**
@@ -702,7 +735,7 @@ abstract public class RunStats {
             String saveFlag = "";
             if (this.newAccuracy > this.getBestAccuracy()
                     || newAccuracy == this.getBestAccuracy() && this.newScore < this.getBestScore()) {
-                this.setBestModel(model.clone());
+                this.setBestModel(model);
                 saveFlag = "  Model saved.";
                 retVal = true;
             } else {
@@ -718,11 +751,10 @@ abstract public class RunStats {
         /**
          * @return the alternate score preferred by this criterion
          *
-         * @param eval       RegressionEvaluation object containing the scores
-         * @param testingSet testing set containing the desired outcomes
+         * @param metrics    metrics object containing the scores
          */
-        protected double chooseAltScore(RegressionEvaluation eval, DataSet testingSet) {
-            return pseudoAccuracy(testingSet, bound);
+        protected double chooseAltScore(RegressionMetrics metrics) {
+            return metrics.averagePseudoAccuracy();
         }
 
     }
@@ -733,7 +765,7 @@ abstract public class RunStats {
     public static class ErrorAccuracy extends RunStats {
 
         public ErrorAccuracy(MultiLayerNetwork model, RegressionTrainingProcessor processor) {
-            super(model);
+            super(model, processor);
         }
 
         @Override
@@ -744,7 +776,7 @@ abstract public class RunStats {
             String saveFlag = "";
             if (this.newAccuracy > this.getBestAccuracy()
                     || newAccuracy == this.getBestAccuracy() && this.newScore < this.getBestScore()) {
-                this.setBestModel(model.clone());
+                this.setBestModel(model);
                 saveFlag = "  Model saved.";
                 retVal = true;
             } else {
@@ -757,8 +789,8 @@ abstract public class RunStats {
             return retVal;
         }
 
-        protected double chooseAltScore(RegressionEvaluation eval, DataSet testingSet) {
-            return -eval.averageMeanAbsoluteError();
+        protected double chooseAltScore(RegressionMetrics metrics) {
+            return -metrics.averageMeanAbsoluteError();
         }
 
     }
@@ -773,8 +805,8 @@ abstract public class RunStats {
         }
 
         @Override
-        protected double chooseAltScore(RegressionEvaluation eval, DataSet testingSet) {
-            return -eval.averageMeanSquaredError();
+        protected double chooseAltScore(RegressionMetrics metrics) {
+            return -metrics.averageMeanSquaredError();
         }
 
     }
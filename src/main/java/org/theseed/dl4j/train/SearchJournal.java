@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.theseed.io.TabbedLineReader;
+
+/**
+ * This object manages the journal of parameter combinations evaluated by the search processor.  The journal is
+ * an append-only tab-delimited file in the model directory.  Each line records the training parameters, the
+ * rating of the trained model, the file to which the model was saved (if any), and the time the line was written.
+ * A line is written as soon as each combination finishes, so the journal survives a crash of the search.
+ *
+ * The training parameters are stored as a key string.  Parameters that do not affect the trained model (the comment,
+ * the model file name, the checkpoint file name, the run tag, the resume flag, and the model directory) are left out
+ * of the key, so that the same combination has the same key in every search.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SearchJournal {
+
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(SearchJournal.class);
+
+    // FIELDS
+    /** journal file */
+    private File journalFile;
+    /** map of parameter keys to journal entries */
+    private Map<String, Entry> entries;
+
+    /** header line for the journal file */
+    public static final String HEADER = "parameters\trating\tmodel\ttime";
+    /** options whose values are left out of the key */
+    private static final List<String> SKIP_VALUED = Arrays.asList("--comment", "--name", "--checkpointFile",
+            "--runTag");
+    /** flag options left out of the key */
+    private static final List<String> SKIP_FLAGS = Arrays.asList("--resume");
+
+    /**
+     * This object describes a single completed parameter combination.
+     */
+    public static class Entry {
+
+        /** rating of the trained model */
+        private double rating;
+        /** name of the file containing the model, or an empty string if it was not saved */
+        private String modelFile;
+
+        /**
+         * Create a journal entry.
+         *
+         * @param rating		rating of the trained model
+         * @param modelFile		name of the model file, or an empty string if it was not saved
+         */
+        protected Entry(double rating, String modelFile) {
+            this.rating = rating;
+            this.modelFile = modelFile;
+        }
+
+        /**
+         * @return the rating of the trained model
+         */
+        public double getRating() {
+            return this.rating;
+        }
+
+        /**
+         * @return the name of the model file, or an empty string if the model was not saved
+         */
+        public String getModelFile() {
+            return this.modelFile;
+        }
+
+    }
+
+    /**
+     * Open a journal.  If the journal file exists, its entries are loaded.
+     *
+     * @param journalFile	journal file to use
+     *
+     * @throws IOException
+     */
+    public SearchJournal(File journalFile) throws IOException {
+        this.journalFile = journalFile;
+        this.entries = new HashMap<String, Entry>();
+        if (journalFile.exists()) {
+            try (TabbedLineReader journalStream = new TabbedLineReader(journalFile)) {
+                int keyIdx = journalStream.findField("parameters");
+                int ratingIdx = journalStream.findField("rating");
+                int modelIdx = journalStream.findField("model");
+                for (TabbedLineReader.Line line : journalStream) {
+                    // Later entries override earlier ones.
+                    Entry entry = new Entry(line.getDouble(ratingIdx), line.get(modelIdx));
+                    this.entries.put(line.get(keyIdx), entry);
+                }
+            }
+            log.info("{} completed parameter combinations found in {}.", this.entries.size(), journalFile);
+        }
+    }
+
+    /**
+     * Compute the journal key for a set of training parameters.
+     *
+     * @param parms		command-line parameters for the training processor, ending with the model directory
+     *
+     * @return the key string for the parameters
+     */
+    public static String computeKey(String[] parms) {
+        List<String> keyParms = new ArrayList<String>(parms.length);
+        // The last parameter is the model directory, so we stop before it.
+        int last = parms.length - 1;
+        int i = 0;
+        while (i < last) {
+            String parm = parms[i];
+            if (SKIP_VALUED.contains(parm))
+                i += 2;
+            else {
+                if (! SKIP_FLAGS.contains(parm))
+                    keyParms.add(parm);
+                i++;
+            }
+        }
+        return String.join(" ", keyParms);
+    }
+
+    /**
+     * @return the journal entry for a parameter key, or NULL if the combination has not been evaluated
+     *
+     * @param key		parameter key of interest
+     */
+    public Entry get(String key) {
+        return this.entries.get(key);
+    }
+
+    /**
+     * @return the number of combinations in the journal
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Record a completed combination.  The line is appended to the journal file immediately.
+     *
+     * @param key			parameter key of the combination
+     * @param rating		rating of the trained model
+     * @param modelFile		file containing the model, or NULL if it was not saved
+     *
+     * @throws IOException
+     */
+    public void record(String key, double rating, File modelFile) throws IOException {
+        String modelName = (modelFile == null ? "" : modelFile.getPath());
+        boolean newFile = ! this.journalFile.exists();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(this.journalFile, true))) {
+            if (newFile)
+                writer.println(HEADER);
+            String time = DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS));
+            writer.println(key + "\t" + rating + "\t" + modelName + "\t" + time);
+        }
+        this.entries.put(key, new Entry(rating, modelName));
+    }
+
+}
@@ -7,11 +7,22 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -52,12 +63,58 @@ import org.theseed.utils.MultiParms;
  *
  * --saveAll	if specified, each model will be saved to a different file, with the name "modelXX.ser", where
  * 				XX is the iteration number
+ * --parallel	number of parameter combinations to train at the same time; each runs on its own training
+ * 				processor, and the results are reported in the same order as for a serial search; the
+ * 				default is 1
+ * --cache		number of training sets to keep in memory between combinations; combinations that read the training
+ * 				file with the same data parameters (batch size, test size, columns, and so forth) will share
+ * 				the parsed batches instead of reading the file again; the default is 0, which turns this off
+ * --mode		search strategy; GRID trains every combination for its full "--iter" count, HALVING trains
+ * 				all the combinations for a small number of epochs and continues only the best ones;
+ * 				the default is GRID
+ * 				RANDOM trains combinations chosen at random, and ADAPTIVE chooses each combination based
+ * 				on the ratings so far (see SearchSampler)
+ * --trials		maximum number of combinations to train in a GRID, RANDOM, or ADAPTIVE search; the default
+ * 				is 0, which means no limit
+ * --maxTime	maximum number of minutes to spend starting new combinations in a GRID, RANDOM, or ADAPTIVE
+ * 				search; the default is 0, which means no limit
+ * --seed		random number seed for RANDOM and ADAPTIVE searches; the default is based on the clock
+ * --minIter	number of epochs for the first round of a HALVING search; the default is 10
+ * --eta		reduction factor for a HALVING search; after each round, only the best 1/eta of the
+ * 				combinations survive, and the survivors' epoch count is multiplied by eta; the default is 3
+ *
+ * Each completed combination is recorded in "search.tbl" in the model directory, along with its rating and the
+ * model file (if any).  A combination found in this journal is not trained again; its rating is taken from the
+ * journal, so a search that is restarted after a crash picks up where it left off.  If a restored combination is
+ * the best, the parameter file is updated from it and its journaled model file is copied to "model.ser".  Delete
+ * the journal to force everything to be retrained.
+ *
+ * In HALVING mode, each combination is checkpointed to "searchXX.ser" in the model directory, where XX is the
+ * iteration number, and survivors resume from the checkpoint in the next round.  The checkpoint files are
+ * deleted at the end of the search.  A combination stops advancing when it reaches its own "--iter" count.
+ * The epoch count is the event count of the training method, so HALVING is not meaningful with "--method BATCH".
+ * In the other modes, a combination that specifies "--checkpoint" without "--checkpointFile" is checkpointed to
+ * "checkpoint-iterXX.ser", so that trials running in parallel do not share a checkpoint file.
  *
  * @author Bruce Parrello
  *
  */
 public class SearchProcessor implements ICommand {
 
+    /**
+     * Search strategies.
+     */
+    public static enum Mode {
+        /** train every combination to completion */
+        GRID,
+        /** train every combination briefly and continue only the best ones */
+        HALVING,
+        /** train combinations in random order */
+        RANDOM,
+        /** choose each combination to train based on the results so far */
+        ADAPTIVE;
+    }
+
     /** logging facility */
     private static Logger log = LoggerFactory.getLogger(ClassTrainingProcessor.class);
 
@@ -66,6 +123,22 @@ public class SearchProcessor implements ICommand {
     private MultiParms parmIterator;
     /** progress monitor from dl4j.win */
     private ITrainReporter progressMonitor;
+    /** number of the next iteration */
+    private int iteration;
+    /** best rating so far */
+    private double bestRating;
+    /** iteration with the best rating */
+    private int bestIteration;
+    /** map of varying parameter names to current values */
+    private HashMap<String, String> varMap;
+    /** headings for the summary matrix */
+    private String[] headings;
+    /** rows of the summary matrix */
+    private List<String[]> data;
+    /** journal of completed combinations */
+    private SearchJournal journal;
+    /** sampler for random and adaptive searches */
+    private SearchSampler<Combination> sampler;
 
     // COMMAND LINE
 
@@ -85,11 +158,353 @@ public class SearchProcessor implements ICommand {
     @Option(name = "--parms", metaVar="parms.prm", usage="parameter file with tab-separated alternatives")
     private File parmFile;
 
+    /** number of parameter combinations to train at once */
+    @Option(name = "--parallel", metaVar = "4", usage = "number of parameter combinations to train in parallel")
+    private int parallel;
+
+    /** number of training sets to cache in memory */
+    @Option(name = "--cache", metaVar = "1", usage = "number of parsed training sets to keep in memory (0 to turn off)")
+    private int cacheSize;
+
+    /** search strategy */
+    @Option(name = "--mode", usage = "search strategy")
+    private Mode mode;
+
+    /** maximum number of combinations to train, or 0 for no limit */
+    @Option(name = "--trials", metaVar = "100", usage = "maximum number of combinations to train (0 for no limit)")
+    private int maxTrials;
+
+    /** maximum number of minutes for starting new combinations, or 0 for no limit */
+    @Option(name = "--maxTime", metaVar = "60", usage = "maximum number of minutes to search (0 for no limit)")
+    private int maxTime;
+
+    /** random number seed for choosing combinations */
+    @Option(name = "--seed", metaVar = "12345", usage = "random number seed for RANDOM and ADAPTIVE searches")
+    private long seed;
+
+    /** number of epochs in the first round of a halving search */
+    @Option(name = "--minIter", metaVar = "5", usage = "number of epochs in the first round of a halving search")
+    private int minIter;
+
+    /** reduction factor for a halving search */
+    @Option(name = "--eta", metaVar = "2", usage = "reduction factor for each round of a halving search")
+    private int eta;
+
     /** model directory */
     @Argument(index=0, metaVar="modelDir", usage="model directory", required=true)
     private File modelDir;
 
 
+    /**
+     * This object describes a parameter combination waiting to be chosen by a random or adaptive search.
+     */
+    private static class Combination {
+
+        /** command-line parameters for the training processor */
+        private List<String> parms;
+        /** description of the varying parameter values */
+        private String name;
+        /** map of varying parameter names to values */
+        private Map<String, String> variables;
+
+        /**
+         * Create a combination.
+         *
+         * @param parms			command-line parameters for the training processor
+         * @param name			description of the varying parameter values
+         * @param variables		map of varying parameter names to values
+         */
+        protected Combination(List<String> parms, String name, Map<String, String> variables) {
+            this.parms = parms;
+            this.name = name;
+            this.variables = variables;
+        }
+
+    }
+
+    /**
+     * This object runs through the trials for a GRID, RANDOM, or ADAPTIVE search, stopping when the
+     * combinations run out or the trial or time limit is reached.
+     */
+    private class TrialIterator implements Iterator<Trial> {
+
+        /** number of trials returned so far */
+        private int count;
+        /** time at which new trials must stop, in milliseconds */
+        private long stopTime;
+        /** TRUE if a limit has been reached */
+        private boolean stopped;
+
+        /**
+         * Create the iterator and start the clock.
+         */
+        protected TrialIterator() {
+            this.count = 0;
+            this.stopped = false;
+            SearchProcessor parent = SearchProcessor.this;
+            this.stopTime = (parent.maxTime <= 0 ? Long.MAX_VALUE : System.currentTimeMillis() + parent.maxTime * 60000L);
+        }
+
+        @Override
+        public boolean hasNext() {
+            SearchProcessor parent = SearchProcessor.this;
+            boolean retVal;
+            if (this.stopped)
+                retVal = false;
+            else if (parent.mode == Mode.GRID)
+                retVal = parent.parmIterator.hasNext();
+            else
+                retVal = parent.sampler.remaining() > 0;
+            if (retVal && parent.maxTrials > 0 && this.count >= parent.maxTrials) {
+                log.info("Trial limit of {} reached.", parent.maxTrials);
+                this.stopped = true;
+                retVal = false;
+            }
+            if (retVal && System.currentTimeMillis() >= this.stopTime) {
+                log.info("Time limit of {} minutes reached after {} trials.", parent.maxTime, this.count);
+                this.stopped = true;
+                retVal = false;
+            }
+            return retVal;
+        }
+
+        @Override
+        public Trial next() {
+            SearchProcessor parent = SearchProcessor.this;
+            Trial retVal;
+            if (parent.mode == Mode.GRID)
+                retVal = parent.nextTrial();
+            else {
+                Combination combo = (parent.mode == Mode.RANDOM ? parent.sampler.nextRandom()
+                        : parent.sampler.nextAdaptive());
+                retVal = parent.buildTrial(combo.parms, combo.name, combo.variables);
+            }
+            this.count++;
+            return retVal;
+        }
+
+    }
+
+    /**
+     * This object describes a single parameter combination to train.  It is built on the main thread, executed
+     * on a worker thread, and then processed on the main thread.
+     */
+    private static class Trial {
+
+        /** iteration number */
+        private int iteration;
+        /** command-line parameters for the training processor */
+        private String[] parms;
+        /** summary matrix row for this trial */
+        private String[] values;
+        /** command-line parameters for the current round of a halving search */
+        private String[] roundParms;
+        /** number of epochs for the current round of a halving search */
+        private int epochs;
+        /** map of varying parameter names to values for this trial */
+        private Map<String, String> variables;
+        /** training processor that ran the trial */
+        private ITrainingProcessor processor;
+        /** rating of the trained model */
+        private double rating;
+        /** error that aborted the trial, or NULL if it succeeded */
+        private Exception error;
+        /** TRUE if the rating was restored from the journal */
+        private boolean restored;
+
+        /**
+         * Create a trial.
+         *
+         * @param iteration		iteration number
+         * @param parms			command-line parameters for the training processor
+         * @param values		summary matrix row (the rating is filled in later)
+         * @param variables		map of varying parameter names to values
+         */
+        protected Trial(int iteration, String[] parms, String[] values, Map<String, String> variables) {
+            this.iteration = iteration;
+            this.parms = parms;
+            this.values = values;
+            this.variables = variables;
+            this.roundParms = parms;
+            this.epochs = 0;
+            this.processor = null;
+            this.rating = Double.NaN;
+            this.error = null;
+            this.restored = false;
+        }
+
+        /**
+         * Train the model for this trial.  Errors are saved for processing later.
+         *
+         * @param processor		training processor to use
+         *
+         * @return this object
+         */
+        protected Trial execute(ITrainingProcessor processor) {
+            this.processor = processor;
+            this.rating = Double.NaN;
+            this.error = null;
+            try {
+                boolean ok = App.execute(processor, this.roundParms);
+                if (! ok)
+                    throw new ParseFailureException("Failed to validate parameters.");
+                this.rating = processor.getRating();
+            } catch (Exception e) {
+                this.error = e;
+            }
+            return this;
+        }
+
+        /**
+         * Set up the parameters for a round of a halving search.  The iteration count, checkpoint interval,
+         * and checkpoint file are replaced, and the resume flag is set for every round after the first.
+         *
+         * @param epochs			total number of epochs to train through the end of this round
+         * @param checkFile			checkpoint file for this trial
+         */
+        protected void setRound(int epochs, File checkFile) {
+            List<String> parmList = new ArrayList<String>(this.parms.length + 7);
+            // The last parameter is the model directory.  Copy the options, skipping the ones we control.
+            int last = this.parms.length - 1;
+            int i = 0;
+            while (i < last) {
+                String parm = this.parms[i];
+                if (parm.equals("-n") || parm.equals("--iter") || parm.equals("--checkpoint")
+                        || parm.equals("--checkpointFile"))
+                    i += 2;
+                else if (parm.equals("--resume"))
+                    i++;
+                else {
+                    parmList.add(parm);
+                    i++;
+                }
+            }
+            parmList.add("--iter");
+            parmList.add(Integer.toString(epochs));
+            parmList.add("--checkpoint");
+            parmList.add(Integer.toString(epochs));
+            parmList.add("--checkpointFile");
+            parmList.add(checkFile.getPath());
+            if (this.epochs > 0)
+                parmList.add("--resume");
+            parmList.add(this.parms[last]);
+            this.roundParms = parmList.toArray(new String[parmList.size()]);
+            this.epochs = epochs;
+        }
+
+        /**
+         * @return the full iteration count specified for this trial
+         */
+        protected int getFullIterations() {
+            int retVal = LearningProcessor.DEFAULT_ITERATIONS;
+            for (int i = 0; i < this.parms.length - 1; i++) {
+                if (this.parms[i].equals("-n") || this.parms[i].equals("--iter"))
+                    retVal = Integer.parseInt(this.parms[i+1]);
+            }
+            return retVal;
+        }
+
+        /**
+         * @return TRUE if this trial trained to its full iteration count
+         */
+        protected boolean isFinal() {
+            return this.epochs == 0 || this.epochs >= this.getFullIterations();
+        }
+
+        /**
+         * @return the journal key for this trial's parameters
+         */
+        protected String getKey() {
+            return SearchJournal.computeKey(this.parms);
+        }
+
+        /**
+         * @return the model file specified for this trial, or NULL if the default is used
+         */
+        protected File getModelFile() {
+            File retVal = null;
+            for (int i = 0; i < this.parms.length - 1; i++) {
+                if (this.parms[i].equals("--name"))
+                    retVal = new File(this.parms[i+1]);
+            }
+            return retVal;
+        }
+
+        /**
+         * Denote that this trial's rating was restored from the journal instead of trained.
+         *
+         * @param rating	rating from the journal
+         */
+        protected void restore(double rating) {
+            this.rating = rating;
+            this.restored = true;
+        }
+
+        /**
+         * @return TRUE if this trial's rating was restored from the journal
+         */
+        protected boolean isRestored() {
+            return this.restored;
+        }
+
+        /**
+         * @return the number of epochs for the current round of a halving search
+         */
+        protected int getEpochs() {
+            return this.epochs;
+        }
+
+        /**
+         * Release the training processor.
+         */
+        protected void release() {
+            this.processor = null;
+        }
+
+        /**
+         * @return the iteration number
+         */
+        protected int getIteration() {
+            return this.iteration;
+        }
+
+        /**
+         * @return the summary matrix row
+         */
+        protected String[] getValues() {
+            return this.values;
+        }
+
+        /**
+         * @return the map of varying parameter names to values
+         */
+        protected Map<String, String> getVariables() {
+            return this.variables;
+        }
+
+        /**
+         * @return the training processor that ran the trial
+         */
+        protected ITrainingProcessor getProcessor() {
+            return this.processor;
+        }
+
+        /**
+         * @return the rating of the trained model
+         */
+        protected double getRating() {
+            return this.rating;
+        }
+
+        /**
+         * @return the error that aborted the trial, or NULL if it succeeded
+         */
+        protected Exception getError() {
+            return this.error;
+        }
+
+    }
+
     /**
      * Initialize a blank search processor.
      */
@@ -116,10 +531,33 @@ public class SearchProcessor implements ICommand {
             this.saveAll = false;
             this.modelType = ModelType.CLASS;
             this.parmFile = null;
+            this.parallel = 1;
+            this.cacheSize = 0;
+            this.mode = Mode.GRID;
+            this.minIter = 10;
+            this.eta = 3;
+            this.maxTrials = 0;
+            this.maxTime = 0;
+            this.seed = System.currentTimeMillis();
             parser.parseArgument(args);
             if (this.help) {
                 parser.printUsage(System.err);
             } else {
+                // Verify the parallelism.
+                if (this.parallel < 1)
+                    throw new ParseFailureException("Invalid parallel count " + Integer.toString(this.parallel) + ".  Must be 1 or greater.");
+                if (this.cacheSize < 0)
+                    throw new ParseFailureException("Invalid cache size " + Integer.toString(this.cacheSize) + ".  Must be 0 or greater.");
+                // Verify the limits.
+                if (this.maxTrials < 0)
+                    throw new ParseFailureException("Invalid trial limit " + Integer.toString(this.maxTrials) + ".  Must be 0 or greater.");
+                if (this.maxTime < 0)
+                    throw new ParseFailureException("Invalid time limit " + Integer.toString(this.maxTime) + ".  Must be 0 or greater.");
+                // Verify the halving parameters.
+                if (this.minIter < 1)
+                    throw new ParseFailureException("Invalid minimum iteration count " + Integer.toString(this.minIter) + ".  Must be 1 or greater.");
+                if (this.eta < 2)
+                    throw new ParseFailureException("Invalid reduction factor " + Integer.toString(this.eta) + ".  Must be 2 or greater.");
                 // Verify the model directory and read the parm file.
                 if (! this.modelDir.isDirectory()) {
                     throw new FileNotFoundException("Model directory " + this.modelDir + " not found or invalid.");
@@ -132,7 +570,7 @@ public class SearchProcessor implements ICommand {
                     retVal = true;
                 }
             }
-        } catch (CmdLineException e) {
+        } catch (CmdLineException | ParseFailureException e) {
             System.err.println(e.toString());
             // For parameter errors, we display the command usage.
             parser.printUsage(System.err);
@@ -144,11 +582,9 @@ public class SearchProcessor implements ICommand {
 
     @Override
     public void run() {
-        // We loop through the parameter combinations, calling the training processor.
-        ITrainingProcessor processor = ModelType.create(modelType);
-        processor.setModelDir(this.modelDir);
-        // Suppress saving of the model unless we force it.
-        processor.setSearchMode();
+        // Create the main training processor.  This is used for the trial log, and in a serial search it
+        // runs all the combinations.
+        ITrainingProcessor processor = this.createProcessor();
         // Set the progress monitor.
         if (this.progressMonitor != null)
             processor.setProgressMonitor(this.progressMonitor);
@@ -159,104 +595,73 @@ public class SearchProcessor implements ICommand {
         } catch (IOException e) {
             log.error("Error writing trial file: {}", e.toString());
         }
+        // Load the journal of completed combinations.
+        try {
+            this.journal = new SearchJournal(new File(this.modelDir, "search.tbl"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         // These variables track our progress and success.
-        int iteration = 1;
-        double bestRating = Double.NEGATIVE_INFINITY;
-        int bestIteration = 0;
+        this.iteration = 1;
+        this.bestRating = Double.NEGATIVE_INFINITY;
+        this.bestIteration = 0;
         // Set up our summary matrix.  Note each array will contain one entry per parameter plus a slot for accuracy.
-        HashMap<String, String> varMap = this.parmIterator.getVariables();
-        String[] headings = ArrayUtils.insert(varMap.size(), this.parmIterator.getOptions(), "    Rating");
-        ArrayList<String[]> data = new ArrayList<String[]>();
-        data.add(headings);
-        while (this.parmIterator.hasNext()) {
-            // If we are saving all models, we must add or replace the model name.
-            if (this.saveAll) {
-                File modelFile = new File(this.modelDir, String.format("model%d.ser", iteration));
-                this.parmIterator.replace("--name", modelFile.toString());
-            }
-            // Insure we have a comment position in the parameter array.
-            this.parmIterator.replace("--comment", "searching");
-            // Update the comment and create the parameter array.
-            List<String> theseParms = this.parmIterator.next();
-            int commentIdx = theseParms.indexOf("--comment");
-            String iterationName = this.parmIterator.toString();
-            if (iterationName.isEmpty())
-                iterationName = "Solo Training Run";
-            String commentText = String.format("Iteration %d: %s", iteration, iterationName);
-            theseParms.set(commentIdx+1, commentText);
-            this.progressMonitor.showMessage(commentText);
-            // Save the varying values.
-            String[] values = new String[varMap.size() + 1];
-            for (int i = 0; i < headings.length; i++)
-                values[i] = varMap.get(headings[i]);
-            // Add the model directory to the parameters.
-            theseParms.add(this.modelDir.getPath());
-            // Run the experiment.
-            // This is a buffer to hold the parameters.
-            String[] parmBuffer = new String[this.parmIterator.size()];
-            String[] actualParms = theseParms.toArray(parmBuffer);
-            try {
-                boolean ok = App.execute(processor, actualParms);
-                if (! ok)
-                    throw new ParseFailureException("Failed to validate parameters.");
-                // Save the accuracy.
-                double newRating = processor.getRating();
-                values[varMap.size()] = String.format("%14.6g", newRating);
-                log.info("Rating for iteration {} is {}.", iteration, newRating);
-                // Compare the rating.
-                boolean save = this.saveAll;
-                if (newRating > bestRating) {
-                    // Here this is our best model.  Remember that and save the model to disk.
-                    bestIteration = iteration;
-                    bestRating = newRating;
-                    save = true;
-                    log.info("** Best iteration so far.");
-                    this.progressMonitor.showResults(processor.getResultReport());
-                    this.updateParmFile();
-                    processor.saveTrainingMeta();
-                } else {
-                    log.info("** Best iteration was {} with rating {}.", bestIteration, bestRating);
-                }
-                if (save)
-                    processor.saveModelForced();
-                // Save this row of the summary array.
-                data.add(values);
-            } catch (ParseFailureException e) {
-                log.error("Fatal exception in iteration {}: {}", iteration, e.toString());
-                throw new RuntimeException(e);
-            } catch (Exception e) {
-                log.error("Exception in iteration {}: {}", iteration, e.toString());
-                e.printStackTrace(System.err);
-                log.error("Iteration aborted due to error.");
-                this.progressMonitor.showResults(ExceptionUtils.getStackTrace(e));
+        // A halving search also has a slot for the number of epochs trained.
+        this.varMap = this.parmIterator.getVariables();
+        String[] options = this.parmIterator.getOptions();
+        if (this.mode == Mode.HALVING)
+            this.headings = ArrayUtils.insert(this.varMap.size(), options, "Epochs", "    Rating");
+        else
+            this.headings = ArrayUtils.insert(this.varMap.size(), options, "    Rating");
+        this.data = new ArrayList<String[]>();
+        this.data.add(this.headings);
+        // Turn on the training data cache for the duration of the search.
+        TrainingDataCache.setCapacity(this.cacheSize);
+        try {
+            switch (this.mode) {
+            case GRID :
+                this.runTrials(processor, new TrialIterator(), t -> { if (this.processResult(t)) this.data.add(t.getValues()); });
+                break;
+            case HALVING :
+                this.runHalving(processor);
+                break;
+            case RANDOM :
+            case ADAPTIVE :
+                this.createSampler();
+                this.runTrials(processor, new TrialIterator(), t -> {
+                    boolean ok = this.processResult(t);
+                    if (ok) this.data.add(t.getValues());
+                    this.sampler.record(t.getVariables(), (ok ? t.getRating() : Double.NEGATIVE_INFINITY));
+                });
+                break;
             }
-            // Count the iteration.
-            iteration++;
+        } finally {
+            TrainingDataCache.setCapacity(0);
         }
-        if (data.size() == 0)
+        if (this.data.size() == 0)
             log.error("No results from search.");
         else {
             // Now display the result matrix.  First we compute the width for each column.
-            int[] widths = new int[varMap.size() + 1];
+            int[] widths = new int[this.headings.length];
             Arrays.fill(widths, 8);
-            for (String[] cols : data)
+            for (String[] cols : this.data)
                 for (int i = 0; i < widths.length; i++)
                     widths[i] = Math.max(cols[i].length(), widths[i]);
             // Compute the total width.  We have 7 at the beginning and an extra space before each column.
             int totWidth = Arrays.stream(widths).sum() + widths.length + 7;
             String boundary = StringUtils.repeat('=', totWidth);
             // We will build the report in here.
-            TextStringBuilder buffer = new TextStringBuilder((totWidth + 2) * (data.size() + 4));
+            TextStringBuilder buffer = new TextStringBuilder((totWidth + 2) * (this.data.size() + 4));
             buffer.appendNewLine();
             buffer.appendln(boundary);
             // Write out the heading line.
-            buffer.appendln(this.writeLine(widths, totWidth, "# ", data.get(0)));
+            buffer.appendln(this.writeLine(widths, totWidth, "# ", this.data.get(0)));
             // Write out a space.
             buffer.appendln("");
             // Write out the data lines.
-            for (int i = 1; i < data.size(); i++) {
-                String label = Integer.toString(i) + (i == bestIteration ? "*" : " ");
-                buffer.appendln(this.writeLine(widths, totWidth, label, data.get(i)));
+            for (int i = 1; i < this.data.size(); i++) {
+                String label = Integer.toString(i) + (i == this.bestIteration ? "*" : " ");
+                buffer.appendln(this.writeLine(widths, totWidth, label, this.data.get(i)));
             }
             // Write out a trailer line.
             buffer.appendln(boundary);
@@ -265,23 +670,402 @@ public class SearchProcessor implements ICommand {
             log.info(report);
             // Write it to the trial file.
             try {
-                RunLog.writeTrialReport(processor.getTrialFile(), "Summary of Search-Mode Results", report);
-                this.progressMonitor.showMessage(String.format("Best iteration was %d with rating %g.", bestIteration, bestRating));
+                synchronized (RunLog.class) {
+                    RunLog.writeTrialReport(processor.getTrialFile(), "Summary of Search-Mode Results", report);
+                }
+                this.progressMonitor.showMessage(String.format("Best iteration was %d with rating %g.", this.bestIteration, this.bestRating));
             } catch (IOException e) {
                 log.error("Error writing trials.log:" + e.toString());
             }
         }
     }
 
+    /**
+     * @return a new training processor for this search
+     */
+    private ITrainingProcessor createProcessor() {
+        ITrainingProcessor retVal = ModelType.create(modelType);
+        retVal.setModelDir(this.modelDir);
+        // Suppress saving of the model unless we force it.
+        retVal.setSearchMode();
+        return retVal;
+    }
+
+    /**
+     * Set up the next parameter combination as a trial.
+     *
+     * @return a trial for the next parameter combination
+     */
+    private Trial nextTrial() {
+        List<String> theseParms = this.parmIterator.next();
+        return this.buildTrial(theseParms, this.parmIterator.toString(), this.varMap);
+    }
+
+    /**
+     * Load all the parameter combinations into a sampler for a random or adaptive search.
+     */
+    private void createSampler() {
+        this.sampler = new SearchSampler<Combination>(this.varMap.keySet(), this.seed);
+        while (this.parmIterator.hasNext()) {
+            List<String> theseParms = new ArrayList<String>(this.parmIterator.next());
+            Map<String, String> variables = new HashMap<String, String>(this.varMap);
+            this.sampler.add(new Combination(theseParms, this.parmIterator.toString(), variables), variables);
+        }
+        log.info("{} parameter combinations available for {} search with seed {}.", this.sampler.remaining(),
+                this.mode, this.seed);
+    }
+
+    /**
+     * Create a trial for a parameter combination.  This assigns the iteration number.
+     *
+     * @param theseParms	command-line parameters for the combination, without the model directory
+     * @param name			description of the varying parameter values
+     * @param variables		map of varying parameter names to values
+     *
+     * @return a trial for the parameter combination
+     */
+    private Trial buildTrial(List<String> theseParms, String name, Map<String, String> variables) {
+        // If we are saving all models, we must add or replace the model name.
+        if (this.saveAll) {
+            File modelFile = new File(this.modelDir, String.format("model%d.ser", this.iteration));
+            setOption(theseParms, "--name", modelFile.toString());
+        }
+        // Update the comment.
+        String iterationName = name;
+        if (iterationName.isEmpty())
+            iterationName = "Solo Training Run";
+        String commentText = String.format("Iteration %d: %s", this.iteration, iterationName);
+        setOption(theseParms, "--comment", commentText);
+        // Tag the run so its metrics and default checkpoint file are kept apart from those of other trials.
+        if (theseParms.contains("--metrics") || theseParms.contains("--checkpoint"))
+            setOption(theseParms, "--runTag", "iter" + this.iteration);
+        this.progressMonitor.showMessage(commentText);
+        // Save the varying values.
+        String[] values = new String[this.headings.length];
+        for (int i = 0; i < this.varMap.size(); i++)
+            values[i] = variables.get(this.headings[i]);
+        // Add the model directory to the parameters.
+        String[] actualParms = theseParms.toArray(new String[theseParms.size() + 1]);
+        actualParms[theseParms.size()] = this.modelDir.getPath();
+        Trial retVal = new Trial(this.iteration, actualParms, values, new HashMap<String, String>(variables));
+        // Count the iteration.
+        this.iteration++;
+        return retVal;
+    }
+
+    /**
+     * Add or replace an option value in a parameter list.
+     *
+     * @param parms		parameter list to update
+     * @param option	name of the option
+     * @param value		new value for the option
+     */
+    private static void setOption(List<String> parms, String option, String value) {
+        int idx = parms.indexOf(option);
+        if (idx < 0) {
+            parms.add(option);
+            parms.add(value);
+        } else
+            parms.set(idx + 1, value);
+    }
+
+    /**
+     * Execute a sequence of trials and process the results in order.  In a serial search, the trials are all
+     * run on the main training processor.  Otherwise, each trial is trained by its own processor on a worker
+     * thread.  The results are processed on this thread in iteration order, so the best-model selection, the
+     * model and parameter file saves, and the summary matrix are the same as they would be for a serial search.
+     * To bound the memory used by finished processors waiting their turn, at most two trials per worker are
+     * outstanding at any time.
+     *
+     * @param processor		main training processor
+     * @param trials		iterator through the trials to run
+     * @param handler		handler for processing each executed trial
+     */
+    private void runTrials(ITrainingProcessor processor, Iterator<Trial> trials, Consumer<Trial> handler) {
+        if (this.parallel <= 1) {
+            while (trials.hasNext()) {
+                Trial trial = trials.next();
+                if (! this.restore(trial))
+                    trial.execute(processor);
+                handler.accept(trial);
+            }
+        } else {
+            try (MathThreads mathThreads = new MathThreads(this.parallel)) {
+                log.info("Running {} combinations at a time with {} math threads each.", this.parallel,
+                        mathThreads.getShare());
+                ExecutorService workers = Executors.newFixedThreadPool(this.parallel);
+                Deque<Future<Trial>> pending = new ArrayDeque<Future<Trial>>(2 * this.parallel);
+                try {
+                    while (trials.hasNext() || ! pending.isEmpty()) {
+                        // Fill the pipeline.
+                        while (pending.size() < 2 * this.parallel && trials.hasNext()) {
+                            Trial trial = trials.next();
+                            if (this.restore(trial))
+                                pending.add(CompletableFuture.completedFuture(trial));
+                            else
+                                pending.add(workers.submit(() -> trial.execute(this.createWorker())));
+                        }
+                        // Process the oldest trial.
+                        Trial trial = pending.remove().get();
+                        handler.accept(trial);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new RuntimeException(e.getCause());
+                } finally {
+                    workers.shutdownNow();
+                }
+            }
+        }
+    }
+
+    /**
+     * Check the journal for a trial.  If the trial's parameters have already been evaluated, the rating is
+     * restored from the journal and the trial does not need to be executed.
+     *
+     * @param trial		trial to check
+     *
+     * @return TRUE if the trial was restored, FALSE if it must be executed
+     */
+    private boolean restore(Trial trial) {
+        SearchJournal.Entry entry = this.journal.get(trial.getKey());
+        boolean retVal = (entry != null);
+        if (retVal) {
+            log.info("Iteration {} was already evaluated with rating {}.", trial.getIteration(), entry.getRating());
+            trial.restore(entry.getRating());
+        }
+        return retVal;
+    }
+
+    /**
+     * Run a successive-halving search.  All the combinations are trained for the minimum number of epochs and
+     * ranked by rating.  The best 1/eta survive to the next round, in which they resume from their checkpoints
+     * and train for eta times as many epochs.  This continues until no survivor has any training left to do.
+     * A combination that fails is eliminated.
+     *
+     * @param processor		main training processor
+     */
+    private void runHalving(ITrainingProcessor processor) {
+        // Create all the trials.
+        List<Trial> trials = new ArrayList<Trial>();
+        while (this.parmIterator.hasNext())
+            trials.add(this.nextTrial());
+        // Combinations already in the journal do not need training.
+        List<Trial> survivors = new ArrayList<Trial>(trials.size());
+        for (Trial trial : trials) {
+            if (! this.restore(trial))
+                survivors.add(trial);
+            else {
+                trial.getValues()[this.varMap.size()] = Integer.toString(trial.getFullIterations());
+                this.processResult(trial);
+            }
+        }
+        int round = 1;
+        long budget = this.minIter;
+        while (! survivors.isEmpty()) {
+            // Set up the parameters for this round.
+            for (Trial trial : survivors) {
+                int epochs = (int) Math.min(budget, trial.getFullIterations());
+                trial.setRound(epochs, this.getCheckpointFile(trial));
+            }
+            String message = String.format("Round %d: training %d combinations for up to %d epochs.", round,
+                    survivors.size(), budget);
+            log.info(message);
+            this.progressMonitor.showMessage(message);
+            // Run the trials and collect the successful ones.
+            List<Trial> rated = new ArrayList<Trial>(survivors.size());
+            this.runTrials(processor, survivors.iterator(), t -> {
+                t.getValues()[this.varMap.size()] = Integer.toString(t.getEpochs());
+                if (this.processResult(t)) rated.add(t);
+            });
+            // Keep the best ones.  Ties go to the earlier iteration.
+            rated.sort((a, b) -> {
+                int retVal = Double.compare(b.getRating(), a.getRating());
+                if (retVal == 0)
+                    retVal = Integer.compare(a.getIteration(), b.getIteration());
+                return retVal;
+            });
+            int keep = Math.max(1, rated.size() / this.eta);
+            survivors = new ArrayList<Trial>(keep);
+            for (Trial trial : rated.subList(0, Math.min(keep, rated.size()))) {
+                if (trial.getEpochs() < trial.getFullIterations())
+                    survivors.add(trial);
+            }
+            // Insure the survivors are run in iteration order.
+            survivors.sort((a, b) -> Integer.compare(a.getIteration(), b.getIteration()));
+            budget *= this.eta;
+            round++;
+        }
+        // Build the summary matrix from the combinations that produced a rating and delete the checkpoints.
+        for (Trial trial : trials) {
+            String[] values = trial.getValues();
+            if (values[values.length - 1] != null)
+                this.data.add(values);
+            File checkFile = this.getCheckpointFile(trial);
+            if (checkFile.exists() && ! checkFile.delete())
+                log.warn("Could not delete checkpoint file {}.", checkFile);
+        }
+    }
 
     /**
-     * Write the current iteration to the parm file.
+     * @return the checkpoint file for a trial in a halving search
+     *
+     * @param trial		trial of interest
+     */
+    private File getCheckpointFile(Trial trial) {
+        return new File(this.modelDir, String.format("search%d.ser", trial.getIteration()));
+    }
+
+    /**
+     * @return a training processor for a parallel worker; its progress is not reported
+     */
+    private ITrainingProcessor createWorker() {
+        ITrainingProcessor retVal = this.createProcessor();
+        retVal.setProgressMonitor(new NullTrainReporter());
+        return retVal;
+    }
+
+    /**
+     * Process the result of a trial.  This must be called in iteration order.
+     *
+     * @param trial		trial that has been executed
+     *
+     * @return TRUE if the trial produced a rating, FALSE if it failed
+     */
+    private boolean processResult(Trial trial) {
+        boolean retVal;
+        if (trial.isRestored())
+            retVal = this.processRestored(trial);
+        else
+            retVal = this.processTrained(trial);
+        return retVal;
+    }
+
+    /**
+     * Process the result of a trial that was trained.  A successful trial that trained to its full iteration
+     * count is compared to the best so far and recorded in the journal.  The result of a partial round in a
+     * halving search only has its rating recorded, for ranking.
+     *
+     * @param trial		trial that has been executed
+     *
+     * @return TRUE if the trial produced a rating, FALSE if it failed
+     */
+    private boolean processTrained(Trial trial) {
+        boolean retVal = false;
+        int iteration = trial.getIteration();
+        Exception error = trial.getError();
+        try {
+            if (error != null)
+                throw error;
+            // Save the accuracy.
+            String[] values = trial.getValues();
+            double newRating = trial.getRating();
+            values[values.length - 1] = String.format("%14.6g", newRating);
+            log.info("Rating for iteration {} is {}.", iteration, newRating);
+            if (! trial.isFinal()) {
+                // A partial round of a halving search is only used for ranking.  The model is not fully trained,
+                // so it cannot be the best model.
+                log.info("Iteration {} trained {} of {} epochs, so its rating is only used for ranking.", iteration,
+                        trial.getEpochs(), trial.getFullIterations());
+                retVal = true;
+            } else {
+                // Compare the rating.
+                ITrainingProcessor processor = trial.getProcessor();
+                boolean save = this.saveAll;
+                if (newRating > this.bestRating) {
+                    // Here this is our best model.  Remember that and save the model to disk.
+                    this.bestIteration = iteration;
+                    this.bestRating = newRating;
+                    save = true;
+                    log.info("** Best iteration so far.");
+                    this.progressMonitor.showResults(processor.getResultReport());
+                    this.updateParmFile(trial.getVariables());
+                    processor.saveTrainingMeta();
+                } else {
+                    log.info("** Best iteration was {} with rating {}.", this.bestIteration, this.bestRating);
+                }
+                if (save)
+                    processor.saveModelForced();
+                retVal = true;
+                // Record the combination in the journal.
+                File modelFile = null;
+                if (save) {
+                    modelFile = trial.getModelFile();
+                    if (modelFile == null)
+                        modelFile = new File(this.modelDir, "model.ser");
+                }
+                try {
+                    this.journal.record(trial.getKey(), newRating, modelFile);
+                } catch (IOException e) {
+                    log.error("Error writing search journal: {}", e.toString());
+                }
+            }
+        } catch (ParseFailureException e) {
+            log.error("Fatal exception in iteration {}: {}", iteration, e.toString());
+            throw new RuntimeException(e);
+        } catch (Exception e) {
+            log.error("Exception in iteration {}: {}", iteration, e.toString());
+            e.printStackTrace(System.err);
+            log.error("Iteration aborted due to error.");
+            this.progressMonitor.showResults(ExceptionUtils.getStackTrace(e));
+        } finally {
+            // Release the processor and its models.
+            trial.release();
+        }
+        return retVal;
+    }
+
+    /**
+     * Process a trial whose rating was restored from the journal.  The trial counts toward the best rating.  If it
+     * becomes the best, the parameter file is updated, and if its model was saved somewhere other than the default
+     * model file, it is copied there, so the model directory describes the best iteration.
+     *
+     * @param trial		restored trial
+     *
+     * @return TRUE, since a restored trial always has a rating
+     */
+    private boolean processRestored(Trial trial) {
+        String[] values = trial.getValues();
+        double rating = trial.getRating();
+        values[values.length - 1] = String.format("%14.6g", rating);
+        if (rating > this.bestRating) {
+            int iteration = trial.getIteration();
+            this.bestIteration = iteration;
+            this.bestRating = rating;
+            String modelName = this.journal.get(trial.getKey()).getModelFile();
+            log.info("** Best iteration so far (restored from journal).  Model file is {}.",
+                    (modelName.isEmpty() ? "not saved" : modelName));
+            try {
+                this.updateParmFile(trial.getVariables());
+                File bestModel = new File(this.modelDir, "model.ser");
+                if (modelName.isEmpty())
+                    log.warn("No model was saved for iteration {}, so {} may not contain the best model.", iteration,
+                            bestModel);
+                else if (! this.saveAll) {
+                    File modelFile = new File(modelName);
+                    if (! modelFile.getCanonicalFile().equals(bestModel.getCanonicalFile())) {
+                        Files.copy(modelFile.toPath(), bestModel.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        log.info("Model for iteration {} copied from {} to {}.", iteration, modelFile, bestModel);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Error restoring best iteration {}: {}", iteration, e.toString());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the specified iteration to the parm file.
+     *
+     * @param currMap	map of varying parameter names to the iteration's values
      *
      * @throws IOException
      */
-    private void updateParmFile() throws IOException {
+    private void updateParmFile(Map<String, String> currMap) throws IOException {
         ParmFile parms = new ParmFile(this.parmFile);
-        Map<String, String> currMap = this.parmIterator.getVariables();
         for (Map.Entry<String, String> parmEntry : currMap.entrySet()) {
             String parmName = StringUtils.removeStart(parmEntry.getKey(), "--");
             ParmDescriptor desc = parms.get(parmName);
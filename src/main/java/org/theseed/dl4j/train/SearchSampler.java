@@ -0,0 +1,199 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * This object chooses parameter combinations for a search from a pool of candidates.  Each candidate is
+ * described by a map from option names to values.  Candidates can be drawn at random, or adaptively using
+ * a tree-structured Parzen estimator (TPE).
+ *
+ * In adaptive mode, the ratings recorded so far are divided into a good group (the best quarter) and a bad
+ * group (the rest).  For each option value, we estimate its frequency in each group, with Laplace smoothing
+ * over the values the option can take.  A candidate's score is the sum over its options of the log of the
+ * good frequency divided by the bad frequency.  At each draw, a random sample of the remaining candidates
+ * is scored and the best one is chosen.  Until enough ratings have been recorded, draws are random.
+ *
+ * Each candidate is drawn at most once.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class SearchSampler<T> {
+
+    // FIELDS
+    /** names of the options that vary */
+    private Collection<String> options;
+    /** remaining candidate objects */
+    private List<T> items;
+    /** option maps for the remaining candidates, parallel to the items */
+    private List<Map<String, String>> itemVars;
+    /** set of values seen for each option */
+    private Map<String, Set<String>> values;
+    /** option maps of the rated candidates */
+    private List<Map<String, String>> history;
+    /** ratings of the rated candidates, parallel to the history */
+    private List<Double> ratings;
+    /** randomizer for draws */
+    private Random rand;
+
+    /** fraction of the ratings in the good group */
+    public static final double GAMMA = 0.25;
+    /** number of candidates scored for each adaptive draw */
+    public static final int SAMPLE_SIZE = 24;
+    /** minimum number of ratings before draws become adaptive */
+    public static final int STARTUP = 5;
+
+    /**
+     * Create a new, empty sampler.
+     *
+     * @param options	names of the options that vary among the candidates
+     * @param seed		seed for the randomizer
+     */
+    public SearchSampler(Collection<String> options, long seed) {
+        this.options = new ArrayList<String>(options);
+        this.items = new ArrayList<T>();
+        this.itemVars = new ArrayList<Map<String, String>>();
+        this.values = new HashMap<String, Set<String>>();
+        for (String option : this.options)
+            this.values.put(option, new HashSet<String>());
+        this.history = new ArrayList<Map<String, String>>();
+        this.ratings = new ArrayList<Double>();
+        this.rand = new Random(seed);
+    }
+
+    /**
+     * Add a candidate to the pool.
+     *
+     * @param item		candidate object
+     * @param vars		map of option names to the candidate's values
+     */
+    public void add(T item, Map<String, String> vars) {
+        this.items.add(item);
+        this.itemVars.add(vars);
+        for (String option : this.options)
+            this.values.get(option).add(vars.get(option));
+    }
+
+    /**
+     * @return the number of candidates not yet drawn
+     */
+    public int remaining() {
+        return this.items.size();
+    }
+
+    /**
+     * @return the number of ratings recorded
+     */
+    public int rated() {
+        return this.ratings.size();
+    }
+
+    /**
+     * @return a randomly-chosen candidate, which is removed from the pool
+     */
+    public T nextRandom() {
+        return this.remove(this.rand.nextInt(this.items.size()));
+    }
+
+    /**
+     * @return the candidate most likely to improve on the ratings so far, which is removed from the pool
+     */
+    public T nextAdaptive() {
+        T retVal;
+        int n = this.ratings.size();
+        if (n < STARTUP)
+            retVal = this.nextRandom();
+        else {
+            // Sort the history indices by rating, best first.
+            List<Integer> order = new ArrayList<Integer>(n);
+            for (int i = 0; i < n; i++)
+                order.add(i);
+            order.sort((a, b) -> Double.compare(this.ratings.get(b), this.ratings.get(a)));
+            int goodCount = Math.max(1, (int) Math.ceil(GAMMA * n));
+            // Count the option values in each group.
+            Map<String, Map<String, Integer>> goodCounts = this.countValues(order.subList(0, goodCount));
+            Map<String, Map<String, Integer>> badCounts = this.countValues(order.subList(goodCount, n));
+            int badCount = n - goodCount;
+            // Score a sample of the remaining candidates.
+            int sampleSize = Math.min(SAMPLE_SIZE, this.items.size());
+            int bestIdx = -1;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < sampleSize; i++) {
+                int idx = this.rand.nextInt(this.items.size());
+                Map<String, String> vars = this.itemVars.get(idx);
+                double score = 0.0;
+                for (String option : this.options) {
+                    String value = vars.get(option);
+                    double k = this.values.get(option).size();
+                    double good = (goodCounts.get(option).getOrDefault(value, 0) + 1.0) / (goodCount + k);
+                    double bad = (badCounts.get(option).getOrDefault(value, 0) + 1.0) / (badCount + k);
+                    score += Math.log(good / bad);
+                }
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestIdx = idx;
+                }
+            }
+            retVal = this.remove(bestIdx);
+        }
+        return retVal;
+    }
+
+    /**
+     * Record the rating of a candidate.  A failed candidate should be recorded with a rating of negative
+     * infinity, so that its values count against it.
+     *
+     * @param vars		map of option names to the candidate's values
+     * @param rating	rating of the trained model
+     */
+    public void record(Map<String, String> vars, double rating) {
+        this.history.add(vars);
+        this.ratings.add(rating);
+    }
+
+    /**
+     * Count the option values for a group of rated candidates.
+     *
+     * @param group		indices of the candidates in the history
+     *
+     * @return a map from each option name to a count of each value
+     */
+    private Map<String, Map<String, Integer>> countValues(List<Integer> group) {
+        Map<String, Map<String, Integer>> retVal = new HashMap<String, Map<String, Integer>>();
+        for (String option : this.options) {
+            Map<String, Integer> counts = new HashMap<String, Integer>();
+            for (int idx : group)
+                counts.merge(this.history.get(idx).get(option), 1, Integer::sum);
+            retVal.put(option, counts);
+        }
+        return retVal;
+    }
+
+    /**
+     * Remove a candidate from the pool.  The last candidate is moved into its place.
+     *
+     * @param idx	index of the candidate to remove
+     *
+     * @return the candidate removed
+     */
+    private T remove(int idx) {
+        int last = this.items.size() - 1;
+        T retVal = this.items.get(idx);
+        this.items.set(idx, this.items.get(last));
+        this.items.remove(last);
+        this.itemVars.set(idx, this.itemVars.get(last));
+        this.itemVars.remove(last);
+        return retVal;
+    }
+
+}
@@ -22,6 +22,14 @@ public abstract class Trainer {
     protected LearningProcessor processor;
     /** logger for messages */
     protected Logger log;
+    /** time training started, in milliseconds */
+    private long startTime;
+    /** time of the last testing-set evaluation, in milliseconds */
+    private long lastEvalTime;
+    /** event count at the last testing-set evaluation */
+    private int lastEvalEvent;
+    /** resource metrics collector for the current training run */
+    private EpochMetrics.Collector collector;
 
     /**
      *	Create a new trainer for a specified training processor.
@@ -48,13 +56,142 @@ public abstract class Trainer {
     public abstract void trainModel(MultiLayerNetwork model, Iterator<DataSet> reader,
             DataSet testingSet, RunStats runStats, ITrainReporter progressMonitor) throws InterruptedException;
 
+    /**
+     * Write a checkpoint if one is due.  No checkpoint is written after an error stop.
+     *
+     * @param model		model being trained
+     * @param runStats	run statistics for the training
+     * @param oldScore	score after the last event, for bounce detection
+     * @param rngState	random number generator position when the model state was captured
+     * @param force		TRUE to write a checkpoint even if the interval has not elapsed
+     */
+    protected void checkpoint(MultiLayerNetwork model, RunStats runStats, double oldScore, long[] rngState, boolean force) {
+        Checkpointer checkpointer = this.processor.getCheckpointer();
+        if (checkpointer != null)
+            checkpointer.checkpoint(model, runStats, oldScore, rngState, force);
+    }
+
+    /**
+     * Start the training clock.  This is used for the time limit, the evaluation schedule, and the
+     * resource metrics.
+     *
+     * @param runStats	run statistics for the training
+     */
+    protected void startClock(RunStats runStats) {
+        this.collector = new EpochMetrics.Collector();
+        this.startTime = System.currentTimeMillis();
+        this.lastEvalTime = this.startTime;
+        this.lastEvalEvent = runStats.getEventCount();
+    }
+
+    /**
+     * Check the time limit.  If it has been reached, the stop is recorded in the run statistics.
+     *
+     * @param runStats	run statistics for the training
+     * @param events	number of training events completed
+     *
+     * @return TRUE if training must stop because the time limit has been reached
+     */
+    protected boolean checkTimeLimit(RunStats runStats, int events) {
+        long limit = this.processor.getMaxTime() * 60000L;
+        boolean retVal = (limit > 0 && System.currentTimeMillis() - this.startTime >= limit);
+        if (retVal) {
+            log.info("Time limit of {} minutes reached after {} {}.", this.processor.getMaxTime(),
+                    events, this.eventsName());
+            runStats.timeLimit();
+        }
+        return retVal;
+    }
+
+    /**
+     * @return TRUE if a testing-set evaluation is due after the specified event
+     *
+     * @param eventCount	number of training events completed
+     * @param last			TRUE if this is the last event of the training run
+     */
+    protected boolean isEvalDue(int eventCount, boolean last) {
+        return last || (eventCount - this.lastEvalEvent >= this.processor.getEvalEvery() &&
+                System.currentTimeMillis() - this.lastEvalTime >= this.processor.getEvalSeconds() * 1000L);
+    }
+
+    /**
+     * Record that a testing-set evaluation has been performed.
+     *
+     * @param eventCount	number of training events completed
+     */
+    protected void evalDone(int eventCount) {
+        this.lastEvalEvent = eventCount;
+        this.lastEvalTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Check the model parameters for divergence, if a check is due.  If any parameter is no longer finite,
+     * the divergence is recorded in the run statistics, which stops the training.
+     *
+     * @param model		model being trained
+     * @param runStats	run statistics for the training
+     * @param events	number of training events completed
+     *
+     * @return TRUE if the model has diverged
+     */
+    protected boolean checkHealth(MultiLayerNetwork model, RunStats runStats, int events) {
+        int interval = this.processor.getHealthCheck();
+        boolean retVal = false;
+        if (interval > 0 && events % interval == 0) {
+            ParameterHealth health = new ParameterHealth(model.params());
+            if (! health.isHealthy()) {
+                log.error("Parameters diverged after {} {}:  {} of {} values are not finite.  Model abandoned.",
+                        events, this.eventsName(), health.getBadCount(), health.getCount());
+                synchronized (runStats) {
+                    runStats.diverge();
+                }
+                retVal = true;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Measure the resources used by a training event.  This must be called on the training thread.
+     *
+     * @param event		event number (1-based)
+     * @param examples	number of training examples processed
+     * @param batches	number of batches fitted
+     * @param fitNanos	nanoseconds spent fitting
+     *
+     * @return the metrics for the event
+     */
+    protected EpochMetrics captureMetrics(int event, long examples, int batches, long fitNanos) {
+        return this.collector.capture(event, examples, batches, fitNanos);
+    }
+
+    /**
+     * Report the metrics for a training event to the progress monitor and the metrics file.
+     *
+     * @param metrics	metrics for the event
+     * @param monitor	progress monitor
+     */
+    protected void reportMetrics(EpochMetrics metrics, ITrainReporter monitor) {
+        if (monitor instanceof IMetricsTrainReporter)
+            ((IMetricsTrainReporter) monitor).displayMetrics(metrics);
+        this.processor.recordMetrics(metrics);
+    }
+
+    /**
+     * @return the initial score for bounce detection (this comes from the checkpoint if we are resuming)
+     */
+    protected double getStartScore() {
+        Checkpointer checkpointer = this.processor.getCheckpointer();
+        return (checkpointer == null ? Double.MAX_VALUE : checkpointer.getResumeScore());
+    }
+
     /**
      * @return the plural name for an event in this trainer's cycle
      */
     public abstract String eventsName();
 
     /** types of trainers */
-    public enum Type { BATCH, EPOCH }
+    public enum Type { BATCH, EPOCH, PARALLEL }
 
     /**
      * @return a trainer of the specified type.
@@ -72,6 +209,9 @@ public abstract class Trainer {
         case EPOCH :
             retVal = new EpochTrainer(processor, log);
             break;
+        case PARALLEL :
+            retVal = new ParallelTrainer(processor, log);
+            break;
         default :
             throw new IllegalArgumentException("Invalid trainer type.");
         }
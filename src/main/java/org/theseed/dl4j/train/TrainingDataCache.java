@@ -0,0 +1,143 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nd4j.linalg.dataset.DataSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This is an in-memory cache of training batches, shared by all the training processors in the JVM.  It is used
+ * by the search processor so that each parameter combination does not have to read and parse the training file
+ * again.  The batches are keyed on all the parameters that affect the data read (see LearningProcessor.getDataKey()),
+ * so combinations that differ only in model hyperparameters share the same batches.
+ *
+ * The cache is disabled until a capacity is set.  The capacity is the number of distinct training sets to keep;
+ * when it is exceeded, the least recently used set is dropped.  If two processors ask for the same training set at
+ * the same time, one reads it and the other waits.
+ *
+ * The cached batches are shared, so the trainers must not modify them.  The epoch trainers copy the batches into
+ * their own caches, and the batch trainer only reads them.
+ *
+ * @author Bruce Parrello
+ *
+ */
+public class TrainingDataCache {
+
+    /** logging facility */
+    protected static Logger log = LoggerFactory.getLogger(TrainingDataCache.class);
+
+    // FIELDS
+    /** maximum number of training sets to keep */
+    private static int capacity = 0;
+    /** map of data keys to cached training sets, in access order */
+    private static final Map<String, Entry> CACHE = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            boolean retVal = (this.size() > capacity);
+            if (retVal)
+                log.info("Dropping cached training set {}.", eldest.getKey());
+            return retVal;
+        }
+
+    };
+
+    /**
+     * This object holds a single cached training set.  It is loaded by the first processor that asks for it.
+     */
+    private static class Entry {
+
+        /** training batches, or NULL if they have not been read yet */
+        private List<DataSet> batches;
+
+        /**
+         * @return the training batches, reading them if necessary
+         *
+         * @param key			data key for the training set
+         * @param reader		iterator through the training batches
+         * @param maxBatches	maximum number of batches to read
+         */
+        protected synchronized List<DataSet> load(String key, Iterator<DataSet> reader, int maxBatches) {
+            if (this.batches != null)
+                log.info("Using cached training set {}.", key);
+            else {
+                log.info("Reading training set {} into the cache.", key);
+                List<DataSet> buffer = new ArrayList<DataSet>();
+                for (int i = 0; i < maxBatches && reader.hasNext(); i++)
+                    buffer.add(reader.next());
+                this.batches = Collections.unmodifiableList(buffer);
+            }
+            return this.batches;
+        }
+
+    }
+
+    /**
+     * Specify the number of training sets to keep.  A capacity of 0 disables the cache and empties it.
+     *
+     * @param newCapacity	maximum number of training sets to keep in memory
+     */
+    public static void setCapacity(int newCapacity) {
+        synchronized (CACHE) {
+            capacity = newCapacity;
+            if (capacity <= 0)
+                CACHE.clear();
+            else {
+                // Drop the oldest sets until we are within the new capacity.
+                Iterator<String> iter = CACHE.keySet().iterator();
+                while (CACHE.size() > capacity) {
+                    iter.next();
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return TRUE if the cache is enabled
+     */
+    public static boolean isEnabled() {
+        synchronized (CACHE) {
+            return capacity > 0;
+        }
+    }
+
+    /**
+     * @return the number of training sets currently cached
+     */
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * Get the training batches for a data key.  If they are not in the cache, they are read from the
+     * specified iterator.
+     *
+     * @param key			data key for the training set
+     * @param reader		iterator through the training batches, used if the set is not cached
+     * @param maxBatches	maximum number of batches to read
+     *
+     * @return an unmodifiable list of the training batches
+     */
+    public static List<DataSet> get(String key, Iterator<DataSet> reader, int maxBatches) {
+        Entry entry;
+        synchronized (CACHE) {
+            entry = CACHE.computeIfAbsent(key, k -> new Entry());
+        }
+        // The load is outside the map lock, so that other training sets can be retrieved while this one is read.
+        return entry.load(key, reader, maxBatches);
+    }
+
+}
@@ -260,6 +260,27 @@ public abstract class TrainingProcessor extends LearningProcessor implements ITr
         this.regulizer = new Regularization(this.regMode, this.regFactor);
         // Correct the early stop value.
         if (this.earlyStop == 0) this.earlyStop = Integer.MAX_VALUE;
+        // Verify the parallel-training configuration.
+        if (this.workers < 1)
+            throw new IllegalArgumentException("Number of workers must be at least 1.");
+        if (this.avgFreq < 1)
+            throw new IllegalArgumentException("Averaging frequency must be at least 1.");
+        if (this.prefetch < 0)
+            throw new IllegalArgumentException("Prefetch queue depth cannot be negative.");
+        if (this.evalLag < 0)
+            throw new IllegalArgumentException("Evaluation lag cannot be negative.");
+        if (this.checkpointInterval < 0)
+            throw new IllegalArgumentException("Checkpoint interval cannot be negative.");
+        if (this.maxTime < 0)
+            throw new IllegalArgumentException("Maximum training time cannot be negative.");
+        if (this.evalEvery < 1)
+            throw new IllegalArgumentException("Evaluation interval must be at least 1.");
+        if (this.evalEvery > 1 && this.evalEvery >= this.earlyStop)
+            throw new IllegalArgumentException("Evaluation interval must be less than the early-stop limit.");
+        if (this.evalSeconds < 0)
+            throw new IllegalArgumentException("Evaluation seconds cannot be negative.");
+        if (this.healthCheck < 0)
+            throw new IllegalArgumentException("Health check interval cannot be negative.");
         // Correct the Nesterov learning rate for the weight updater.  The default here is 0.1, not 1e-3
         this.realLearningRate = this.learnRate;
         if (this.weightUpdateMethod == GradientUpdater.Type.NESTEROVS)
@@ -296,6 +317,19 @@ public abstract class TrainingProcessor extends LearningProcessor implements ITr
         writer.format("## Valid training methods are %s.%n", functions);
         writer.format("--method %s\t# training set processing method%n", this.method.toString());
         writer.format("--earlyStop %d\t# early-stop useless-iteration limit%n", this.earlyStop);
+        writer.format("--workers %d\t# number of model replicas for PARALLEL training%n", this.workers);
+        writer.format("--avgFreq %d\t# batches per replica between parameter averagings%n", this.avgFreq);
+        writer.format("--prefetch %d\t# number of batches to read ahead for BATCH training%n", this.prefetch);
+        if (this.shuffle)
+            writer.println("--shuffle\t# shuffle the training examples before each epoch");
+        else
+            writer.println("# --shuffle\t# shuffle the training examples before each epoch");
+        writer.format("--evalLag %d\t# maximum epochs background evaluation can lag behind training%n", this.evalLag);
+        writer.format("--checkpoint %d\t# number of epochs or batches between training checkpoints%n", this.checkpointInterval);
+        writer.format("--maxTime %d\t# maximum number of minutes to train (0 for no limit)%n", this.maxTime);
+        writer.format("--evalEvery %d\t# minimum number of epochs or batches between evaluations%n", this.evalEvery);
+        writer.format("--evalSeconds %d\t# minimum number of seconds between evaluations%n", this.evalSeconds);
+        writer.format("--healthCheck %d\t# number of epochs or batches between parameter divergence checks%n", this.healthCheck);
         if (this.denseLayers.isEmpty()) {
             writer.format("# --widths 10\t# configure number and widths of hidden layers%n");
             writer.println("--balanced 2\t# number of hidden layers (overrides widths)");
@@ -393,6 +427,33 @@ public abstract class TrainingProcessor extends LearningProcessor implements ITr
             parms.appendln("     Convolutions used filter sizes %s and strides %s.",
                     this.filterSizes, this.strides);
         }
+        if (this.method == Trainer.Type.PARALLEL)
+            parms.appendln("     %d model replicas used, averaged every %d batches.", this.workers, this.avgFreq);
+        else if (this.method == Trainer.Type.BATCH && this.prefetch > 0)
+            parms.appendln("     Up to %d batches read ahead during training.", this.prefetch);
+        if (this.shuffle && this.method != Trainer.Type.BATCH)
+            parms.appendln("     Training examples shuffled before each epoch.");
+        if (this.evalLag > 0 && this.method != Trainer.Type.BATCH)
+            parms.appendln("     Evaluation performed in the background, up to %d epochs behind training.", this.evalLag);
+        if (this.maxTime > 0)
+            parms.appendln("     Training time limited to %d minutes%s.", this.maxTime,
+                    (runStats.isTimeStop() ? " (limit reached)" : ""));
+        if (this.evalEvery > 1)
+            parms.appendln("     Testing set evaluated at most once every %d %s.", this.evalEvery, runStats.getEventsName());
+        if (this.evalSeconds > 0)
+            parms.appendln("     Testing set evaluated at most once every %d seconds.", this.evalSeconds);
+        if (this.healthCheck > 0)
+            parms.appendln("     Parameters checked for divergence every %d %s%s.", this.healthCheck, runStats.getEventsName(),
+                    (runStats.isDiverged() ? " (divergence detected)" : ""));
+        Checkpointer checkpoints = this.getCheckpointer();
+        if (checkpoints != null) {
+            if (checkpoints.getResumeEvent() > 0)
+                parms.appendln("     Training resumed from checkpoint after %d %s.", checkpoints.getResumeEvent(),
+                        runStats.getEventsName());
+            if (checkpoints.getInterval() > 0)
+                parms.appendln("     Checkpoints written to %s every %d %s.", checkpoints.getCheckpointFile(),
+                        checkpoints.getInterval(), runStats.getEventsName());
+        }
         if (this.batchNormFlag)
             parms.appendln("     Batch normalization applied.");
         if (this.denseLayers.isEmpty())
@@ -581,6 +642,11 @@ public abstract class TrainingProcessor extends LearningProcessor implements ITr
             super.saveModel();
     }
 
+    @Override
+    protected String getDataKey() {
+        return super.getDataKey() + "\t" + (this.rawMode ? "raw" : "normalized");
+    }
+
     /**
      * Force saving of a model to the model directory.
      */
@@ -613,8 +679,24 @@ public abstract class TrainingProcessor extends LearningProcessor implements ITr
         // Get access to the input data.
         TabbedDataSetReader batches = this.openDataFile(trainingFile);
         batches.setNormalizer(this.getNormalizer());
+        return this.testPredictions(model, batches, trainingFile.size() - 1, reporter);
+    }
+
+    /**
+     * Test a model against a sequence of normalized batches.
+     *
+     * @param model		model to test
+     * @param batches	batches with which to test the model
+     * @param rows		number of examples in the batches
+     * @param reporter	report object for writing output
+     *
+     * @return an estimate of the prediction error
+     *
+     * @throws IOException
+     */
+    protected IPredictError testPredictions(MultiLayerNetwork model, Iterable<DataSet> batches, int rows, IValidationReport reporter) throws IOException {
         // Initialize the error predictor.
-        IPredictError errorPredictor = this.initializePredictError(this.getLabels(), trainingFile.size() - 1);
+        IPredictError errorPredictor = this.initializePredictError(this.getLabels(), rows);
         // Initialize the output report.
         reporter.startReport(this.getMetaList(), this.getLabels());
         // Loop through the data, making predictions.
@@ -756,7 +838,9 @@ public abstract class TrainingProcessor extends LearningProcessor implements ITr
             // Output the result.
             String report = parms.toString();
             log.info(report);
-            RunLog.writeTrialReport(this.getTrialFile(), this.comment, report);
+            synchronized (RunLog.class) {
+                RunLog.writeTrialReport(this.getTrialFile(), this.comment, report);
+            }
             this.resultReport = this.comment + report;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
@@ -882,5 +966,20 @@ public abstract class TrainingProcessor extends LearningProcessor implements ITr
         return retVal;
     }
 
+    /**
+     * @return the prediction error from the best model found during a validation, using preloaded examples
+     *
+     * @param view				view of the preloaded testing examples
+     * @param testErrorReport	reporting facility for validation
+     *
+     * @throws IOException
+     */
+    public IPredictError testBestPredictions(DataSetStore.View view, IValidationReport testErrorReport) throws IOException {
+        MultiLayerNetwork model = this.getBestModel();
+        IPredictError retVal = this.testPredictions(model, view.batches(this.batchSize, this.getNormalizer()),
+                view.size(), testErrorReport);
+        return retVal;
+    }
+
 
 }
@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package org.theseed.dl4j.predict;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestDoubleFormatter {
+
+    /**
+     * Verify that a formatter matches String.format for a number.
+     *
+     * @param formatter		formatter to test
+     * @param format		equivalent format string
+     * @param value			number to format
+     */
+    private static void check(DoubleFormatter formatter, String format, double value) {
+        assertThat(Double.toString(value), formatter.format(value), equalTo(String.format(format, value)));
+    }
+
+    @Test
+    public void testSpecialValues() {
+        DoubleFormatter formatter = new DoubleFormatter(12, 8);
+        double[] values = new double[] { 0.0, -0.0, 1.0, -1.0, 0.5, 0.1, 0.0001, 0.00009999999999, 0.000099999999,
+                0.00012345678, 99999999.0, 99999999.5, 100000000.0, 12345678.0, 1234567.85, 1.23456785,
+                0.123456785, 1e-5, 1e-15, 1e-200, 1e200, Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.9999999949, 0.99999999, 2.5e-7, 0.125 };
+        for (double value : values) {
+            check(formatter, "%12.8g", value);
+            check(formatter, "%12.8g", -value);
+        }
+        StringBuilder buffer = new StringBuilder("x");
+        formatter.append(buffer, 0.25);
+        assertThat(buffer.toString(), equalTo("x  0.25000000"));
+    }
+
+    @Test
+    public void testRandomValues() {
+        Random rand = new Random(142857);
+        DoubleFormatter formatter = new DoubleFormatter(12, 8);
+        DoubleFormatter narrow = new DoubleFormatter(1, 3);
+        DoubleFormatter single = new DoubleFormatter(0, 1);
+        for (int i = 0; i < 200000; i++) {
+            double value;
+            switch (i % 4) {
+            case 0 :
+                value = rand.nextDouble();
+                break;
+            case 1 :
+                value = (double) rand.nextFloat();
+                break;
+            case 2 :
+                value = rand.nextGaussian() * Math.pow(10.0, rand.nextInt(40) - 20);
+                break;
+            default :
+                // Values with few digits are likely to be rounding ties.
+                value = rand.nextInt(2000000) / 1024.0;
+            }
+            check(formatter, "%12.8g", value);
+            check(narrow, "%1.3g", value);
+            check(single, "%.1g", value);
+        }
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ */
+package org.theseed.dl4j.predict;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestSpillSorter {
+
+    @Test
+    public void testMerge() throws IOException {
+        File spillDir = Files.createTempDirectory("spill").toFile();
+        final int width = 3;
+        Map<String, double[]> expected = new TreeMap<String, double[]>();
+        Random rand = new Random(1234);
+        try (SpillSorter sorter = new SpillSorter(spillDir, 200, width, 4)) {
+            // Each column gets its own builder, as it would in a separate model group.  Some keys repeat, in
+            // which case the last value stored must win.
+            for (int col = 0; col < width; col++) {
+                SpillSorter.RunBuilder builder = sorter.newBuilder();
+                for (int i = 0; i < 2000; i++) {
+                    String key = String.format("K%04d", rand.nextInt(1500));
+                    double value = rand.nextDouble();
+                    builder.add(key, col, value);
+                    expected.computeIfAbsent(key, k -> new double[width])[col] = value;
+                }
+                builder.flush();
+            }
+            // 30 runs with a fan-in of 4 requires two merge passes before the final merge.
+            assertThat(sorter.getRunCount(), equalTo(30));
+            Iterator<Map.Entry<String, double[]>> iter = sorter.merge();
+            Iterator<Map.Entry<String, double[]>> expectIter = expected.entrySet().iterator();
+            while (expectIter.hasNext()) {
+                Map.Entry<String, double[]> expect = expectIter.next();
+                assertThat(iter.hasNext(), equalTo(true));
+                Map.Entry<String, double[]> actual = iter.next();
+                assertThat(actual.getKey(), equalTo(expect.getKey()));
+                for (int col = 0; col < width; col++)
+                    assertThat(actual.getKey(), actual.getValue()[col], equalTo(expect.getValue()[col]));
+            }
+            assertThat(iter.hasNext(), equalTo(false));
+        }
+        assertThat(spillDir.list().length, equalTo(0));
+        spillDir.delete();
+    }
+
+    @Test
+    public void testFailedMerge() throws IOException {
+        File spillDir = Files.createTempDirectory("spill").toFile();
+        try (SpillSorter sorter = new SpillSorter(spillDir, 10, 1, 4)) {
+            SpillSorter.RunBuilder builder = sorter.newBuilder();
+            for (int i = 0; i < 300; i++)
+                builder.add(String.format("K%04d", i), 0, i);
+            builder.flush();
+            assertThat(sorter.getRunCount(), equalTo(30));
+            // Remove a run, so the merge fails part way through a pass.
+            new File(spillDir, spillDir.list()[0]).delete();
+            assertThrows(IOException.class, () -> sorter.merge());
+        }
+        // The merge outputs written before the failure must still be cleaned up.
+        assertThat(spillDir.list().length, equalTo(0));
+        spillDir.delete();
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestBatchPrefetcher {
+
+    /**
+     * This is a slow, endless batch source that counts the batches it produces.
+     */
+    private static class SlowSource implements Iterator<DataSet> {
+
+        /** number of batches produced */
+        private AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public boolean hasNext() {
+            return true;
+        }
+
+        @Override
+        public DataSet next() {
+            // Simulate parsing, which is not interruptible.
+            long end = System.currentTimeMillis() + 20;
+            while (System.currentTimeMillis() < end);
+            this.count.incrementAndGet();
+            return new DataSet(Nd4j.zeros(1, 2), Nd4j.zeros(1, 1));
+        }
+
+    }
+
+    /**
+     * This is a batch source that fails after producing a fixed number of batches.
+     */
+    private static class FailingSource implements Iterator<DataSet> {
+
+        /** number of batches left before the failure */
+        private int remaining;
+        /** failure to throw */
+        private RuntimeException exception;
+        /** error to throw if there is no exception */
+        private Error error;
+
+        /**
+         * Create a failing source.
+         *
+         * @param count		number of batches to produce before failing
+         * @param exception	exception to throw, or NULL to throw the error
+         * @param error		error to throw
+         */
+        protected FailingSource(int count, RuntimeException exception, Error error) {
+            this.remaining = count;
+            this.exception = exception;
+            this.error = error;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return true;
+        }
+
+        @Override
+        public DataSet next() {
+            if (this.remaining <= 0) {
+                if (this.exception != null)
+                    throw this.exception;
+                throw this.error;
+            }
+            this.remaining--;
+            return new DataSet(Nd4j.zeros(1, 2), Nd4j.zeros(1, 1));
+        }
+
+    }
+
+    @Test
+    public void testFailures() {
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            try (BatchPrefetcher batches = new BatchPrefetcher(new FailingSource(2, null,
+                    new OutOfMemoryError("test error")), 1, 1000)) {
+                assertThat(batches.next(), notNullValue());
+                assertThat(batches.next(), notNullValue());
+                OutOfMemoryError e = assertThrows(OutOfMemoryError.class, () -> batches.hasNext());
+                assertThat(e.getMessage(), equalTo("test error"));
+            }
+            try (BatchPrefetcher batches = new BatchPrefetcher(new FailingSource(1,
+                    new IllegalStateException("test exception"), null), 2, 1000)) {
+                assertThat(batches.next(), notNullValue());
+                assertThrows(IllegalStateException.class, () -> batches.hasNext());
+            }
+        });
+    }
+
+    @Test
+    public void testClose() throws InterruptedException {
+        SlowSource source = new SlowSource();
+        try (BatchPrefetcher batches = new BatchPrefetcher(source, 2, 1000)) {
+            for (int i = 0; i < 3; i++)
+                assertThat(batches.next(), notNullValue());
+            batches.close();
+            // The reader has stopped, so the source is no longer being used.
+            int count = source.count.get();
+            Thread.sleep(100);
+            assertThat(source.count.get(), equalTo(count));
+            assertThat(batches.hasNext(), equalTo(false));
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestCheckpointer {
+
+    /**
+     * @return a small initialized model
+     */
+    private static MultiLayerNetwork buildModel() {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder().seed(42).list()
+                .layer(new DenseLayer.Builder().nIn(3).nOut(4).activation(Activation.RELU).build())
+                .layer(new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT).nIn(4).nOut(2)
+                        .activation(Activation.SOFTMAX).build())
+                .build();
+        MultiLayerNetwork retVal = new MultiLayerNetwork(conf);
+        retVal.init();
+        return retVal;
+    }
+
+    @Test
+    public void testDivergedCheckpoint() throws IOException {
+        File checkFile = File.createTempFile("checkpoint", ".ser");
+        try {
+            MultiLayerNetwork model = buildModel();
+            RunStats runStats = new RunStats.Score(model);
+            INDArray good;
+            try (Checkpointer checkpointer = new Checkpointer(checkFile, 1)) {
+                runStats.event();
+                assertThat(checkpointer.checkpoint(model, runStats, 1.0, Checkpointer.captureRandom(), false),
+                        equalTo(true));
+                good = model.params().dup();
+                // Now the model diverges.  The final checkpoint must not replace the good one.
+                model.params().assign(Double.NaN);
+                runStats.event();
+                runStats.diverge();
+                assertThat(checkpointer.checkpoint(model, runStats, 1.0, Checkpointer.captureRandom(), true),
+                        equalTo(false));
+            }
+            MultiLayerNetwork restored = buildModel();
+            RunStats restoredStats = new RunStats.Score(restored);
+            Checkpointer reader = new Checkpointer(checkFile, 1);
+            assertThat(reader.restore(restored, restoredStats), equalTo(true));
+            assertThat(reader.getResumeEvent(), equalTo(1));
+            assertThat(restoredStats.isErrorStop(), equalTo(false));
+            assertThat(restored.params(), equalTo(good));
+        } finally {
+            checkFile.delete();
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.preprocessor.NormalizerStandardize;
+import org.nd4j.linalg.factory.Nd4j;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestDataSetStore {
+
+    /**
+     * @return a list of batches in which example i has features (i, 10i, 100i), label i, and metadata "Ei"
+     *
+     * @param n			number of examples
+     * @param batchSize	number of examples per batch
+     */
+    private static List<DataSet> createBatches(int n, int batchSize) {
+        List<DataSet> retVal = new ArrayList<DataSet>();
+        for (int start = 0; start < n; start += batchSize) {
+            int size = Math.min(batchSize, n - start);
+            INDArray features = Nd4j.create(size, 3);
+            INDArray labels = Nd4j.create(size, 1);
+            List<Serializable> meta = new ArrayList<Serializable>(size);
+            for (int i = 0; i < size; i++) {
+                int ex = start + i;
+                features.putRow(i, Nd4j.create(new float[] { ex, 10 * ex, 100 * ex }));
+                labels.putScalar(i, 0, ex);
+                meta.add("E" + ex);
+            }
+            DataSet batch = new DataSet(features, labels);
+            batch.setExampleMetaData(meta);
+            retVal.add(batch);
+        }
+        return retVal;
+    }
+
+    @Test
+    public void testViews() {
+        DataSetStore store = DataSetStore.load(createBatches(10, 4).iterator());
+        assertThat(store.size(), equalTo(10));
+        DataSetStore.View view = store.view(new int[] { 7, 8, 9, 0, 1, 2, 3, 4, 5, 6 });
+        assertThat(view.size(), equalTo(10));
+        DataSetStore.View sub = view.subView(3, 10);
+        assertThat(sub.size(), equalTo(7));
+        List<Integer> sizes = new ArrayList<Integer>();
+        int expected = 0;
+        for (DataSet batch : sub.batches(3, null)) {
+            int n = batch.numExamples();
+            sizes.add(n);
+            List<String> meta = batch.getExampleMetaData(String.class);
+            for (int i = 0; i < n; i++) {
+                assertThat(batch.getFeatures().getDouble(i, 1), closeTo(10.0 * expected, 1e-6));
+                assertThat(batch.getLabels().getDouble(i, 0), closeTo(expected, 1e-6));
+                assertThat(meta.get(i), equalTo("E" + expected));
+                expected++;
+            }
+        }
+        assertThat(sizes, contains(3, 3, 1));
+        // Verify that the batches are normalized and the store is not.
+        NormalizerStandardize normalizer = new NormalizerStandardize();
+        normalizer.fit(createBatches(10, 10).get(0));
+        DataSet first = view.batches(10, normalizer).iterator().next();
+        assertThat(first.getFeatures().getDouble(0, 0), closeTo(0.870, 0.001));
+        first = view.batches(10, null).iterator().next();
+        assertThat(first.getFeatures().getDouble(0, 0), closeTo(7.0, 1e-6));
+    }
+
+    @Test
+    public void testMasks() {
+        List<DataSet> batches = createBatches(4, 2);
+        batches.get(1).setFeaturesMaskArray(Nd4j.ones(2, 3));
+        assertThat(DataSetStore.load(batches.iterator()), nullValue());
+        assertThat(DataSetStore.load(Arrays.<DataSet>asList().iterator()), nullValue());
+    }
+
+}
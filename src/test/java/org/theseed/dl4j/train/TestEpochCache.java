@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestEpochCache {
+
+    /**
+     * @return a list of batches with two-dimensional features, where each example's values identify it
+     *
+     * @param sizes		sizes of the batches to create
+     */
+    private static List<DataSet> createBatches(int... sizes) {
+        List<DataSet> retVal = new ArrayList<DataSet>(sizes.length);
+        int id = 0;
+        for (int size : sizes) {
+            INDArray features = Nd4j.create(size, 1, 2, 3);
+            INDArray labels = Nd4j.create(size, 2);
+            for (int i = 0; i < size; i++) {
+                features.get(NDArrayIndex.point(i)).assign(id);
+                labels.putScalar(i, 0, id);
+                labels.putScalar(i, 1, -id);
+                id++;
+            }
+            retVal.add(new DataSet(features, labels));
+        }
+        return retVal;
+    }
+
+    /**
+     * Test the epoch ordering and batch assembly.
+     */
+    @Test
+    public void testCache() {
+        List<DataSet> batches = createBatches(4, 4, 4, 3);
+        EpochCache cache = new EpochCache(batches, 2, 12345);
+        assertThat(batches.size(), equalTo(0));
+        assertThat(cache.isPacked(), equalTo(true));
+        assertThat(cache.size(), equalTo(4));
+        assertThat(cache.getExampleCount(), equalTo(15));
+        // In the original order, we should get the original batches back.
+        int id = 0;
+        for (int i = 0; i < cache.size(); i++) {
+            DataSet batch = cache.getBatch(i, 0);
+            assertThat(batch.getFeatures().shape(), equalTo(new long[] { (i < 3 ? 4 : 3), 1, 2, 3 }));
+            for (int j = 0; j < batch.numExamples(); j++) {
+                assertThat(batch.getLabels().getDouble(j, 0), equalTo((double) id));
+                assertThat(batch.getFeatures().getDouble(j, 0, 1, 2), equalTo((double) id));
+                id++;
+            }
+        }
+        // Shuffle and verify every example appears once, with its label still matching its features.
+        cache.shuffle(1);
+        Set<Integer> found = new HashSet<Integer>();
+        boolean moved = false;
+        id = 0;
+        for (int i = 0; i < cache.size(); i++) {
+            DataSet batch = cache.getBatch(i, i % 2);
+            for (int j = 0; j < batch.numExamples(); j++) {
+                int label = (int) batch.getLabels().getDouble(j, 0);
+                assertThat(batch.getLabels().getDouble(j, 1), equalTo((double) -label));
+                assertThat(batch.getFeatures().getDouble(j, 0, 0, 0), equalTo((double) label));
+                found.add(label);
+                if (label != id) moved = true;
+                id++;
+            }
+        }
+        assertThat(found.size(), equalTo(15));
+        assertThat(moved, equalTo(true));
+        // The same epoch with the same seed should produce the same order.
+        double first = cache.getBatch(0, 0).getLabels().getDouble(0, 0);
+        cache.shuffle(2);
+        cache.shuffle(1);
+        assertThat(cache.getBatch(0, 0).getLabels().getDouble(0, 0), equalTo(first));
+    }
+
+}
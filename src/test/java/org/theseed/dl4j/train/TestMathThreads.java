@@ -0,0 +1,35 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.factory.Nd4j;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestMathThreads {
+
+    @Test
+    public void testSplit() {
+        int oldThreads = Nd4j.getEnvironment().maxThreads();
+        int oldBlasThreads = Nd4j.factory().blas().getMaxThreads();
+        int processors = Runtime.getRuntime().availableProcessors();
+        try (MathThreads mathThreads = new MathThreads(1)) {
+            assertThat(mathThreads.getShare(), equalTo(oldThreads));
+            assertThat(Nd4j.getEnvironment().maxThreads(), equalTo(oldThreads));
+        }
+        try (MathThreads mathThreads = new MathThreads(2)) {
+            int share = mathThreads.getShare();
+            assertThat(share, equalTo(Math.max(1, processors / 2)));
+            assertThat(Nd4j.getEnvironment().maxThreads(), equalTo(share));
+        }
+        assertThat(Nd4j.getEnvironment().maxThreads(), equalTo(oldThreads));
+        assertThat(Nd4j.factory().blas().getMaxThreads(), equalTo(oldBlasThreads));
+    }
+
+}
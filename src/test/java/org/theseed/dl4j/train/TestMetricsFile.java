@@ -0,0 +1,49 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestMetricsFile {
+
+    @Test
+    public void testSharing() throws IOException {
+        File metricsFile = File.createTempFile("metrics", ".tbl");
+        try {
+            EpochMetrics.Collector collector = new EpochMetrics.Collector();
+            EpochMetrics metrics = collector.capture(1, 100, 2, 1000000);
+            try (MetricsFile first = MetricsFile.open(metricsFile);
+                    MetricsFile second = MetricsFile.open(metricsFile)) {
+                assertThat(second, sameInstance(first));
+                first.write("run1", metrics);
+                second.write("run2", metrics);
+            }
+            // Reopening an existing file does not repeat the header.
+            try (MetricsFile third = MetricsFile.open(metricsFile)) {
+                third.write("run3", metrics);
+            }
+            List<String> lines = Files.readAllLines(metricsFile.toPath());
+            assertThat(lines.size(), equalTo(4));
+            assertThat(lines.get(0), equalTo("run\t" + EpochMetrics.HEADER));
+            assertThat(lines.get(1), startsWith("run1\t1\t100\t2\t1.0\t"));
+            assertThat(lines.get(2), startsWith("run2\t"));
+            assertThat(lines.get(3), startsWith("run3\t"));
+            assertThat(lines.get(1).split("\t").length, equalTo(EpochMetrics.HEADER.split("\t").length + 1));
+        } finally {
+            metricsFile.delete();
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.util.ModelSerializer;
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.preprocessor.NormalizerStandardize;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestModelCache {
+
+    /**
+     * Save a small model with a normalizer.
+     *
+     * @param modelFile		file to contain the model
+     *
+     * @throws IOException
+     */
+    private static void saveModel(File modelFile) throws IOException {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder().seed(42).list()
+                .layer(new DenseLayer.Builder().nIn(3).nOut(4).activation(Activation.RELU).build())
+                .layer(new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT).nIn(4).nOut(2)
+                        .activation(Activation.SOFTMAX).build())
+                .build();
+        MultiLayerNetwork model = new MultiLayerNetwork(conf);
+        model.init();
+        NormalizerStandardize normalizer = new NormalizerStandardize();
+        normalizer.fit(new DataSet(Nd4j.rand(10, 3), Nd4j.rand(10, 2)));
+        ModelSerializer.writeModel(model, modelFile, false);
+        ModelSerializer.addNormalizerToModel(modelFile, normalizer);
+    }
+
+    @Test
+    public void testCache() throws IOException {
+        File modelFile = File.createTempFile("model", ".ser");
+        try {
+            saveModel(modelFile);
+            // With the cache disabled, each request reads the file.
+            assertThat(ModelCache.isEnabled(), equalTo(false));
+            ModelCache.Entry first = ModelCache.get(modelFile);
+            assertThat(first.getNormalizer(), instanceOf(NormalizerStandardize.class));
+            assertThat(first.getBytes(), equalTo(26L * 4));
+            assertThat(ModelCache.get(modelFile).getModel(), not(sameInstance(first.getModel())));
+            assertThat(ModelCache.size(), equalTo(0));
+            // With the cache enabled, the second request gets the same model.
+            ModelCache.setBudget(1000);
+            ModelCache.Entry cached = ModelCache.get(modelFile);
+            assertThat(ModelCache.get(modelFile), sameInstance(cached));
+            assertThat(ModelCache.size(), equalTo(1));
+            // A changed model file is read again.
+            saveModel(modelFile);
+            modelFile.setLastModified(modelFile.lastModified() - 10000);
+            ModelCache.Entry reread = ModelCache.get(modelFile);
+            assertThat(reread, not(sameInstance(cached)));
+            assertThat(ModelCache.size(), equalTo(1));
+            // A model bigger than the budget is returned but not kept.
+            ModelCache.setBudget(50);
+            assertThat(ModelCache.size(), equalTo(0));
+            ModelCache.Entry big = ModelCache.get(modelFile);
+            assertThat(big.getModel(), notNullValue());
+            assertThat(ModelCache.size(), equalTo(0));
+        } finally {
+            ModelCache.setBudget(0);
+            modelFile.delete();
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestParameterHealth {
+
+    /**
+     * Test a parameter array with all finite values.
+     */
+    @Test
+    public void testHealthy() {
+        INDArray params = Nd4j.create(new float[] { 1.0f, -2.0f, 3.0f, 6.0f }, 2, 2);
+        ParameterHealth health = new ParameterHealth(params);
+        assertThat(health.isHealthy(), equalTo(true));
+        assertThat(health.getCount(), equalTo(4L));
+        assertThat(health.getBadCount(), equalTo(0L));
+        assertThat(health.getGoodCount(), equalTo(4L));
+        assertThat(health.getMin(), closeTo(-2.0, 1e-6));
+        assertThat(health.getMean(), closeTo(2.0, 1e-6));
+        assertThat(health.getMax(), closeTo(6.0, 1e-6));
+    }
+
+    /**
+     * Test a parameter array with non-finite values.  We use a view to insure the scan respects
+     * the offset into a flattened parameter buffer.
+     */
+    @Test
+    public void testBadValues() {
+        INDArray flat = Nd4j.create(new double[] { 100.0, 1.0, Double.NaN, -4.0, Double.POSITIVE_INFINITY, 6.0,
+                Double.NEGATIVE_INFINITY, -100.0 });
+        INDArray params = flat.get(NDArrayIndex.interval(1, 7));
+        ParameterHealth health = new ParameterHealth(params);
+        assertThat(health.isHealthy(), equalTo(false));
+        assertThat(health.getCount(), equalTo(6L));
+        assertThat(health.getBadCount(), equalTo(3L));
+        assertThat(health.getMin(), closeTo(-4.0, 1e-6));
+        assertThat(health.getMean(), closeTo(1.0, 1e-6));
+        assertThat(health.getMax(), closeTo(6.0, 1e-6));
+        // Insure the original was not modified.
+        assertThat(Double.isNaN(params.getDouble(1)), equalTo(true));
+        // Test an array with nothing finite.
+        params = Nd4j.create(new double[] { Double.NaN, Double.POSITIVE_INFINITY }).castTo(DataType.FLOAT);
+        health = new ParameterHealth(params);
+        assertThat(health.getBadCount(), equalTo(2L));
+        assertThat(health.getGoodCount(), equalTo(0L));
+        assertThat(Double.isNaN(health.getMean()), equalTo(true));
+    }
+
+}
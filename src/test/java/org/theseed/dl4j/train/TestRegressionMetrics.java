@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.evaluation.regression.RegressionEvaluation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestRegressionMetrics {
+
+    /**
+     * Test the regression metrics against the old computations.
+     */
+    @Test
+    public void testMetrics() {
+        Random rand = new Random(1234);
+        final int rows = 200;
+        final int cols = 3;
+        final double bound = 0.5;
+        INDArray expect = Nd4j.create(DataType.FLOAT, rows, cols);
+        INDArray output = Nd4j.create(DataType.FLOAT, rows, cols);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                double e = rand.nextInt(4);
+                double o = e + rand.nextGaussian() * 0.6;
+                // Force some values onto the bound and some onto rounding boundaries.
+                if (r % 17 == 0) o = bound;
+                if (r % 23 == 0) o = e + 0.5;
+                if (r % 29 == 0) o = e - 0.5;
+                expect.putScalar(r, c, e);
+                output.putScalar(r, c, o);
+            }
+        }
+        RegressionMetrics metrics = new RegressionMetrics(bound);
+        // Compute twice to verify the buffers are reused properly.
+        metrics.compute(output, expect);
+        metrics.compute(expect, output);
+        RegressionEvaluation eval = new RegressionEvaluation(List.of("a", "b", "c"));
+        eval.eval(expect, output);
+        int pseudoTotal = 0;
+        int boundTotal = 0;
+        for (int c = 0; c < cols; c++) {
+            assertThat(metrics.meanAbsoluteError(c), closeTo(eval.meanAbsoluteError(c), 1e-6));
+            assertThat(metrics.meanSquaredError(c), closeTo(eval.meanSquaredError(c), 1e-6));
+            assertThat(metrics.pearsonCorrelation(c), closeTo(eval.pearsonCorrelation(c), 1e-6));
+            assertThat(metrics.rSquared(c), closeTo(eval.rSquared(c), 1e-6));
+            int pseudoCount = 0;
+            int boundCount = 0;
+            for (int r = 0; r < rows; r++) {
+                double e = expect.getDouble(r, c);
+                double o = output.getDouble(r, c);
+                if ((e >= bound) == (o >= bound)) pseudoCount++;
+                if (Math.round(o) == e) boundCount++;
+            }
+            assertThat(metrics.pseudoAccuracy(c), equalTo(((double) pseudoCount) / rows));
+            assertThat(metrics.boundAccuracy(c), equalTo(((double) boundCount) / rows));
+            pseudoTotal += pseudoCount;
+            boundTotal += boundCount;
+        }
+        assertThat(metrics.averagePseudoAccuracy(), closeTo(((double) pseudoTotal) / (rows * cols), 1e-10));
+        assertThat(metrics.averageBoundAccuracy(), closeTo(((double) boundTotal) / (rows * cols), 1e-10));
+        assertThat(metrics.averageMeanAbsoluteError(), closeTo(eval.averageMeanAbsoluteError(), 1e-6));
+        assertThat(metrics.averageMeanSquaredError(), closeTo(eval.averageMeanSquaredError(), 1e-6));
+        assertThat(metrics.averagePearsonCorrelation(), closeTo(eval.averagePearsonCorrelation(), 1e-6));
+        assertThat(metrics.averageRSquared(), closeTo(eval.averageRSquared(), 1e-6));
+        // Verify that non-numbers are handled the same way as in the old loops.
+        INDArray bad = Nd4j.create(new double[][] { { Double.NaN }, { 0.7 }, { Double.POSITIVE_INFINITY } });
+        INDArray target = Nd4j.create(new double[][] { { 0.0 }, { 1.0 }, { 1.0 } });
+        metrics.compute(target, bad);
+        assertThat(metrics.pseudoAccuracy(0), equalTo(1.0));
+        assertThat(metrics.boundAccuracy(0), closeTo(2.0 / 3.0, 1e-10));
+    }
+
+}
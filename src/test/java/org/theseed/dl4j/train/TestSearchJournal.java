@@ -0,0 +1,33 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import org.junit.jupiter.api.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestSearchJournal {
+
+    @Test
+    public void testComputeKey() {
+        String[] parms1 = new String[] { "--iter", "100", "--comment", "Iteration 1: a", "--name", "model1.ser",
+                "--checkpoint", "10", "--checkpointFile", "search1.ser", "--runTag", "iter1", "--metrics",
+                "-b", "200", "modelDir1" };
+        String[] parms2 = new String[] { "--iter", "100", "--resume", "--comment", "Iteration 7: a", "--name",
+                "model7.ser", "--checkpoint", "10", "--checkpointFile", "search7.ser", "--runTag", "iter7",
+                "--metrics", "-b", "200", "modelDir2" };
+        String key1 = SearchJournal.computeKey(parms1);
+        assertThat(SearchJournal.computeKey(parms2), equalTo(key1));
+        assertThat(key1, equalTo("--iter 100 --checkpoint 10 --metrics -b 200"));
+        // A parameter that affects the model changes the key.
+        String[] parms3 = new String[] { "--iter", "100", "--checkpoint", "10", "--metrics", "-b", "300",
+                "modelDir1" };
+        assertThat(SearchJournal.computeKey(parms3), not(equalTo(key1)));
+    }
+
+}
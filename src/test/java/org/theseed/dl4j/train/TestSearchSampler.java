@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestSearchSampler {
+
+    /** options for the test candidates */
+    private static final List<String> OPTIONS = Arrays.asList("--rate", "--widths");
+
+    /**
+     * @return a sampler containing all combinations of five learning rates and four widths
+     */
+    private static SearchSampler<String> createSampler() {
+        SearchSampler<String> retVal = new SearchSampler<String>(OPTIONS, 42);
+        for (int r = 0; r < 5; r++) {
+            for (int w = 0; w < 4; w++) {
+                Map<String, String> vars = new HashMap<String, String>();
+                vars.put("--rate", "r" + r);
+                vars.put("--widths", "w" + w);
+                retVal.add(r + "/" + w, vars);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the option map for a candidate name
+     *
+     * @param name		candidate name
+     */
+    private static Map<String, String> parse(String name) {
+        String[] parts = name.split("/");
+        Map<String, String> retVal = new HashMap<String, String>();
+        retVal.put("--rate", "r" + parts[0]);
+        retVal.put("--widths", "w" + parts[1]);
+        return retVal;
+    }
+
+    /**
+     * Verify that random draws return every candidate exactly once.
+     */
+    @Test
+    public void testRandom() {
+        SearchSampler<String> sampler = createSampler();
+        assertThat(sampler.remaining(), equalTo(20));
+        Set<String> seen = new HashSet<String>();
+        while (sampler.remaining() > 0)
+            assertThat(seen.add(sampler.nextRandom()), equalTo(true));
+        assertThat(seen.size(), equalTo(20));
+    }
+
+    /**
+     * Verify that adaptive draws favor the values of the best candidates.
+     */
+    @Test
+    public void testAdaptive() {
+        SearchSampler<String> sampler = createSampler();
+        Set<String> seen = new HashSet<String>();
+        // The rating is best for rate 3.
+        int hits = 0;
+        for (int i = 0; i < 12; i++) {
+            String name = sampler.nextAdaptive();
+            assertThat(seen.add(name), equalTo(true));
+            Map<String, String> vars = parse(name);
+            double rating = (vars.get("--rate").equals("r3") ? 1.0 : 0.0) + i * 0.001;
+            if (i >= SearchSampler.STARTUP && vars.get("--rate").equals("r3"))
+                hits++;
+            sampler.record(vars, rating);
+        }
+        assertThat(sampler.rated(), equalTo(12));
+        assertThat(sampler.remaining(), equalTo(8));
+        // At most 4 candidates have rate 3, and the adaptive draws should find most of the ones not already seen.
+        assertThat(hits, greaterThanOrEqualTo(2));
+        while (sampler.remaining() > 0)
+            assertThat(seen.add(sampler.nextAdaptive()), equalTo(true));
+    }
+
+}
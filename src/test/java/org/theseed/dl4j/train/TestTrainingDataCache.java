@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package org.theseed.dl4j.train;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Bruce Parrello
+ *
+ */
+public class TestTrainingDataCache {
+
+    /**
+     * @return a list of small batches
+     *
+     * @param n		number of batches
+     */
+    private static List<DataSet> createBatches(int n) {
+        List<DataSet> retVal = new ArrayList<DataSet>(n);
+        for (int i = 0; i < n; i++)
+            retVal.add(new DataSet(Nd4j.rand(2, 3), Nd4j.rand(2, 1)));
+        return retVal;
+    }
+
+    @Test
+    public void testCache() {
+        try {
+            assertThat(TrainingDataCache.isEnabled(), equalTo(false));
+            TrainingDataCache.setCapacity(1);
+            assertThat(TrainingDataCache.isEnabled(), equalTo(true));
+            // Read the first set, limited to three batches.
+            List<DataSet> batches = createBatches(5);
+            Iterator<DataSet> reader = batches.iterator();
+            List<DataSet> cached = TrainingDataCache.get("A", reader, 3);
+            assertThat(cached.size(), equalTo(3));
+            assertThat(cached.get(2), sameInstance(batches.get(2)));
+            assertThat(reader.next(), sameInstance(batches.get(3)));
+            // A second request for the same key must not touch the reader.
+            Iterator<DataSet> reader2 = createBatches(5).iterator();
+            assertThat(TrainingDataCache.get("A", reader2, 3), sameInstance(cached));
+            assertThat(reader2.hasNext(), equalTo(true));
+            // A new key evicts the old one.
+            List<DataSet> other = TrainingDataCache.get("B", createBatches(2).iterator(), Integer.MAX_VALUE);
+            assertThat(other.size(), equalTo(2));
+            assertThat(TrainingDataCache.size(), equalTo(1));
+            List<DataSet> reread = TrainingDataCache.get("A", createBatches(4).iterator(), 3);
+            assertThat(reread, not(sameInstance(cached)));
+            assertThat(reread.size(), equalTo(3));
+        } finally {
+            TrainingDataCache.setCapacity(0);
+        }
+        assertThat(TrainingDataCache.size(), equalTo(0));
+    }
+
+}